@@ -15,6 +15,7 @@
 
 import android.util.Base64;
 
+import com.couchbase.lite.FlowControlledReplicatorConnection;
 import com.couchbase.lite.Message;
 import com.couchbase.lite.MessageEndpointConnection;
 import com.couchbase.lite.MessagingCloseCompletion;
@@ -36,6 +37,7 @@ import java.util.regex.Pattern;
 // Base ReplicatorTcpConnection that implements MessageEndpointConnection
 public abstract class ReplicatorTcpConnection implements MessageEndpointConnection {
     protected static final int RECEIVE_BUFFER_SIZE = 8192;
+    private static final long RECEIVE_PAUSE_MS = 10;
 
     private Socket socket;
     // used from multiple threads; guarded by 'this'
@@ -144,6 +146,11 @@ public abstract class ReplicatorTcpConnection implements MessageEndpointConnecti
             int length;
             while ((length = in.read(buffer)) > 0) {
                 repCon.receive(Message.fromData(Arrays.copyOfRange(buffer, 0, length)));
+                // Stop reading while the replicator catches up: the peer will block when the TCP window fills.
+                while ((repCon instanceof FlowControlledReplicatorConnection)
+                    && ((FlowControlledReplicatorConnection) repCon).isReceivePaused()) {
+                    Thread.sleep(RECEIVE_PAUSE_MS);
+                }
             }
         } catch(Exception e) {
             if (!(e instanceof InterruptedException)) {
@@ -0,0 +1,170 @@
+//
+// Copyright (c) 2022 Couchbase, Inc.  All rights reserved.
+//
+// Licensed under the Couchbase License Agreement (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+// https://info.couchbase.com/rs/302-GJY-034/images/2017-10-30_License_Agreement.pdf
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package com.couchbase.lite;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.couchbase.lite.internal.CouchbaseLiteInternal;
+
+
+/**
+ * Adapts an AsyncPredictiveModel to the single row PredictiveModel interface.
+ * <p>
+ * A semaphore bounds the number of predictions in flight.  A permit is held from the time a prediction
+ * is started until the model completes it, even if the caller has stopped waiting.
+ * No caller waits longer than the timeout, either for a permit or for a prediction:
+ * a prediction the model has not completed in time is completed with a TimeoutException.
+ */
+final class AsyncPredictionAdapter implements PredictiveModel {
+    // The timeout used when the model's configuration does not specify one.
+    static final long DEFAULT_TIMEOUT_MS = TimeUnit.SECONDS.toMillis(30);
+
+    // How often a caller waiting for a permit checks whether it has been cancelled.
+    private static final long CANCEL_POLL_MS = 100;
+
+    // Holds the result of a prediction for a synchronous caller.
+    private static final class Result implements AsyncPredictionCompletion {
+        @NonNull
+        final CountDownLatch done = new CountDownLatch(1);
+        @Nullable
+        volatile Dictionary prediction;
+        @Nullable
+        volatile Exception error;
+
+        @Override
+        public void complete(@Nullable Dictionary prediction, @Nullable Exception error) {
+            this.prediction = prediction;
+            this.error = error;
+            done.countDown();
+        }
+    }
+
+    //---------------------------------------------
+    // Member variables
+    //---------------------------------------------
+
+    @NonNull
+    private final AsyncPredictiveModel model;
+
+    @NonNull
+    private final Semaphore inFlight;
+
+    private final long timeoutMs;
+
+    //---------------------------------------------
+    // Constructor
+    //---------------------------------------------
+
+    AsyncPredictionAdapter(@NonNull AsyncPredictiveModel model, int maxInFlight, long timeoutMs) {
+        this.model = model;
+        this.inFlight = new Semaphore(maxInFlight);
+        this.timeoutMs = (timeoutMs > 0) ? timeoutMs : DEFAULT_TIMEOUT_MS;
+    }
+
+    //---------------------------------------------
+    // Implementation of PredictiveModel
+    //---------------------------------------------
+
+    // Start the prediction and wait for it.
+    @Nullable
+    @Override
+    public Dictionary predict(@NonNull Dictionary input) {
+        final Result result = new Result();
+        predict(input, result, null);
+
+        // The completion is called within the timeout: this is just a backstop.
+        try {
+            if (!result.done.await(2 * timeoutMs, TimeUnit.MILLISECONDS)) {
+                throw new IllegalStateException("Timed out waiting for a prediction");
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for a prediction", e);
+        }
+
+        final Exception err = result.error;
+        if (err instanceof RuntimeException) { throw (RuntimeException) err; }
+        if (err != null) { throw new IllegalStateException("Prediction failed", err); }
+
+        return result.prediction;
+    }
+
+    //---------------------------------------------
+    // Package visible methods
+    //---------------------------------------------
+
+    // Start a prediction, waiting if the maximum number of predictions are already in flight.
+    // The completion is called exactly once, and within the timeout: with a TimeoutException if no permit
+    // became free or the model did not complete the prediction in time, or with a CancellationException
+    // if the passed flag was set while waiting for a permit.
+    void predict(
+        @NonNull Dictionary input,
+        @NonNull AsyncPredictionCompletion completion,
+        @Nullable AtomicBoolean cancelled) {
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        try {
+            while (true) {
+                if ((cancelled != null) && cancelled.get()) {
+                    completion.complete(null, new CancellationException("Prediction cancelled"));
+                    return;
+                }
+
+                final long remainingMs = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (remainingMs <= 0) {
+                    completion.complete(null, new TimeoutException("Timed out waiting to start a prediction"));
+                    return;
+                }
+
+                if (inFlight.tryAcquire(Math.min(remainingMs, CANCEL_POLL_MS), TimeUnit.MILLISECONDS)) { break; }
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            completion.complete(null, e);
+            return;
+        }
+
+        // Guard against models that complete a prediction more than once, and against a model
+        // completing a prediction after it has timed out.  The permit is released only by the model.
+        final AtomicBoolean released = new AtomicBoolean();
+        final AtomicBoolean completed = new AtomicBoolean();
+        final AsyncPredictionCompletion release = (prediction, error) -> {
+            if (!released.compareAndSet(false, true)) { return; }
+            inFlight.release();
+            if (completed.compareAndSet(false, true)) { completion.complete(prediction, error); }
+        };
+
+        final long remainingMs = Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime()));
+        CouchbaseLiteInternal.getExecutionService().postDelayedOnExecutor(
+            remainingMs,
+            CouchbaseLiteInternal.getExecutionService().getConcurrentExecutor(),
+            () -> {
+                if (!completed.compareAndSet(false, true)) { return; }
+                completion.complete(null, new TimeoutException("Timed out waiting for a prediction"));
+            });
+
+        try { model.predict(input, release); }
+        catch (RuntimeException e) { release.complete(null, e); }
+    }
+}
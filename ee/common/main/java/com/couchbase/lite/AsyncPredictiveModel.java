@@ -0,0 +1,44 @@
+//
+// Copyright (c) 2022 Couchbase, Inc.  All rights reserved.
+//
+// Licensed under the Couchbase License Agreement (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+// https://info.couchbase.com/rs/302-GJY-034/images/2017-10-30_License_Agreement.pdf
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package com.couchbase.lite;
+
+import androidx.annotation.NonNull;
+
+
+/**
+ * <b>ENTERPRISE EDITION API</b><br><br>
+ * <p>
+ * A predictive model that computes its predictions asynchronously: for instance, by sending
+ * requests to an inference server.  Register it with
+ * {@link Prediction#registerAsyncModel(String, AsyncPredictiveModel, PredictiveModelConfiguration)}.
+ * <p>
+ * LiteCore asks for predictions one row at a time, and a query waits for each.  When a predictive index
+ * is built in the background, however, predictions for many documents are requested without waiting,
+ * up to the model's maximum number of predictions in flight
+ * (see {@link PredictiveModelConfiguration#setMaxInFlight(int)}).
+ * A prediction that the model does not complete within the model's timeout
+ * (see {@link PredictiveModelConfiguration#setTimeout(long)}) evaluates as MISSING.
+ */
+@FunctionalInterface
+public interface AsyncPredictiveModel {
+    /**
+     * Start a prediction.  This method should return promptly.  The completion must be called exactly once,
+     * on any thread, when the prediction is complete.  The input dictionary may be used until then.
+     *
+     * @param input      The input dictionary.
+     * @param completion The callback to which the prediction is delivered.
+     */
+    void predict(@NonNull Dictionary input, @NonNull AsyncPredictionCompletion completion);
+}
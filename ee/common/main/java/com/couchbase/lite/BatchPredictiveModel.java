@@ -0,0 +1,52 @@
+//
+// Copyright (c) 2022 Couchbase, Inc.  All rights reserved.
+//
+// Licensed under the Couchbase License Agreement (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+// https://info.couchbase.com/rs/302-GJY-034/images/2017-10-30_License_Agreement.pdf
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package com.couchbase.lite;
+
+import androidx.annotation.NonNull;
+
+import java.util.List;
+
+
+/**
+ * <b>ENTERPRISE EDITION API</b><br><br>
+ * <p>
+ * A predictive model that can evaluate several inputs in a single call.
+ * Register it with {@link Prediction#registerBatchModel(String, BatchPredictiveModel)}.
+ * <p>
+ * Batches are formed when a predictive index is built in the background, with
+ * {@link Database#createPredictiveIndex(String, PredictiveIndex, int, PredictiveIndexBuildListener)}:
+ * the inputs for the documents in the database are passed to the model in batches of the maximum size.
+ * <p>
+ * When a query is evaluated, LiteCore asks for predictions one row at a time.  Only when several threads
+ * are evaluating predictions for the same model concurrently are the inputs that are waiting at the time
+ * the model becomes free coalesced and passed to this model as a single batch.  A caller that finds
+ * the model idle is never delayed: it is simply run as a batch of one.  A query running on its own
+ * calls the model with batches of one.
+ */
+@FunctionalInterface
+public interface BatchPredictiveModel {
+    /**
+     * The prediction callback.  It is passed a non-empty list of input dictionaries and must
+     * return a list of the same size, in which the n-th element is the prediction for the
+     * n-th input.  An element of the returned list may be null, in which case the prediction
+     * for the corresponding input will be evaluated as MISSING.
+     *
+     * @param inputs The input dictionaries.
+     * @return The output dictionaries, one per input.
+     */
+    @NonNull
+    List<Dictionary> predict(@NonNull List<Dictionary> inputs);
+}
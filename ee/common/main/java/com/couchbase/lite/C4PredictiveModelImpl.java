@@ -0,0 +1,722 @@
+//
+// Copyright (c) 2022 Couchbase, Inc.  All rights reserved.
+//
+// Licensed under the Couchbase License Agreement (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+// https://info.couchbase.com/rs/302-GJY-034/images/2017-10-30_License_Agreement.pdf
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package com.couchbase.lite;
+
+import androidx.annotation.GuardedBy;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.couchbase.lite.internal.DbContext;
+import com.couchbase.lite.internal.core.C4PredictiveModel;
+import com.couchbase.lite.internal.exec.ClientTask;
+import com.couchbase.lite.internal.fleece.FLEncoder;
+import com.couchbase.lite.internal.fleece.FLSliceResult;
+import com.couchbase.lite.internal.fleece.FLValue;
+import com.couchbase.lite.internal.fleece.MRoot;
+import com.couchbase.lite.internal.support.Log;
+
+
+/**
+ * The bridge between LiteCore's prediction up-call and a model registered with Prediction.
+ */
+final class C4PredictiveModelImpl implements C4PredictiveModel {
+    // Encoders are confined to the thread on which LiteCore requests the prediction.
+    // An encoder is reset by finish, so it can be reused for the next prediction on the same thread.
+    private static final ThreadLocal<FLEncoder> ENCODERS = new ThreadLocal<>();
+
+    // Stands for a prediction that was MISSING, where null means something else:
+    // a map returns null for a key it does not hold, for instance.
+    private static final Dictionary MISSING_RESULT = new MutableDictionary();
+
+    // LiteCore does not tell the up-call where a row or a query ends.  A prediction is reused only by
+    // the requests that follow it closely on the same thread: it is forgotten as soon as a request with
+    // another input arrives, or when it has not been used for this long.
+    static final long DEDUP_WINDOW_NS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    // The most recent prediction made on a thread.
+    private static final class LastPrediction {
+        @Nullable
+        String input;
+        @Nullable
+        Dictionary prediction;
+        long usedAt;
+
+        void clear() {
+            input = null;
+            prediction = null;
+        }
+    }
+
+    // Results computed ahead of time by a PredictiveIndexBuild, keyed by the JSON of their inputs.
+    // A build stays a limited number of documents ahead of the query engine: once there are more results
+    // than that, the oldest have been used and are discarded.
+    private static final class Precomputed {
+        private static final int MAX_RESULTS
+            = PredictiveIndexBuild.PRECOMPUTE_WINDOW + 2 * PredictiveIndexBuild.CHUNK_SIZE;
+
+        @NonNull
+        private final Object lock = new Object();
+        @GuardedBy("lock")
+        @NonNull
+        private final Map<String, Dictionary> results = new LinkedHashMap<String, Dictionary>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Dictionary> eldest) {
+                return size() > MAX_RESULTS;
+            }
+        };
+
+        boolean contains(@NonNull String key) {
+            synchronized (lock) { return results.containsKey(key); }
+        }
+
+        @Nullable
+        Dictionary get(@NonNull String key) {
+            synchronized (lock) { return results.get(key); }
+        }
+
+        void put(@NonNull String key, @NonNull Dictionary result) {
+            synchronized (lock) { results.put(key, result); }
+        }
+    }
+
+    @NonNull
+    private static FLEncoder getEncoder() {
+        FLEncoder encoder = ENCODERS.get();
+        if (encoder == null) {
+            encoder = FLEncoder.getManagedEncoder();
+            ENCODERS.set(encoder);
+        }
+        return encoder;
+    }
+
+    // Called when an encoder's state is unknown: it will not be reused.
+    private static void abandonEncoder() { ENCODERS.remove(); }
+
+    @Nullable
+    private static PredictionCircuitBreaker createBreaker(
+        @NonNull String name,
+        @NonNull PredictiveModelConfiguration config) {
+        final int threshold = config.getCircuitBreakerThreshold();
+        return (threshold <= 0)
+            ? null
+            : new PredictionCircuitBreaker(
+                name,
+                threshold,
+                config.getCircuitBreakerCoolDown(),
+                config.getCircuitBreakerListener());
+    }
+
+    // The JSON of the Fleece encoding of an input.  Fleece sorts dictionary keys, so this is the same
+    // string as that produced by the input LiteCore passes to predict for an equivalent value.
+    @Nullable
+    private static String getKey(@NonNull Dictionary input) {
+        final FLEncoder encoder = getEncoder();
+        try {
+            input.encodeTo(encoder);
+            try (FLSliceResult slice = encoder.finish2()) {
+                final FLValue value = FLValue.fromData(slice);
+                return (value == null) ? null : value.toJSON();
+            }
+        }
+        catch (LiteCoreException | RuntimeException e) {
+            abandonEncoder();
+            encoder.close();
+            Log.w(LogDomain.QUERY, "Failed encoding a predictive input", e);
+        }
+
+        return null;
+    }
+
+    @NonNull
+    private static FLSliceResult missing() {
+        return FLSliceResult.getUnmanagedSliceResult(); // Will be freed by the native code.
+    }
+
+
+    //---------------------------------------------
+    // Member variables
+    //---------------------------------------------
+
+    @NonNull
+    private final String name;
+    @Nullable
+    private final String version;
+
+    @Nullable
+    private final PredictiveModel model;
+
+    @Nullable
+    private final LazyPredictiveModel lazyModel;
+
+    @Nullable
+    private final EncodingPredictiveModel encodingModel;
+
+    @Nullable
+    private final PredictionCache cache;
+
+    @Nullable
+    private final PersistentPredictionCache persistentCache;
+
+    @Nullable
+    private final PredictionCircuitBreaker breaker;
+
+    private final long timeoutMs;
+
+    @Nullable
+    private final PredictiveModelLifecycle lifecycle;
+    @NonNull
+    private final CountDownLatch warmedUp = new CountDownLatch(1);
+
+    // Null if deduplication is disabled.
+    @Nullable
+    private final ThreadLocal<LastPrediction> lastPredictions;
+
+    @NonNull
+    private final Object precomputeLock = new Object();
+    @GuardedBy("precomputeLock")
+    private int precomputeUsers;
+    @Nullable
+    private volatile Precomputed precomputed;
+    // Requests made while results were being computed ahead of time, and those for which there was no result.
+    @NonNull
+    private final AtomicLong precomputeRequests = new AtomicLong();
+    @NonNull
+    private final AtomicLong precomputeMisses = new AtomicLong();
+
+    @NonNull
+    private final PredictionMetrics metrics = new PredictionMetrics();
+
+    //---------------------------------------------
+    // Constructors
+    //---------------------------------------------
+
+    C4PredictiveModelImpl(
+        @NonNull String name,
+        @NonNull PredictiveModel model,
+        @NonNull PredictiveModelConfiguration config,
+        @Nullable PredictiveModelLifecycle lifecycle) {
+        this(name, model, null, config, lifecycle);
+    }
+
+    C4PredictiveModelImpl(
+        @NonNull String name,
+        @NonNull LazyPredictiveModel model,
+        @NonNull PredictiveModelConfiguration config,
+        @Nullable PredictiveModelLifecycle lifecycle) {
+        this(name, null, model, config, lifecycle);
+    }
+
+    // Exactly one of model and lazyModel is not null.
+    private C4PredictiveModelImpl(
+        @NonNull String name,
+        @Nullable PredictiveModel model,
+        @Nullable LazyPredictiveModel lazyModel,
+        @NonNull PredictiveModelConfiguration config,
+        @Nullable PredictiveModelLifecycle lifecycle) {
+        this.name = name;
+        this.lifecycle = lifecycle;
+        this.version = config.getVersion();
+        this.model = model;
+        this.lazyModel = lazyModel;
+        this.encodingModel = null;
+
+        final int maxEntries = config.getCacheMaxEntries();
+        cache = (maxEntries <= 0)
+            ? null
+            : new PredictionCache(maxEntries, config.getCacheMaxBytes(), config.getCacheTtl());
+        persistentCache = config.getPersistentCache();
+        lastPredictions = (!config.isDeduplicationEnabled()) ? null : new ThreadLocal<>();
+
+        timeoutMs = config.getTimeout();
+        breaker = createBreaker(name, config);
+    }
+
+    // The cache holds Dictionaries: it cannot be used with a model that writes its results directly.
+    C4PredictiveModelImpl(
+        @NonNull String name,
+        @NonNull EncodingPredictiveModel model,
+        @NonNull PredictiveModelConfiguration config,
+        @Nullable PredictiveModelLifecycle lifecycle) {
+        this.name = name;
+        this.lifecycle = lifecycle;
+        this.version = config.getVersion();
+        this.model = null;
+        this.lazyModel = null;
+        this.encodingModel = model;
+        this.cache = null;
+        this.persistentCache = null;
+        this.lastPredictions = null;
+
+        timeoutMs = config.getTimeout();
+        breaker = createBreaker(name, config);
+    }
+
+    //---------------------------------------------
+    // Implementation of C4PredictiveModel
+    //---------------------------------------------
+
+    @Override
+    public long predict(long input, long c4db) {
+        final FLValue flInput = new FLValue(input);
+        // Use the context of the open Database that owns the handle.  A shell is needed
+        // only for a handle that no open Database owns.
+        final DbContext openContext = Database.getOpenDbContext(c4db);
+        final DbContext context = (openContext != null) ? openContext : new DbContext(new ShellDb(c4db));
+        return ((encodingModel != null)
+            ? predictEncoded(encodingModel, context, flInput)
+            : predictDictionary(context, flInput))
+            .getHandle();
+    }
+
+    //---------------------------------------------
+    // Package visible methods
+    //---------------------------------------------
+
+    @Nullable
+    String getVersion() { return version; }
+
+    boolean hasLifecycle() { return lifecycle != null; }
+
+    // Warm up the model, on the calling thread.
+    void warmUp() {
+        final PredictiveModelLifecycle model = lifecycle;
+        if (model == null) {
+            warmedUp.countDown();
+            return;
+        }
+
+        final long start = System.nanoTime();
+        try {
+            model.warmUp();
+            Log.i(
+                LogDomain.QUERY,
+                "Prediction model %s warmed up in %dms",
+                name,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        }
+        catch (Exception e) { Log.w(LogDomain.QUERY, "Failed warming up prediction model %s", e, name); }
+        finally { warmedUp.countDown(); }
+    }
+
+    // Wait for warm-up to complete, whether it succeeded or not.
+    boolean awaitWarmUp(long timeout, @NonNull TimeUnit unit) throws InterruptedException {
+        return warmedUp.await(timeout, unit);
+    }
+
+    void close() {
+        if (cache != null) { cache.clear(); }
+        synchronized (precomputeLock) {
+            precomputeUsers = 0;
+            precomputed = null;
+        }
+    }
+
+    // Release the model's resources, on the calling thread.
+    void closeModel() {
+        final PredictiveModelLifecycle model = lifecycle;
+        if (model == null) { return; }
+        try { model.close(); }
+        catch (Exception e) { Log.w(LogDomain.QUERY, "Failed closing prediction model %s", e, name); }
+    }
+
+    // Only models that read and return Dictionaries can be run ahead of time.
+    boolean canPrecompute() { return model != null; }
+
+    void beginPrecompute() {
+        synchronized (precomputeLock) {
+            if (precomputeUsers++ <= 0) { precomputed = new Precomputed(); }
+        }
+    }
+
+    void endPrecompute() {
+        synchronized (precomputeLock) {
+            if (--precomputeUsers > 0) { return; }
+            precomputeUsers = 0;
+            precomputed = null;
+        }
+    }
+
+    // The number of requests made while results were being computed ahead of time.
+    long getPrecomputeRequests() { return precomputeRequests.get(); }
+
+    // The number of those requests for which there was no result computed ahead of time.
+    long getPrecomputeMisses() { return precomputeMisses.get(); }
+
+    // The key under which a result computed ahead of time is saved, or null if the input cannot be encoded.
+    // This should be called with the input read from the database: a copy may not encode to the same bytes.
+    @Nullable
+    String getPrecomputeKey(@NonNull Dictionary input) { return getKey(input); }
+
+    // Run the model and save the result for use by a later request with the same input.  The calling thread
+    // waits no longer than the model's timeout, as it would for a query.  This method may be called from
+    // several threads at once.  Returns false if the result was not saved: the model will be called,
+    // as usual, when the prediction is requested.
+    boolean precompute(@NonNull String key, @NonNull Dictionary input) {
+        final PredictiveModel predictiveModel = model;
+        final Precomputed results = precomputed;
+        if ((predictiveModel == null) || (results == null)) { return false; }
+
+        if (isPrecomputed(results, key)) { return true; }
+
+        if (!allowCall()) { return false; }
+
+        final ClientTask<Dictionary> task = new ClientTask<>(() -> predictiveModel.predict(input));
+        if (!runTask(task)) { return false; }
+
+        savePrecomputed(results, key, task.getResult());
+        return true;
+    }
+
+    // The number of inputs a model can evaluate in a single call.
+    int getPrecomputeBatchSize() {
+        final PredictiveModel predictiveModel = model;
+        return (predictiveModel instanceof PredictionBatcher)
+            ? ((PredictionBatcher) predictiveModel).getMaxBatchSize()
+            : 1;
+    }
+
+    // Run a batch model over several inputs, in a single call, and save the results.  The calling thread
+    // waits no longer than the model's timeout.  Inputs whose results have already been saved are skipped.
+    // There must be no more inputs than getPrecomputeBatchSize.  This method may be called from several
+    // threads at once.
+    void precomputeBatch(@NonNull List<String> keys, @NonNull List<Dictionary> inputs) {
+        final PredictiveModel predictiveModel = model;
+        final Precomputed results = precomputed;
+        if (!(predictiveModel instanceof PredictionBatcher) || (results == null)) { return; }
+
+        final int n = keys.size();
+        final List<String> batchKeys = new ArrayList<>(n);
+        final List<Dictionary> batch = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            final String key = keys.get(i);
+            if (isPrecomputed(results, key)) { continue; }
+            batchKeys.add(key);
+            batch.add(inputs.get(i));
+        }
+
+        if (batch.isEmpty() || !allowCall()) { return; }
+
+        final PredictionBatcher batcher = (PredictionBatcher) predictiveModel;
+        final ClientTask<List<Dictionary>> task = new ClientTask<>(() -> batcher.predictBatch(batch));
+        if (!runTask(task)) { return; }
+
+        final List<Dictionary> predictions = task.getResult();
+        if (predictions == null) { return; }
+
+        final int nBatch = batchKeys.size();
+        for (int i = 0; i < nBatch; i++) { savePrecomputed(results, batchKeys.get(i), predictions.get(i)); }
+    }
+
+    // Models that compute their results asynchronously can have many predictions in flight at once.
+    boolean isAsync() { return model instanceof AsyncPredictionAdapter; }
+
+    // Start computing a result ahead of time, for an asynchronous model.  This method returns as soon as
+    // the prediction is in flight.  The passed callback is run when the result has been saved, or if it
+    // will not be: the model will be called, as usual, when the prediction is requested.
+    // A prediction that has not started when the passed flag is set is abandoned.
+    void precomputeAsync(
+        @NonNull String key,
+        @NonNull Dictionary input,
+        @NonNull Runnable onDone,
+        @NonNull AtomicBoolean cancelled) {
+        final PredictiveModel predictiveModel = model;
+        final Precomputed results = precomputed;
+        if (!(predictiveModel instanceof AsyncPredictionAdapter)
+            || (results == null)
+            || cancelled.get()
+            || isPrecomputed(results, key)
+            || !allowCall()) {
+            onDone.run();
+            return;
+        }
+
+        final long start = System.nanoTime();
+        ((AsyncPredictionAdapter) predictiveModel).predict(
+            input,
+            (prediction, err) -> {
+                try {
+                    // A cancelled prediction never reached the model: if it held the breaker's probe, release it.
+                    if (err instanceof CancellationException) {
+                        if (breaker != null) { breaker.onAbandoned(); }
+                    }
+                    else if (recordCall(System.nanoTime() - start, err)) {
+                        savePrecomputed(results, key, prediction);
+                    }
+                }
+                finally {
+                    onDone.run();
+                }
+            },
+            cancelled);
+    }
+
+    @Nullable
+    PredictionCacheStats getCacheStats() { return (cache == null) ? null : cache.getStats(); }
+
+    @NonNull
+    PredictionStats getStats() {
+        return metrics.getStats(getCacheStats(), (breaker == null) ? null : breaker.getState());
+    }
+
+    //---------------------------------------------
+    // Private methods
+    //---------------------------------------------
+
+    @NonNull
+    private FLSliceResult predictDictionary(@NonNull DbContext context, @NonNull FLValue input) {
+        final String key = ((cache == null) && (persistentCache == null) && (lastPredictions == null))
+            ? null
+            : input.toJSON();
+        final long inBytes = (key == null) ? 0 : key.length();
+
+        // A query that projects several properties of a prediction evaluates PREDICTION() once for each,
+        // one after another, on the same thread and with the same input.  Only the first needs the model.
+        LastPrediction last = null;
+        if ((lastPredictions != null) && (key != null)) {
+            last = lastPredictions.get();
+            if (last == null) {
+                last = new LastPrediction();
+                lastPredictions.set(last);
+            }
+            else {
+                final long now = System.nanoTime();
+                if (key.equals(last.input) && ((now - last.usedAt) <= DEDUP_WINDOW_NS)) {
+                    last.usedAt = now;
+                    final Dictionary prediction = last.prediction;
+                    return recordRequest(inBytes, encode((prediction == MISSING_RESULT) ? null : prediction));
+                }
+                // The remembered prediction belongs to an earlier row or query.
+                last.clear();
+            }
+        }
+
+        final Dictionary prediction = getPrediction(context, input, key);
+        if (prediction == null) { return recordRequest(inBytes, missing()); }
+
+        if (last != null) {
+            last.input = key;
+            last.prediction = prediction;
+            last.usedAt = System.nanoTime();
+        }
+
+        return recordRequest(inBytes, encode((prediction == MISSING_RESULT) ? null : prediction));
+    }
+
+    // Get a prediction from the caches or, failing that, from the model.
+    // Returns MISSING_RESULT if the prediction is MISSING, or null if the model failed.
+    @Nullable
+    private Dictionary getPrediction(@NonNull DbContext context, @NonNull FLValue input, @Nullable String key) {
+        if ((cache != null) && (key != null)) {
+            final PredictionCache.Entry entry = cache.get(key);
+            if (entry != null) { return toResult(entry.getValue()); }
+        }
+
+        final Precomputed results = precomputed;
+        if (results != null) {
+            precomputeRequests.incrementAndGet();
+            final Dictionary prediction = results.get((key != null) ? key : input.toJSON());
+            if (prediction != null) { return prediction; }
+            precomputeMisses.incrementAndGet();
+        }
+
+        // Results from the persistent cache are promoted to the in-memory cache.
+        if ((persistentCache != null) && (key != null)) {
+            final PredictionCache.Entry entry = persistentCache.get(name, version, key);
+            if (entry != null) {
+                if (cache != null) { cache.put(key, entry.getValue()); }
+                return toResult(entry.getValue());
+            }
+        }
+
+        if (((model == null) && (lazyModel == null)) || !allowCall()) { return null; }
+
+        final ClientTask<Dictionary> task;
+        final PredictionInput view;
+        if (lazyModel == null) {
+            final PredictiveModel predictiveModel = model;
+            final Dictionary modelInput = getInput(context, input);
+            view = null;
+            task = new ClientTask<>(() -> predictiveModel.predict(modelInput));
+        }
+        else {
+            final LazyPredictiveModel lazyPredictiveModel = lazyModel;
+            view = new PredictionInput(context, input);
+            task = new ClientTask<>(() -> lazyPredictiveModel.predict(view));
+        }
+
+        final boolean succeeded;
+        try { succeeded = runTask(task); }
+        finally {
+            // The model may not have returned: the view must not outlive the input.
+            if (view != null) { view.close(); }
+        }
+        if (!succeeded) { return null; }
+
+        final Dictionary prediction = task.getResult();
+        if (key != null) {
+            if (cache != null) { cache.put(key, prediction); }
+            if (persistentCache != null) { persistentCache.put(name, version, key, prediction); }
+        }
+
+        return toResult(prediction);
+    }
+
+    // True if there is already a result for the key.  Results found in the persistent cache
+    // are copied to the precomputed results.
+    private boolean isPrecomputed(@NonNull Precomputed results, @NonNull String key) {
+        if (results.contains(key)) { return true; }
+        if (persistentCache == null) { return false; }
+
+        final PredictionCache.Entry entry = persistentCache.get(name, version, key);
+        if (entry == null) { return false; }
+
+        results.put(key, toResult(entry.getValue()));
+        return true;
+    }
+
+    private void savePrecomputed(
+        @NonNull Precomputed results,
+        @NonNull String key,
+        @Nullable Dictionary prediction) {
+        results.put(key, toResult(prediction));
+        if (persistentCache != null) { persistentCache.put(name, version, key, prediction); }
+    }
+
+    @NonNull
+    private static Dictionary toResult(@Nullable Dictionary prediction) {
+        return (prediction == null) ? MISSING_RESULT : prediction;
+    }
+
+    @NonNull
+    private FLSliceResult predictEncoded(
+        @NonNull EncodingPredictiveModel encModel,
+        @NonNull DbContext context,
+        @NonNull FLValue input) {
+        if (!allowCall()) { return recordRequest(0, missing()); }
+
+        final FLEncoder encoder = getEncoder();
+        encoder.beginDict(1);
+
+        final PredictionWriter writer = new PredictionWriter(encoder);
+        final Dictionary modelInput = getInput(context, input);
+        final ClientTask<Boolean> task = new ClientTask<>(() -> encModel.predict(modelInput, writer));
+        final boolean succeeded = runTask(task);
+        writer.close();
+
+        if (!succeeded) {
+            // The model may not have returned: it might still be using the encoder.
+            abandonEncoder();
+            return recordRequest(0, missing());
+        }
+
+        if (!Boolean.TRUE.equals(task.getResult())) {
+            abandonEncoder();
+            encoder.close();
+            return recordRequest(0, missing());
+        }
+
+        try {
+            encoder.endDict();
+            return recordRequest(0, encoder.finish2Unmanaged()); // Will be freed by the native code.
+        }
+        catch (LiteCoreException | RuntimeException e) {
+            abandonEncoder();
+            encoder.close();
+            Log.w(LogDomain.QUERY, "Failed encoding a predictive result", e);
+        }
+
+        return recordRequest(0, missing());
+    }
+
+    // The input to pass to the model.  LiteCore frees the input when the up-call returns, which it does
+    // when the model times out, even if the model is still running: a model that runs under a timeout
+    // gets a copy, on the calling thread.  Otherwise, the model gets a Dictionary backed by an MDict,
+    // which decodes values only as they are requested.
+    @NonNull
+    private Dictionary getInput(@NonNull DbContext context, @NonNull FLValue input) {
+        final Dictionary dict = (Dictionary) new MRoot(context, input, false).asNative();
+        return (timeoutMs <= 0) ? dict : new MutableDictionary(dict.toMap());
+    }
+
+    // Returns false, and records the request as rejected, if the circuit breaker is open.
+    private boolean allowCall() {
+        if ((breaker == null) || breaker.allowCall()) { return true; }
+        metrics.recordRejected();
+        return false;
+    }
+
+    // Run the model, waiting no longer than the timeout, and record the outcome.
+    // Returns true if the model completed normally.
+    private boolean runTask(@NonNull ClientTask<?> task) {
+        final long start = System.nanoTime();
+        if (timeoutMs > 0) { task.execute(timeoutMs, TimeUnit.MILLISECONDS); }
+        else { task.execute(); }
+        return recordCall(System.nanoTime() - start, task.getFailure());
+    }
+
+    // Record the outcome of a call to the model.  Returns true if the call succeeded.
+    private boolean recordCall(long latencyNs, @Nullable Exception err) {
+        final boolean timedOut = err instanceof TimeoutException;
+        metrics.recordCall(latencyNs, err != null, timedOut);
+
+        if (err == null) {
+            if (breaker != null) { breaker.onSuccess(); }
+            return true;
+        }
+
+        if (breaker != null) { breaker.onFailure(); }
+
+        if (timedOut) { Log.w(LogDomain.QUERY, "Prediction model timed out after %dms", timeoutMs); }
+        else { Log.w(LogDomain.QUERY, "Prediction model failed", err); }
+
+        return false;
+    }
+
+    @NonNull
+    private FLSliceResult recordRequest(long inBytes, @NonNull FLSliceResult result) {
+        metrics.recordRequest(inBytes, result.getSize());
+        return result;
+    }
+
+    @NonNull
+    private FLSliceResult encode(@Nullable Dictionary prediction) {
+        if (prediction == null) { return missing(); }
+
+        final FLEncoder encoder = getEncoder();
+        try {
+            prediction.encodeTo(encoder);
+            return encoder.finish2Unmanaged(); // Will be freed by the native code.
+        }
+        catch (LiteCoreException | RuntimeException e) {
+            abandonEncoder();
+            encoder.close();
+            Log.w(LogDomain.QUERY, "Failed encoding a predictive result", e);
+        }
+
+        return missing();
+    }
+}
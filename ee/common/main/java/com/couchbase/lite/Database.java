@@ -14,16 +14,22 @@
 //
 package com.couchbase.lite;
 
+import androidx.annotation.GuardedBy;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
 import java.io.File;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
+import com.couchbase.lite.internal.DbContext;
 import com.couchbase.lite.internal.ImmutableDatabaseConfiguration;
 import com.couchbase.lite.internal.core.C4Constants;
+import com.couchbase.lite.internal.core.C4RawDocument;
 import com.couchbase.lite.internal.core.C4Replicator;
 import com.couchbase.lite.internal.core.C4ReplicatorListener;
 import com.couchbase.lite.internal.core.C4Socket;
+import com.couchbase.lite.internal.support.Log;
 import com.couchbase.lite.internal.utils.Preconditions;
 
 
@@ -71,6 +77,40 @@ public final class Database extends AbstractDatabase {
     @NonNull
     public static final Prediction prediction = new Prediction();
 
+    // The LiteCore store that holds this database's local metadata.
+    private static final String LOCAL_INFO_STORE = "cbl_info";
+
+    // Prediction up-calls identify the database being queried only by the handle of its C4Database.
+    // Open databases are registered under their handles until they are closed or deleted.
+    private static final ConcurrentMap<Long, Database> OPEN_DATABASES = new ConcurrentHashMap<>();
+
+    // The context of an open database, given the handle of its C4Database, or null if there is none.
+    @Nullable
+    static DbContext getOpenDbContext(long c4dbHandle) {
+        final Database db = OPEN_DATABASES.get(c4dbHandle);
+        return (db == null) ? null : db.dbContext;
+    }
+
+    @NonNull
+    private final PredictiveIndexRegistry predictiveIndexes = new PredictiveIndexRegistry(this);
+
+    // Shared by all of the predictions made for queries on this database.
+    @NonNull
+    private final DbContext dbContext = new DbContext(this);
+
+    @NonNull
+    private final ConcurrentMap<String, VectorIndex> vectorIndexes = new ConcurrentHashMap<>();
+
+    @GuardedBy("getDbLock()")
+    @Nullable
+    private PersistentPredictionCache predictionCache;
+
+    // The configuration with which to open the prediction cache's side database, if it is not this database's:
+    // it follows changes to this database's encryption key.
+    @GuardedBy("getDbLock()")
+    @Nullable
+    private ImmutableDatabaseConfiguration predictionCacheConfig;
+
     //---------------------------------------------
     // Constructors
     //---------------------------------------------
@@ -82,7 +122,10 @@ public final class Database extends AbstractDatabase {
      * @param name The name of the database: May NOT contain capital letters!
      * @throws CouchbaseLiteException if any error occurs during the open operation.
      */
-    public Database(@NonNull String name) throws CouchbaseLiteException { super(name); }
+    public Database(@NonNull String name) throws CouchbaseLiteException {
+        super(name);
+        registerOpenDb();
+    }
 
     /**
      * Construct a Database with a given name and database config.
@@ -94,10 +137,12 @@ public final class Database extends AbstractDatabase {
      */
     public Database(@NonNull String name, @NonNull DatabaseConfiguration config) throws CouchbaseLiteException {
         super(name, config);
+        registerOpenDb();
     }
 
     Database(@NonNull String name, @NonNull ImmutableDatabaseConfiguration config) throws CouchbaseLiteException {
         super(name, config);
+        registerOpenDb();
     }
 
     //---------------------------------------------
@@ -108,6 +153,7 @@ public final class Database extends AbstractDatabase {
      * <b>ENTERPRISE EDITION API</b><br><br>
      * <p>
      * Changes the database's encryption key, or removes encryption if the new key is null.
+     * The database's persistent prediction cache, if it has one, is encrypted with the new key too.
      *
      * @param encryptionKey The encryption key
      * @throws CouchbaseLiteException on error
@@ -116,9 +162,211 @@ public final class Database extends AbstractDatabase {
         synchronized (getDbLock()) {
             try { getOpenC4DbLocked().rekey(getEncryptionAlgorithm(encryptionKey), getEncryptionKey(encryptionKey)); }
             catch (LiteCoreException e) { throw CouchbaseLiteException.convertException(e); }
+            changePredictionCacheKeyLocked(encryptionKey);
+        }
+    }
+
+    /**
+     * Closes and deletes the database, and its persistent prediction cache, if it has one.
+     *
+     * @throws CouchbaseLiteException on error
+     */
+    @Override
+    public void delete() throws CouchbaseLiteException {
+        final File dir = new File(config.getDirectory());
+        final String cacheName = getName() + PersistentPredictionCache.DB_SUFFIX;
+
+        super.delete();
+
+        try {
+            if (Database.exists(cacheName, dir)) { Database.delete(cacheName, dir); }
+        }
+        catch (CouchbaseLiteException e) {
+            Log.w(LogDomain.DATABASE, "Failed deleting prediction cache %s", e, cacheName);
         }
     }
 
+    /**
+     * <b>ENTERPRISE EDITION API</b><br><br>
+     * <p>
+     * Create a predictive index in the background, running the model on one worker thread for each processor.
+     *
+     * @param name     the name of the index
+     * @param index    the predictive index
+     * @param listener a listener for the progress of the build, or null
+     * @return a handle on the build
+     * @see #createPredictiveIndex(String, PredictiveIndex, int, PredictiveIndexBuildListener)
+     */
+    @NonNull
+    public PredictiveIndexBuild createPredictiveIndex(
+        @NonNull String name,
+        @NonNull PredictiveIndex index,
+        @Nullable PredictiveIndexBuildListener listener) {
+        return createPredictiveIndex(name, index, Runtime.getRuntime().availableProcessors(), listener);
+    }
+
+    /**
+     * <b>ENTERPRISE EDITION API</b><br><br>
+     * <p>
+     * Create a predictive index in the background.  The model is run over the documents in the database,
+     * in chunks, on a pool of parallelism worker threads, before the index is created.
+     * The model must be thread safe.  The returned handle can be used to follow the progress of the build
+     * and to cancel it.
+     * <p>
+     * If the model has a version (see {@link PredictiveModelConfiguration#setVersion(String)}), it is recorded
+     * with the index.  If the index already exists and was built from the current version of the model,
+     * the build completes immediately.  When a model with a new version is registered, indexes built
+     * from it during this session are rebuilt in the background.
+     *
+     * @param name        the name of the index
+     * @param index       the predictive index
+     * @param parallelism the maximum number of threads on which to run the model
+     * @param listener    a listener for the progress of the build, or null
+     * @return a handle on the build
+     */
+    @NonNull
+    public PredictiveIndexBuild createPredictiveIndex(
+        @NonNull String name,
+        @NonNull PredictiveIndex index,
+        int parallelism,
+        @Nullable PredictiveIndexBuildListener listener) {
+        return predictiveIndexes.build(
+            Preconditions.assertNotNull(name, "name"),
+            Preconditions.assertNotNull(index, "index"),
+            Preconditions.assertPositive(parallelism, "parallelism"),
+            listener);
+    }
+
+    /**
+     * <b>ENTERPRISE EDITION API</b><br><br>
+     * <p>
+     * Get the most recent build of a predictive index.  This may be a build started by
+     * {@link #createPredictiveIndex(String, PredictiveIndex, int, PredictiveIndexBuildListener)}
+     * or a rebuild started when a new version of the index's model was registered.
+     *
+     * @param name the name of the index
+     * @return the most recent build, or null if the index has not been built during this session
+     */
+    @Nullable
+    public PredictiveIndexBuild getPredictiveIndexBuild(@NonNull String name) {
+        return predictiveIndexes.getBuild(Preconditions.assertNotNull(name, "name"));
+    }
+
+    /**
+     * <b>ENTERPRISE EDITION API</b><br><br>
+     * <p>
+     * Open a cache of the results of predictive models that survives restarts.  The cache is stored in a
+     * side database named for this one, in the same directory and encrypted with the same key.
+     * It is closed when this database is closed.  Only one cache can be open at a time.
+     *
+     * @param maxEntries the maximum number of results held in the cache
+     * @return the cache
+     * @throws CouchbaseLiteException on failure to open the side database
+     * @see PredictiveModelConfiguration#setPersistentCache(PersistentPredictionCache)
+     */
+    @NonNull
+    public PersistentPredictionCache openPersistentPredictionCache(long maxEntries) throws CouchbaseLiteException {
+        Preconditions.assertPositive(maxEntries, "maxEntries");
+        synchronized (getDbLock()) {
+            mustBeOpen();
+            if (predictionCache != null) { throw new IllegalStateException("A prediction cache is already open"); }
+
+            final Database cacheDb = new Database(
+                getName() + PersistentPredictionCache.DB_SUFFIX,
+                (predictionCacheConfig != null) ? predictionCacheConfig : config);
+            final PersistentPredictionCache cache;
+            try { cache = new PersistentPredictionCache(this, cacheDb, maxEntries); }
+            catch (CouchbaseLiteException | RuntimeException e) {
+                cacheDb.close();
+                throw e;
+            }
+
+            registerProcess(new ActiveProcess<PersistentPredictionCache>(cache) {
+                @Override
+                public void stop() {
+                    try { cache.close(); }
+                    catch (CouchbaseLiteException e) {
+                        Log.w(LogDomain.DATABASE, "Failed closing prediction cache", e);
+                    }
+                }
+
+                @Override
+                public boolean isActive() { return !cache.isClosed(); }
+            });
+            predictionCache = cache;
+
+            return cache;
+        }
+    }
+
+    /**
+     * <b>ENTERPRISE EDITION API</b><br><br>
+     * <p>
+     * Create an approximate nearest-neighbour index over vectors computed from the documents in this database.
+     * The index is built before this method returns.  It is held in memory and is not persistent:
+     * it must be created again each time the database is opened.  An existing vector index
+     * with the same name is replaced.
+     *
+     * @param name   the name of the index
+     * @param config the index specification: see {@link IndexBuilder#vectorIndex(Expression, int)}
+     * @return the new index
+     * @throws CouchbaseLiteException on failure to read the documents in the database
+     */
+    @NonNull
+    public VectorIndex createVectorIndex(@NonNull String name, @NonNull VectorIndexConfiguration config)
+        throws CouchbaseLiteException {
+        final VectorIndex index = new VectorIndex(
+            this,
+            Preconditions.assertNotNull(name, "name"),
+            Preconditions.assertNotNull(config, "config"));
+        try { index.build(); }
+        catch (CouchbaseLiteException | RuntimeException e) {
+            index.close();
+            throw e;
+        }
+
+        // Registered and published together, so that a concurrent close or delete sees both or neither.
+        final VectorIndex prevIndex;
+        synchronized (getDbLock()) {
+            try { registerVectorIndexLocked(name, index); }
+            catch (RuntimeException e) {
+                index.close();
+                throw e;
+            }
+            prevIndex = vectorIndexes.put(name, index);
+        }
+        if (prevIndex != null) { closeVectorIndex(prevIndex); }
+
+        return index;
+    }
+
+    /**
+     * <b>ENTERPRISE EDITION API</b><br><br>
+     * <p>
+     * Get a vector index created with {@link #createVectorIndex(String, VectorIndexConfiguration)}.
+     *
+     * @param name the name of the index
+     * @return the index, or null if there is no vector index with the name
+     */
+    @Nullable
+    public VectorIndex getVectorIndex(@NonNull String name) {
+        return vectorIndexes.get(Preconditions.assertNotNull(name, "name"));
+    }
+
+    /**
+     * <b>ENTERPRISE EDITION API</b><br><br>
+     * <p>
+     * Delete a vector index.
+     *
+     * @param name the name of the index
+     */
+    public void deleteVectorIndex(@NonNull String name) {
+        Preconditions.assertNotNull(name, "name");
+        final VectorIndex index;
+        synchronized (getDbLock()) { index = vectorIndexes.remove(name); }
+        if (index != null) { closeVectorIndex(index); }
+    }
+
     //---------------------------------------------
     // Package visible
     //---------------------------------------------
@@ -174,4 +422,120 @@ public final class Database extends AbstractDatabase {
     }
 
     void unregisterMessageListener(@NonNull MessageEndpointListener listener) { unregisterProcess(listener); }
+
+    void unregisterPersistentPredictionCache(@NonNull PersistentPredictionCache cache) {
+        synchronized (getDbLock()) {
+            if (predictionCache == cache) { predictionCache = null; }
+        }
+        unregisterProcess(cache);
+    }
+
+    // Metadata kept in the database: it is encrypted with the database and written in the current transaction,
+    // if there is one.  It is not visible to queries and is not replicated.
+    // Returns null if there is no value for the key.
+    @Nullable
+    byte[] getLocalInfo(@NonNull String key) throws CouchbaseLiteException {
+        synchronized (getDbLock()) {
+            try (C4RawDocument doc = getOpenC4DbLocked().rawGet(LOCAL_INFO_STORE, key)) { return doc.body(); }
+            catch (LiteCoreException e) {
+                if ((e.domain == C4Constants.ErrorDomain.LITE_CORE)
+                    && (e.code == C4Constants.LiteCoreError.NOT_FOUND)) {
+                    return null;
+                }
+                throw CouchbaseLiteException.convertException(e);
+            }
+        }
+    }
+
+    // A null value deletes the key.
+    void setLocalInfo(@NonNull String key, @Nullable byte[] value) throws CouchbaseLiteException {
+        synchronized (getDbLock()) {
+            try { getOpenC4DbLocked().rawPut(LOCAL_INFO_STORE, key, null, value); }
+            catch (LiteCoreException e) { throw CouchbaseLiteException.convertException(e); }
+        }
+    }
+
+    // Open another connection to this database.  It can read while this one is busy,
+    // for instance while the query engine is creating an index.  The caller must close it.
+    @NonNull
+    Database openConnection() throws CouchbaseLiteException {
+        synchronized (getDbLock()) {
+            mustBeOpen();
+            return new Database(getName(), config);
+        }
+    }
+
+    //---------------------------------------------
+    // Private
+    //---------------------------------------------
+
+    // A vector index is held in memory: it is closed, and forgotten, when the database is closed.
+    @GuardedBy("getDbLock()")
+    private void registerVectorIndexLocked(@NonNull String name, @NonNull VectorIndex index) {
+        mustBeOpen();
+        registerProcess(new ActiveProcess<VectorIndex>(index) {
+            @Override
+            public void stop() {
+                vectorIndexes.remove(name, index);
+                index.close();
+            }
+
+            @Override
+            public boolean isActive() { return !index.isClosed(); }
+        });
+    }
+
+    private void closeVectorIndex(@NonNull VectorIndex index) {
+        unregisterProcess(index);
+        index.close();
+    }
+
+    // The registration is stopped, before the C4Database is freed, when this database is closed or deleted.
+    private void registerOpenDb() {
+        synchronized (getDbLock()) {
+            final long handle = getOpenC4DbLocked().getHandle();
+            OPEN_DATABASES.put(handle, this);
+            registerProcess(new ActiveProcess<DbContext>(dbContext) {
+                @Override
+                public void stop() { OPEN_DATABASES.remove(handle, Database.this); }
+
+                @Override
+                public boolean isActive() { return OPEN_DATABASES.get(handle) == Database.this; }
+            });
+        }
+    }
+
+    // Encrypt the prediction cache's side database, if there is one, with this database's new key.
+    // The side database holds only a cache: if it cannot be re-encrypted it is deleted.
+    @GuardedBy("getDbLock()")
+    private void changePredictionCacheKeyLocked(@Nullable EncryptionKey encryptionKey) {
+        final ImmutableDatabaseConfiguration oldConfig
+            = (predictionCacheConfig != null) ? predictionCacheConfig : config;
+        predictionCacheConfig
+            = new ImmutableDatabaseConfiguration(new DatabaseConfiguration(config).setEncryptionKey(encryptionKey));
+
+        final String cacheName = getName() + PersistentPredictionCache.DB_SUFFIX;
+        final File dir = new File(config.getDirectory());
+        try {
+            if (predictionCache != null) {
+                predictionCache.changeEncryptionKey(encryptionKey);
+                return;
+            }
+
+            if (!Database.exists(cacheName, dir)) { return; }
+            final Database cacheDb = new Database(cacheName, oldConfig);
+            try { cacheDb.changeEncryptionKey(encryptionKey); }
+            finally { cacheDb.close(); }
+        }
+        catch (CouchbaseLiteException | RuntimeException e) {
+            Log.w(LogDomain.DATABASE, "Failed changing the key of prediction cache %s: deleting it", e, cacheName);
+            try {
+                if (predictionCache != null) { predictionCache.close(); }
+                if (Database.exists(cacheName, dir)) { Database.delete(cacheName, dir); }
+            }
+            catch (CouchbaseLiteException | RuntimeException err) {
+                Log.w(LogDomain.DATABASE, "Failed deleting prediction cache %s", err, cacheName);
+            }
+        }
+    }
 }
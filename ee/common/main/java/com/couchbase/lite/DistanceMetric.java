@@ -0,0 +1,51 @@
+//
+// Copyright (c) 2022 Couchbase, Inc.  All rights reserved.
+//
+// Licensed under the Couchbase License Agreement (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+// https://info.couchbase.com/rs/302-GJY-034/images/2017-10-30_License_Agreement.pdf
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package com.couchbase.lite;
+
+/**
+ * <b>ENTERPRISE EDITION API</b><br><br>
+ * <p>
+ * The metrics by which the distance between two vectors can be measured.
+ */
+public enum DistanceMetric {
+    /**
+     * The euclidean (L2) distance: see {@link Function#euclideanDistance(Expression, Expression)}.
+     */
+    EUCLIDEAN,
+
+    /**
+     * The squared euclidean distance: see {@link Function#squaredEuclideanDistance(Expression, Expression)}.
+     * It ranks vectors in the same order as the euclidean distance, but is cheaper to compute.
+     */
+    SQUARED_EUCLIDEAN,
+
+    /**
+     * The cosine distance: see {@link Function#cosineDistance(Expression, Expression)}.
+     */
+    COSINE,
+
+    /**
+     * The negated dot product: the larger the dot product of two vectors, the nearer they are.
+     * For vectors that are known to be normalized (unit length), this ranks vectors exactly as
+     * {@link #COSINE} does, without computing their norms: the cosine distance is 1 + this distance.
+     */
+    DOT_PRODUCT,
+
+    /**
+     * The manhattan (L1) distance: the sum of the absolute differences of the vectors' elements.
+     */
+    MANHATTAN
+}
@@ -0,0 +1,41 @@
+//
+// Copyright (c) 2022 Couchbase, Inc.  All rights reserved.
+//
+// Licensed under the Couchbase License Agreement (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+// https://info.couchbase.com/rs/302-GJY-034/images/2017-10-30_License_Agreement.pdf
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package com.couchbase.lite;
+
+import androidx.annotation.NonNull;
+
+
+/**
+ * <b>ENTERPRISE EDITION API</b><br><br>
+ * <p>
+ * A predictive model that writes its result directly into the encoder used to return it to
+ * the query engine, rather than returning a Dictionary that must then be encoded.
+ * This avoids building intermediate MutableDictionary objects, which can be a significant
+ * part of the cost of a prediction for models that produce large results, such as vectors.
+ * Register it with {@link Prediction#registerEncodingModel(String, EncodingPredictiveModel)}.
+ */
+@FunctionalInterface
+public interface EncodingPredictiveModel {
+    /**
+     * The prediction callback.  The model writes the properties of its result to the passed
+     * writer.  The writer is valid only until this method returns.
+     *
+     * @param input  The input dictionary.
+     * @param output A writer for the properties of the result dictionary.
+     * @return true if the output is a valid result; false if the prediction should be evaluated as MISSING.
+     */
+    boolean predict(@NonNull Dictionary input, @NonNull PredictionWriter output);
+}
@@ -0,0 +1,48 @@
+//
+// Copyright (c) 2022 Couchbase, Inc.  All rights reserved.
+//
+// Licensed under the Couchbase License Agreement (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+// https://info.couchbase.com/rs/302-GJY-034/images/2017-10-30_License_Agreement.pdf
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package com.couchbase.lite;
+
+import androidx.annotation.Nullable;
+
+
+/**
+ * <b>ENTERPRISE EDITION API</b><br><br>
+ * <p>
+ * A {@link ReplicatorConnection} that can tell the transport to stop reading data from the other peer.
+ * A transport that supports flow control should check whether the connection passed to
+ * {@link MessageEndpointConnection#open(ReplicatorConnection, MessagingCompletion)} implements this interface.
+ * <p>
+ * The replicator has a receive window (see {@link MessagingOptions#setReceiveWindow(long)}): the amount of
+ * data that it will hold, received but not yet processed.  When the window is full, the transport should
+ * stop reading from its connection, so that a fast peer cannot fill the memory of a slow device.
+ * It should resume when the replicator has processed about half of that data.
+ * Data passed to {@link #receive(Message)} is always processed, whether or not the window is full.
+ */
+public interface FlowControlledReplicatorConnection extends ReplicatorConnection {
+    /**
+     * Tells whether the transport should stop reading data from the other peer.
+     *
+     * @return true if the receive window is full
+     */
+    boolean isReceivePaused();
+
+    /**
+     * Sets a listener to be told when the transport should stop, and resume, reading data from the other peer.
+     * See {@link #isReceivePaused()}.
+     *
+     * @param listener the listener, or null to remove the current listener
+     */
+    void setFlowListener(@Nullable MessagingFlowListener listener);
+}
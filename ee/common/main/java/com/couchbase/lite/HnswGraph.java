@@ -0,0 +1,616 @@
+//
+// Copyright (c) 2022 Couchbase, Inc.  All rights reserved.
+//
+// Licensed under the Couchbase License Agreement (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+// https://info.couchbase.com/rs/302-GJY-034/images/2017-10-30_License_Agreement.pdf
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package com.couchbase.lite;
+
+import androidx.annotation.GuardedBy;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+
+/**
+ * A Hierarchical Navigable Small World graph: an approximate nearest-neighbour index over float vectors.
+ * See Malkov and Yashunin, "Efficient and robust approximate nearest neighbor search using
+ * Hierarchical Navigable Small World graphs".
+ * <p>
+ * Searches may run concurrently.  Inserts and removals are serialized and exclude searches.
+ * Removed vectors are only marked as deleted: they remain in the graph, to preserve its connectivity,
+ * but are never returned by a search, nor do they take the place of live vectors in its results.
+ * Once deleted nodes make up a large enough part of the graph, it is rebuilt from its live nodes.
+ * The rebuild happens outside the lock: searches and mutations proceed while it runs, and only
+ * the replacement of the old graph by the new one excludes them.
+ * <p>
+ * If the graph has a quantizer, it holds only the quantized codes of its vectors: distances to the target
+ * of a search are computed from the codes, and distances between nodes from their decoded approximations.
+ */
+final class HnswGraph {
+    static final class Candidate {
+        final int node;
+        final float distance;
+
+        Candidate(int node, float distance) {
+            this.node = node;
+            this.distance = distance;
+        }
+    }
+
+    private static final Comparator<Candidate> NEAREST_FIRST = (c1, c2) -> Float.compare(c1.distance, c2.distance);
+    private static final Comparator<Candidate> FURTHEST_FIRST = (c1, c2) -> Float.compare(c2.distance, c1.distance);
+
+    // The graph is rebuilt when this fraction of its nodes are deleted...
+    private static final double MAX_DELETED_FRACTION = 0.25;
+    // ... unless it is too small to be worth it.
+    private static final int MIN_COMPACT_SIZE = 64;
+
+    // The distance from the target of a search or an insertion to a node, given its id.
+    private interface NodeScorer {
+        float distance(int node);
+    }
+
+    private static final class Node {
+        @NonNull
+        final String docId;
+        // Exactly one of vector and code is non-null.
+        @Nullable
+        final float[] vector;
+        @Nullable
+        final byte[] code;
+        // links[level] holds the ids of this node's neighbours at that level.
+        @NonNull
+        final int[][] links;
+        boolean deleted;
+
+        Node(@NonNull String docId, @Nullable float[] vector, @Nullable byte[] code, int level) {
+            this.docId = docId;
+            this.vector = vector;
+            this.code = code;
+            this.links = new int[level + 1][];
+            for (int i = 0; i <= level; i++) { links[i] = new int[0]; }
+        }
+
+        int getLevel() { return links.length - 1; }
+    }
+
+
+    //---------------------------------------------
+    // Member variables
+    //---------------------------------------------
+
+    private final int dimensions;
+    @NonNull
+    private final DistanceMetric metric;
+    private final int maxLinks;
+    private final int maxLinks0;
+    private final int efConstruction;
+    private final double levelFactor;
+
+    @NonNull
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    @GuardedBy("lock")
+    @NonNull
+    private final List<Node> nodes = new ArrayList<>();
+    @GuardedBy("lock")
+    @NonNull
+    private final Map<String, Integer> liveNodes = new HashMap<>();
+    @GuardedBy("lock")
+    @NonNull
+    private final Random random = new Random();
+    @GuardedBy("lock")
+    private int entryPoint = -1;
+    @GuardedBy("lock")
+    private int deletedCount;
+    // True while a compacted copy of the graph is being built.
+    @GuardedBy("lock")
+    private boolean compacting;
+    // The documents inserted or removed since the current compaction took its snapshot.
+    @GuardedBy("lock")
+    @NonNull
+    private final Set<String> changedDuringCompaction = new HashSet<>();
+    // Set only while the graph is empty.
+    @GuardedBy("lock")
+    @Nullable
+    private Quantizer quantizer;
+
+    //---------------------------------------------
+    // Constructors
+    //---------------------------------------------
+
+    HnswGraph(int dimensions, @NonNull DistanceMetric metric, int maxLinks, int efConstruction) {
+        this.dimensions = dimensions;
+        this.metric = metric;
+        this.maxLinks = maxLinks;
+        this.maxLinks0 = 2 * maxLinks;
+        this.efConstruction = efConstruction;
+        this.levelFactor = 1.0 / Math.log(Math.max(2, maxLinks));
+    }
+
+    //---------------------------------------------
+    // Package visible methods
+    //---------------------------------------------
+
+    int getDimensions() { return dimensions; }
+
+    boolean isQuantized() {
+        lock.readLock().lock();
+        try { return quantizer != null; }
+        finally { lock.readLock().unlock(); }
+    }
+
+    // Train a quantizer from a sample of the vectors that will be inserted.  The graph must be empty.
+    void train(@NonNull VectorQuantization quantization, int subquantizers, @NonNull List<float[]> sample) {
+        final List<float[]> prepared = new ArrayList<>(sample.size());
+        for (float[] v: sample) {
+            if (v.length == dimensions) { prepared.add(prepare(v)); }
+        }
+
+        final Quantizer newQuantizer;
+        switch (quantization) {
+            case NONE:
+                newQuantizer = null;
+                break;
+            case SCALAR:
+                newQuantizer = ScalarQuantizer.train(prepared, dimensions);
+                break;
+            case PRODUCT:
+                newQuantizer = ProductQuantizer.train(prepared, dimensions, subquantizers);
+                break;
+            default:
+                throw new IllegalArgumentException("Unrecognized quantization: " + quantization);
+        }
+
+        lock.writeLock().lock();
+        try {
+            if (!nodes.isEmpty()) { throw new IllegalStateException("Cannot train a quantizer for a non-empty graph"); }
+            quantizer = newQuantizer;
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // The number of vectors that can be returned by a search.
+    int size() {
+        lock.readLock().lock();
+        try { return liveNodes.size(); }
+        finally { lock.readLock().unlock(); }
+    }
+
+    // Add a vector, replacing any vector already in the graph for the same document.
+    void insert(@NonNull String docId, @NonNull float[] vector) {
+        if (vector.length != dimensions) {
+            throw new IllegalArgumentException(
+                "Vector for " + docId + " has " + vector.length + " dimensions: expected " + dimensions);
+        }
+        final float[] v = prepare(vector);
+
+        final boolean compact;
+        lock.writeLock().lock();
+        try {
+            removeLocked(docId);
+            final Quantizer q = quantizer;
+            if (q == null) { insertLocked(docId, v, null, v); }
+            else { insertLocked(docId, null, q.encode(v), v); }
+            if (compacting) { changedDuringCompaction.add(docId); }
+            compact = startCompactionLocked();
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+
+        if (compact) { compact(); }
+    }
+
+    void remove(@NonNull String docId) {
+        final boolean compact;
+        lock.writeLock().lock();
+        try {
+            removeLocked(docId);
+            if (compacting) { changedDuringCompaction.add(docId); }
+            compact = startCompactionLocked();
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+
+        if (compact) { compact(); }
+    }
+
+    // Find the (approximately) k nearest vectors to the target.  Results are nearest first.
+    @NonNull
+    List<VectorMatch> search(@NonNull float[] target, int k, int ef) {
+        if (target.length != dimensions) {
+            throw new IllegalArgumentException(
+                "Target vector has " + target.length + " dimensions: expected " + dimensions);
+        }
+        final float[] v = prepare(target);
+
+        lock.readLock().lock();
+        try {
+            if ((entryPoint < 0) || liveNodes.isEmpty()) { return new ArrayList<>(); }
+            final int limit = Math.min(k, liveNodes.size());
+
+            final NodeScorer scorer = scorer(v);
+            final Node entry = nodes.get(entryPoint);
+            Candidate nearest = new Candidate(entryPoint, scorer.distance(entryPoint));
+            for (int l = entry.getLevel(); l > 0; l--) { nearest = greedySearch(scorer, nearest, l); }
+
+            final int width = Math.min(Math.max(ef, limit), nodes.size());
+            final List<Candidate> found = searchLayer(scorer, Collections.singletonList(nearest), width, 0, true);
+
+            final List<VectorMatch> matches = new ArrayList<>(limit);
+            for (Candidate candidate: found) {
+                final Node node = nodes.get(candidate.node);
+                if (node.deleted) { continue; }
+                matches.add(new VectorMatch(node.docId, externalDistance(candidate.distance)));
+                if (matches.size() >= limit) { break; }
+            }
+            return matches;
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Find exactly the k nearest vectors to the target, by comparing it with every vector in the graph.
+    // If the graph is quantized, the comparisons are with the approximate, decoded vectors.
+    @NonNull
+    List<VectorMatch> searchExact(@NonNull float[] target, int k) {
+        if (target.length != dimensions) {
+            throw new IllegalArgumentException(
+                "Target vector has " + target.length + " dimensions: expected " + dimensions);
+        }
+        final float[] v = prepare(target);
+
+        lock.readLock().lock();
+        try {
+            final int n = nodes.size();
+            final String[] docIds = new String[n];
+            final float[][] vectors = new float[n][];
+            for (int i = 0; i < n; i++) {
+                final Node node = nodes.get(i);
+                if (node.deleted) { continue; }
+                docIds[i] = node.docId;
+                vectors[i] = vectorOf(node);
+            }
+            return VectorSearch.scan(docIds, vectors, n, v, k, metric).drain();
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    //---------------------------------------------
+    // Private methods
+    //---------------------------------------------
+
+    // Exactly one of vector and code is non-null.  The target is the vector,
+    // or the vector from which the code was computed, or its approximation.
+    @GuardedBy("lock")
+    private void insertLocked(
+        @NonNull String docId,
+        @Nullable float[] vector,
+        @Nullable byte[] code,
+        @NonNull float[] target) {
+        final int level = (int) (-Math.log(1.0 - random.nextDouble()) * levelFactor);
+        final int id = nodes.size();
+        final Node node = new Node(docId, vector, code, level);
+        nodes.add(node);
+        liveNodes.put(docId, id);
+
+        if (entryPoint < 0) {
+            entryPoint = id;
+            return;
+        }
+
+        final NodeScorer scorer = scorer(target);
+        final int topLevel = nodes.get(entryPoint).getLevel();
+        Candidate nearest = new Candidate(entryPoint, scorer.distance(entryPoint));
+        for (int l = topLevel; l > level; l--) { nearest = greedySearch(scorer, nearest, l); }
+
+        List<Candidate> entries = Collections.singletonList(nearest);
+        for (int l = Math.min(level, topLevel); l >= 0; l--) {
+            final List<Candidate> found = searchLayer(scorer, entries, efConstruction, l, false);
+            final int[] neighbours = selectNeighbours(found, maxLinks);
+            node.links[l] = neighbours;
+            for (int neighbour: neighbours) { addLink(neighbour, id, l); }
+            entries = found;
+        }
+
+        if (level > topLevel) { entryPoint = id; }
+    }
+
+    @GuardedBy("lock")
+    private void removeLocked(@NonNull String docId) {
+        final Integer id = liveNodes.remove(docId);
+        if (id == null) { return; }
+        nodes.get(id).deleted = true;
+        deletedCount++;
+    }
+
+    // Deleted nodes cost memory and slow searches down: once there are enough of them,
+    // the graph is rebuilt from the live nodes.  Returns true if the caller should do it.
+    @GuardedBy("lock")
+    private boolean startCompactionLocked() {
+        final int n = nodes.size();
+        if (compacting || (n < MIN_COMPACT_SIZE) || (deletedCount < (MAX_DELETED_FRACTION * n))) { return false; }
+        compacting = true;
+        return true;
+    }
+
+    // Build a new graph from a snapshot of the live nodes, without holding the lock, then swap it in.
+    // Documents changed while it was being built are brought up to date before the swap.
+    // Nodes keep their vectors or codes, which are never modified.
+    private void compact() {
+        boolean swapped = false;
+        try {
+            final List<Node> snapshot;
+            final Quantizer q;
+            lock.readLock().lock();
+            try {
+                snapshot = new ArrayList<>(liveNodes.size());
+                for (Node node: nodes) {
+                    if (!node.deleted) { snapshot.add(node); }
+                }
+                q = quantizer;
+            }
+            finally {
+                lock.readLock().unlock();
+            }
+
+            // The new graph is not visible to any other thread until it is swapped in.
+            final HnswGraph compacted = new HnswGraph(dimensions, metric, maxLinks, efConstruction);
+            compacted.lock.writeLock().lock();
+            try {
+                compacted.quantizer = q;
+                for (Node node: snapshot) {
+                    compacted.insertLocked(node.docId, node.vector, node.code, compacted.vectorOf(node));
+                }
+
+                lock.writeLock().lock();
+                try {
+                    for (String docId: changedDuringCompaction) {
+                        compacted.removeLocked(docId);
+                        final Integer id = liveNodes.get(docId);
+                        if (id == null) { continue; }
+                        final Node node = nodes.get(id);
+                        compacted.insertLocked(node.docId, node.vector, node.code, vectorOf(node));
+                    }
+
+                    nodes.clear();
+                    nodes.addAll(compacted.nodes);
+                    liveNodes.clear();
+                    liveNodes.putAll(compacted.liveNodes);
+                    entryPoint = compacted.entryPoint;
+                    deletedCount = compacted.deletedCount;
+                    compacting = false;
+                    changedDuringCompaction.clear();
+                    swapped = true;
+                }
+                finally {
+                    lock.writeLock().unlock();
+                }
+            }
+            finally {
+                compacted.lock.writeLock().unlock();
+            }
+        }
+        finally {
+            if (!swapped) {
+                lock.writeLock().lock();
+                try {
+                    compacting = false;
+                    changedDuringCompaction.clear();
+                }
+                finally {
+                    lock.writeLock().unlock();
+                }
+            }
+        }
+    }
+
+    // Vectors are copied so that the graph does not share them with the caller.
+    // Cosine distance is computed as 1 - dot product of normalized vectors.
+    @NonNull
+    private float[] prepare(@NonNull float[] vector) {
+        final float[] v = vector.clone();
+        return (metric == DistanceMetric.COSINE) ? VectorMath.normalize(v) : v;
+    }
+
+    // The distance used to navigate the graph.  It ranks vectors in the same order as the metric.
+    private float distance(@NonNull float[] a, @NonNull float[] b) {
+        switch (metric) {
+            case EUCLIDEAN:
+            case SQUARED_EUCLIDEAN:
+                return VectorMath.squaredEuclidean(a, b);
+            case COSINE:
+                return 1.0f - VectorMath.dot(a, b);
+            case DOT_PRODUCT:
+                return -VectorMath.dot(a, b);
+            case MANHATTAN:
+                return VectorMath.manhattan(a, b);
+            default:
+                throw new IllegalStateException("Unrecognized metric: " + metric);
+        }
+    }
+
+    private float externalDistance(float distance) {
+        return (metric == DistanceMetric.EUCLIDEAN) ? (float) Math.sqrt(distance) : distance;
+    }
+
+    // The distance from a target vector (already prepared) to nodes in the graph.
+    @GuardedBy("lock")
+    @NonNull
+    private NodeScorer scorer(@NonNull float[] target) {
+        final Quantizer q = quantizer;
+        if (q == null) { return node -> distance(target, vectorOf(nodes.get(node))); }
+        final Quantizer.Scorer codeScorer = q.scorer(target, metric);
+        return node -> codeScorer.distance(nodes.get(node).code);
+    }
+
+    // The vector held by a node, or its approximation if the graph is quantized.
+    @GuardedBy("lock")
+    @NonNull
+    private float[] vectorOf(@NonNull Node node) {
+        final float[] v = node.vector;
+        if (v != null) { return v; }
+        final Quantizer q = quantizer;
+        if ((q == null) || (node.code == null)) { throw new IllegalStateException("Node has no vector"); }
+        return q.decode(node.code);
+    }
+
+    // Follow the links at the given level to the node nearest the target.
+    @NonNull
+    private Candidate greedySearch(@NonNull NodeScorer target, @NonNull Candidate start, int level) {
+        Candidate nearest = start;
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            final int[] links = nodes.get(nearest.node).links[level];
+            for (int link: links) {
+                final float d = target.distance(link);
+                if (d < nearest.distance) {
+                    nearest = new Candidate(link, d);
+                    changed = true;
+                }
+            }
+        }
+        return nearest;
+    }
+
+    // Beam search at the given level.  Returns at most ef candidates, nearest first.
+    // If liveOnly is true, the search passes through deleted nodes but does not return them.
+    @NonNull
+    private List<Candidate> searchLayer(
+        @NonNull NodeScorer target,
+        @NonNull List<Candidate> entries,
+        int ef,
+        int level,
+        boolean liveOnly) {
+        final BitSet visited = new BitSet(nodes.size());
+        final PriorityQueue<Candidate> candidates = new PriorityQueue<>(ef + 1, NEAREST_FIRST);
+        final PriorityQueue<Candidate> results = new PriorityQueue<>(ef + 1, FURTHEST_FIRST);
+
+        for (Candidate entry: entries) {
+            if (visited.get(entry.node)) { continue; }
+            visited.set(entry.node);
+            candidates.add(entry);
+            if (liveOnly && nodes.get(entry.node).deleted) { continue; }
+            results.add(entry);
+            if (results.size() > ef) { results.poll(); }
+        }
+
+        while (!candidates.isEmpty()) {
+            final Candidate current = candidates.poll();
+            final Candidate furthest = results.peek();
+            if ((furthest != null) && (current.distance > furthest.distance) && (results.size() >= ef)) { break; }
+
+            final Node node = nodes.get(current.node);
+            if (node.getLevel() < level) { continue; }
+
+            for (int link: node.links[level]) {
+                if (visited.get(link)) { continue; }
+                visited.set(link);
+
+                final float d = target.distance(link);
+                final Candidate worst = results.peek();
+                if ((results.size() < ef) || ((worst != null) && (d < worst.distance))) {
+                    final Candidate candidate = new Candidate(link, d);
+                    candidates.add(candidate);
+                    if (liveOnly && nodes.get(link).deleted) { continue; }
+                    results.add(candidate);
+                    if (results.size() > ef) { results.poll(); }
+                }
+            }
+        }
+
+        final List<Candidate> found = new ArrayList<>(results);
+        Collections.sort(found, NEAREST_FIRST);
+        return found;
+    }
+
+    // The neighbour selection heuristic: prefer candidates that are nearer to the base node than
+    // they are to any neighbour already selected, so that links point in diverse directions.
+    // If that yields fewer than max neighbours, fill in with the nearest of the rejected candidates.
+    @NonNull
+    private int[] selectNeighbours(@NonNull List<Candidate> candidates, int max) {
+        final List<Candidate> selected = new ArrayList<>(max);
+        final List<float[]> selectedVectors = new ArrayList<>(max);
+        final List<Candidate> rejected = new ArrayList<>();
+        for (Candidate candidate: candidates) {
+            if (selected.size() >= max) { break; }
+
+            final float[] v = vectorOf(nodes.get(candidate.node));
+            boolean diverse = true;
+            for (float[] s: selectedVectors) {
+                if (distance(v, s) < candidate.distance) {
+                    diverse = false;
+                    break;
+                }
+            }
+            if (diverse) {
+                selected.add(candidate);
+                selectedVectors.add(v);
+            }
+            else { rejected.add(candidate); }
+        }
+
+        for (Candidate candidate: rejected) {
+            if (selected.size() >= max) { break; }
+            selected.add(candidate);
+        }
+
+        final int[] ids = new int[selected.size()];
+        for (int i = 0; i < ids.length; i++) { ids[i] = selected.get(i).node; }
+        return ids;
+    }
+
+    // Add a link from node to link at the given level, pruning the node's links if there are too many.
+    @GuardedBy("lock")
+    private void addLink(int node, int link, int level) {
+        final Node n = nodes.get(node);
+        final int[] links = n.links[level];
+        final int max = (level == 0) ? maxLinks0 : maxLinks;
+
+        if (links.length < max) {
+            final int[] newLinks = new int[links.length + 1];
+            System.arraycopy(links, 0, newLinks, 0, links.length);
+            newLinks[links.length] = link;
+            n.links[level] = newLinks;
+            return;
+        }
+
+        final float[] v = vectorOf(n);
+        final List<Candidate> candidates = new ArrayList<>(links.length + 1);
+        for (int l: links) { candidates.add(new Candidate(l, distance(v, vectorOf(nodes.get(l))))); }
+        candidates.add(new Candidate(link, distance(v, vectorOf(nodes.get(link)))));
+        Collections.sort(candidates, NEAREST_FIRST);
+        n.links[level] = selectNeighbours(candidates, max);
+    }
+}
@@ -59,4 +59,21 @@ public final class IndexBuilder extends AbstractIndexBuilder {
         @Nullable List<String> properties) {
         return new PredictiveIndex(model, input, properties);
     }
+
+    /**
+     * <b>ENTERPRISE EDITION API</b><br><br>
+     * <p>
+     * Create the specification for an approximate nearest-neighbour index over vectors.
+     * The vector expression must evaluate to an array of numbers: it may be a document property
+     * or a property of the result of a prediction function.
+     * Build the index with {@link Database#createVectorIndex(String, VectorIndexConfiguration)}.
+     *
+     * @param vector     The expression that evaluates to the vectors to be indexed.
+     * @param dimensions The number of dimensions of the vectors.
+     * @return The vector index configuration.
+     */
+    @NonNull
+    public static VectorIndexConfiguration vectorIndex(@NonNull Expression vector, int dimensions) {
+        return new VectorIndexConfiguration(vector, dimensions);
+    }
 }
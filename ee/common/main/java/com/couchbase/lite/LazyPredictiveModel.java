@@ -0,0 +1,41 @@
+//
+// Copyright (c) 2022 Couchbase, Inc.  All rights reserved.
+//
+// Licensed under the Couchbase License Agreement (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+// https://info.couchbase.com/rs/302-GJY-034/images/2017-10-30_License_Agreement.pdf
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package com.couchbase.lite;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+
+/**
+ * <b>ENTERPRISE EDITION API</b><br><br>
+ * <p>
+ * A predictive model that reads its input through a lazily decoding view, rather than
+ * from a Dictionary.  A model that reads only a few properties of a large input, for instance
+ * a whole document, decodes only those properties: nested dictionaries and arrays that it does not
+ * read are never decoded at all, and numbers and vectors are read without boxing.
+ * Register it with {@link Prediction#registerLazyModel(String, LazyPredictiveModel)}.
+ */
+@FunctionalInterface
+public interface LazyPredictiveModel {
+    /**
+     * The prediction callback.  The input view is valid only until this method returns.
+     * If the model cannot return a result, it should return null, which will be evaluated as MISSING.
+     *
+     * @param input A view of the input dictionary.
+     * @return The output dictionary.
+     */
+    @Nullable
+    Dictionary predict(@NonNull PredictionInput input);
+}
@@ -15,6 +15,9 @@
 package com.couchbase.lite;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.nio.ByteBuffer;
 
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 
@@ -25,6 +28,12 @@ import com.couchbase.lite.internal.utils.Preconditions;
  * <b>ENTERPRISE EDITION API</b><br><br>
  * <p>
  * A message sent between message endpoint connections.
+ * <p>
+ * A message may be backed by a byte array or by a {@link ByteBuffer}, which may be direct.
+ * Neither is copied: the message's contents must not be changed while it is in use.
+ * A transport that writes to an NIO channel can write the buffer returned by {@link #toByteBuffer()}
+ * directly, without copying the message; one that reads from an NIO channel can pass the buffer
+ * it read into to {@link #fromByteBuffer(ByteBuffer)}.
  */
 public class Message {
     /**
@@ -39,17 +48,46 @@ public class Message {
         return new Message(data);
     }
 
+    /**
+     * Creates a message object from the remaining bytes in a buffer: those between its position and its limit.
+     * The buffer's contents are not copied, and its position and limit are not changed.
+     *
+     * @param buffer the buffer: it may be a direct buffer
+     * @return the Message object
+     */
+    @NonNull
+    public static Message fromByteBuffer(@NonNull ByteBuffer buffer) {
+        Preconditions.assertNotNull(buffer, "buffer");
+        return new Message(buffer.slice());
+    }
+
 
+    // Null unless the message was created from an array.
+    @Nullable
     private final byte[] data;
 
+    // The message's contents are the buffer's bytes from 0 to its limit.
+    @NonNull
+    private final ByteBuffer buffer;
+
     // !!! This method stores a mutable array as private data
     @SuppressFBWarnings("EI_EXPOSE_REP")
     @SuppressWarnings("PMD.ArrayIsStoredDirectly")
-    Message(@NonNull byte[] data) { this.data = data; }
+    Message(@NonNull byte[] data) {
+        this.data = data;
+        this.buffer = ByteBuffer.wrap(data);
+    }
+
+    Message(@NonNull ByteBuffer buffer) {
+        this.data = null;
+        this.buffer = buffer;
+    }
 
     /**
      * Gets the message as data.
      * <p>
+     * If the message was created from an array, or from a buffer that wraps an entire array,
+     * this method returns that array.  Otherwise it returns a copy of the message's contents.
      *
      * @return the data
      */
@@ -57,5 +95,44 @@ public class Message {
     @SuppressFBWarnings("EI_EXPOSE_REP")
     @SuppressWarnings("PMD.MethodReturnsInternalArray")
     @NonNull
-    public byte[] toData() { return this.data; }
+    public byte[] toData() {
+        if (data != null) { return data; }
+
+        if (buffer.hasArray() && (buffer.arrayOffset() == 0) && (buffer.array().length == buffer.limit())) {
+            return buffer.array();
+        }
+
+        final byte[] copy = new byte[buffer.limit()];
+        buffer.duplicate().get(copy);
+        return copy;
+    }
+
+    /**
+     * Gets the message as a buffer, without copying it.  The returned buffer's position is 0
+     * and its limit is the length of the message.  Changes to its position and limit
+     * do not affect the message.
+     *
+     * @return a buffer holding the message
+     */
+    @NonNull
+    public ByteBuffer toByteBuffer() { return buffer.duplicate(); }
+
+    /**
+     * Gets the length of the message, in bytes.
+     *
+     * @return the length of the message
+     */
+    public int getLength() { return buffer.limit(); }
+
+    /**
+     * Tells whether the message is backed by a direct buffer.
+     * Getting the data of such a message, with {@link #toData()}, copies it.
+     *
+     * @return true if the message is backed by a direct buffer
+     */
+    public boolean isDirect() { return buffer.isDirect(); }
+
+    @NonNull
+    @Override
+    public String toString() { return "Message{" + getLength() + (isDirect() ? ", direct}" : "}"); }
 }
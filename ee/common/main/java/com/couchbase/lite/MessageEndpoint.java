@@ -41,6 +41,10 @@ public class MessageEndpoint implements Endpoint {
     @NonNull
     private final MessageEndpointDelegate delegate;
 
+    // Options for the connections to the endpoint
+    @NonNull
+    private final MessagingOptions options;
+
     /**
      * Initializes a CBLMessageEndpoint object.
      *
@@ -54,14 +58,34 @@ public class MessageEndpoint implements Endpoint {
         @Nullable Object target,
         @NonNull ProtocolType protocolType,
         @NonNull MessageEndpointDelegate delegate) {
+        this(uid, target, protocolType, delegate, new MessagingOptions());
+    }
+
+    /**
+     * Initializes a CBLMessageEndpoint object, with options for its connections.
+     *
+     * @param uid          the unique identifier of the endpoint
+     * @param target       an optional arbitrary object that represents the endpoint
+     * @param protocolType the data transportation protocol
+     * @param delegate     the delegate for creating MessageEndpointConnection objects
+     * @param options      options for the connections to the endpoint
+     */
+    public MessageEndpoint(
+        @NonNull String uid,
+        @Nullable Object target,
+        @NonNull ProtocolType protocolType,
+        @NonNull MessageEndpointDelegate delegate,
+        @NonNull MessagingOptions options) {
         Preconditions.assertNotNull(uid, "uid");
         Preconditions.assertNotNull(protocolType, "protocolType");
         Preconditions.assertNotNull(delegate, "delegate");
+        Preconditions.assertNotNull(options, "options");
 
         this.uid = uid;
         this.target = target;
         this.protocolType = protocolType;
         this.delegate = delegate;
+        this.options = new MessagingOptions(options);
     }
 
     //-------------------------------------------------------------------------
@@ -100,6 +124,14 @@ public class MessageEndpoint implements Endpoint {
     @NonNull
     public MessageEndpointDelegate getDelegate() { return delegate; }
 
+    /**
+     * Gets the options for the connections to the endpoint.
+     *
+     * @return a copy of the options.
+     */
+    @NonNull
+    public MessagingOptions getMessagingOptions() { return new MessagingOptions(options); }
+
     @NonNull
     @Override
     public String toString() { return "MessageEndpoint{" + uid + ", " + protocolType + ", " + target + "}"; }
@@ -20,11 +20,16 @@ import androidx.annotation.Nullable;
 import androidx.annotation.VisibleForTesting;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.List;
-import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.Executor;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 
@@ -49,6 +54,13 @@ import com.couchbase.lite.internal.utils.Preconditions;
 public class MessageEndpointListener {
     private static final LogDomain DOMAIN = LogDomain.NETWORK;
 
+    // The number of serial queues on which status changes are handled.
+    private static final int STATUS_DISPATCHERS = 4;
+
+    // The replicator options are the same for every connection: they are encoded only once.
+    @Nullable
+    private static volatile byte[] replicatorOptions;
+
     private class MessageEndpointReplicatorListener implements C4ReplicatorListener {
         MessageEndpointReplicatorListener() {}
 
@@ -61,7 +73,8 @@ public class MessageEndpointListener {
             @Nullable Object context) {
             Log.d(DOMAIN, "MessageEndpointReplicatorListener.statusChanged (%s): %s", status, context);
             if ((status == null) || (!(context instanceof MessageEndpointListener))) { return; }
-            dispatcher.execute(() -> ((MessageEndpointListener) context).statusChanged(repl, status));
+            final MessageEndpointListener listener = (MessageEndpointListener) context;
+            listener.getDispatcher(repl).execute(() -> listener.statusChanged(repl, status));
         }
 
         @Override
@@ -78,9 +91,9 @@ public class MessageEndpointListener {
     // member variables
     //---------------------------------------------
 
-    private final Object lock = new Object();
-
-    private final Executor dispatcher = CouchbaseLiteInternal.getExecutionService().getSerialExecutor();
+    // The changes for a given replicator are always handled on the same queue, and so in order.
+    // The changes for different replicators are handled in parallel.
+    private final Executor[] dispatchers = new Executor[STATUS_DISPATCHERS];
 
     private final ChangeNotifier<MessageEndpointListenerChange> changeNotifier = new ChangeNotifier<>();
 
@@ -89,8 +102,32 @@ public class MessageEndpointListener {
     @NonNull
     private final MessageEndpointListenerConfiguration config;
 
-    @GuardedBy("lock")
-    private final Map<C4Replicator, MessageEndpointConnection> replicators = new HashMap<>();
+    // Each connection is in both maps, or in neither.
+    private final ConcurrentMap<C4Replicator, MessageEndpointConnection> replicators = new ConcurrentHashMap<>();
+    private final ConcurrentMap<MessageEndpointConnection, C4Replicator> connections = new ConcurrentHashMap<>();
+
+    // The number of connections plus the number of accepts that have not finished.
+    // The listener is registered with the database while this is not 0.
+    // Changes between 0 and 1 are rechecked while holding the database lock.
+    private final AtomicInteger activeCount = new AtomicInteger();
+
+    // Accepts are queued and run on the concurrent executor, no more than maxAccepts at once:
+    // the calling thread never waits for the database.
+    private final int maxAccepts;
+    private final Queue<Runnable> acceptQueue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger acceptWorkers = new AtomicInteger();
+
+    // Connections that are being accepted.  Removing a connection from this set cancels its accept.
+    private final Set<MessageEndpointConnection> pending = Collections.newSetFromMap(new ConcurrentHashMap<>());
+
+    // Accept throughput is reported for each burst of accepts: a burst ends when no accepts are queued.
+    private final Object statsLock = new Object();
+    @GuardedBy("statsLock")
+    private int queuedAccepts;
+    @GuardedBy("statsLock")
+    private int burstAccepts;
+    @GuardedBy("statsLock")
+    private long burstStartNs;
 
     //---------------------------------------------
     // Constructor
@@ -99,6 +136,10 @@ public class MessageEndpointListener {
     public MessageEndpointListener(@NonNull MessageEndpointListenerConfiguration config) {
         Preconditions.assertNotNull(config, "config");
         this.config = config;
+        for (int i = 0; i < dispatchers.length; i++) {
+            dispatchers[i] = CouchbaseLiteInternal.getExecutionService().getSerialExecutor();
+        }
+        this.maxAccepts = config.getMaxConcurrentAccepts();
     }
 
     //---------------------------------------------
@@ -107,8 +148,10 @@ public class MessageEndpointListener {
 
     /**
      * Accept a new connection.
+     * The connection is accepted asynchronously: its progress is reported to the change listeners.
      *
      * @param connection new incoming connection
+     * @throws IllegalStateException if the database is closed
      */
     public void accept(@NonNull MessageEndpointConnection connection) {
         final boolean isStopped = stopped.get();
@@ -119,44 +162,31 @@ public class MessageEndpointListener {
 
         Preconditions.assertNotNull(connection, "connection");
 
-        final byte[] options;
-        try { options = getOptions(); }
-        catch (LiteCoreException e) {
-            // ??? shouldn't this just throw?
-            Log.w(DOMAIN, "Failed getting encoding options", e);
+        if (!pending.add(connection)) {
+            Log.d(LogDomain.LISTENER, "Connection is already being accepted: %s", connection);
             return;
         }
 
-        final int passiveMode = C4ReplicatorMode.C4_PASSIVE.getVal();
-        final MessageFraming framing = ProtocolType.getFramingForProtocol(config.getProtocolType());
-        final Database db = config.getDatabase();
-
-        C4ReplicatorStatus status;
-        synchronized (db.getDbLock()) {
-            final C4Socket c4Socket = C4Socket.createPassiveSocket(connection.hashCode(), framing);
-
-            c4Socket.init(MessageSocket.create(c4Socket, connection, framing));
-            try {
-                final C4Replicator replicator = db.createTargetReplicator(
-                    c4Socket,
-                    passiveMode,
-                    passiveMode,
-                    options,
-                    new MessageEndpointReplicatorListener(),
-                    this);
-
-                if (addConnection(replicator, connection)) { db.registerMessageListener(this); }
-
-                replicator.start(false);
+        // Register with the database before queuing the accept, so that closing the database waits for it.
+        try { retain(); }
+        catch (RuntimeException e) {
+            pending.remove(connection);
+            throw e;
+        }
 
-                status = new C4ReplicatorStatus(C4ReplicatorStatus.ActivityLevel.CONNECTING, 0, 0);
-            }
-            catch (LiteCoreException e) {
-                status = new C4ReplicatorStatus(C4ReplicatorStatus.ActivityLevel.STOPPED, e.domain, e.code);
-            }
+        final long queuedAt = System.nanoTime();
+        synchronized (statsLock) {
+            if (queuedAccepts++ <= 0) { burstStartNs = queuedAt; }
         }
 
-        changeNotifier.postChange(new MessageEndpointListenerChange(connection, status));
+        acceptQueue.add(() -> {
+            try { acceptConnection(connection, queuedAt); }
+            finally {
+                release();
+                acceptDone();
+            }
+        });
+        startAcceptWorker();
     }
 
     /**
@@ -168,16 +198,10 @@ public class MessageEndpointListener {
         Log.d(LogDomain.LISTENER, "Closing connection: %s", connection);
         Preconditions.assertNotNull(connection, "connection");
 
-        C4Replicator replicator = null;
-        synchronized (lock) {
-            for (Map.Entry<C4Replicator, MessageEndpointConnection> entry: replicators.entrySet()) {
-                if (connection.equals(entry.getValue())) {
-                    replicator = entry.getKey();
-                    break;
-                }
-            }
-        }
+        // If the connection is still being accepted, cancel the accept.
+        if (pending.remove(connection)) { return; }
 
+        final C4Replicator replicator = connections.get(connection);
         if (replicator != null) { replicator.stop(); }
     }
 
@@ -185,8 +209,9 @@ public class MessageEndpointListener {
      * Close all connections active at the time of the call.
      */
     public void closeAll() {
-        final List<C4Replicator> repls;
-        synchronized (lock) { repls = new ArrayList<>(replicators.keySet()); }
+        pending.clear();
+
+        final List<C4Replicator> repls = new ArrayList<>(replicators.keySet());
         for (C4Replicator replicator: repls) { replicator.stop(); }
     }
 
@@ -240,9 +265,7 @@ public class MessageEndpointListener {
         if (connection != null) { changeNotifier.postChange(new MessageEndpointListenerChange(connection, status)); }
     }
 
-    boolean isStopped() {
-        synchronized (lock) { return replicators.isEmpty(); }
-    }
+    boolean isStopped() { return activeCount.get() <= 0; }
 
     void stop() {
         stopped.set(true);
@@ -258,36 +281,217 @@ public class MessageEndpointListener {
     // Private
     //---------------------------------------------
 
+    @NonNull
+    private Executor getDispatcher(@Nullable C4Replicator replicator) {
+        final int n = (replicator == null) ? 0 : ((replicator.hashCode() & Integer.MAX_VALUE) % dispatchers.length);
+        return dispatchers[n];
+    }
+
     @Nullable
     private MessageEndpointConnection getConnection(@NonNull C4Replicator replicator) {
-        synchronized (lock) { return replicators.get(replicator); }
+        return replicators.get(replicator);
     }
 
-    private boolean addConnection(
-        @NonNull C4Replicator replicator,
-        @NonNull MessageEndpointConnection connection) {
-        synchronized (lock) {
-            replicators.put(replicator, connection);
-            return replicators.size() == 1;
-        }
+    // The accept that calls this holds a count: it cannot be the first.
+    private void addConnection(@NonNull C4Replicator replicator, @NonNull MessageEndpointConnection connection) {
+        if (replicators.putIfAbsent(replicator, connection) != null) { return; }
+        connections.put(connection, replicator);
+        activeCount.incrementAndGet();
     }
 
     @Nullable
     private MessageEndpointConnection removeConnection(@NonNull C4Replicator replicator) {
-        final boolean mustUnregister;
-        final MessageEndpointConnection connection;
-        synchronized (lock) {
-            mustUnregister = replicators.size() == 1;
-            connection = replicators.remove(replicator);
+        final MessageEndpointConnection connection = replicators.remove(replicator);
+        if (connection == null) { return null; }
+        connections.remove(connection, replicator);
+        release();
+        return connection;
+    }
+
+    // Register this listener with the database when it becomes active.
+    // Throws IllegalStateException if the database is closed.
+    private void retain() {
+        if (activeCount.incrementAndGet() != 1) { return; }
+
+        // The count may have changed again, while waiting for the lock: recheck it.
+        final Database db = config.getDatabase();
+        try {
+            synchronized (db.getDbLock()) {
+                if (activeCount.get() > 0) { db.registerMessageListener(this); }
+            }
         }
+        catch (RuntimeException e) {
+            activeCount.decrementAndGet();
+            throw e;
+        }
+    }
 
-        if (mustUnregister) { config.getDatabase().unregisterMessageListener(this); }
+    // Unregister this listener from the database when it is no longer active.
+    private void release() {
+        if (activeCount.decrementAndGet() != 0) { return; }
 
-        return connection;
+        final Database db = config.getDatabase();
+        synchronized (db.getDbLock()) {
+            if (activeCount.get() <= 0) { db.unregisterMessageListener(this); }
+        }
+    }
+
+    // Start another worker, unless there are already enough for the queued accepts.
+    private void startAcceptWorker() {
+        while (true) {
+            final int workers = acceptWorkers.get();
+            if ((workers >= maxAccepts) || acceptQueue.isEmpty()) { return; }
+            if (acceptWorkers.compareAndSet(workers, workers + 1)) { break; }
+        }
+
+        CouchbaseLiteInternal.getExecutionService().getConcurrentExecutor().execute(this::runAccepts);
+    }
+
+    private void runAccepts() {
+        try {
+            Runnable task;
+            while ((task = acceptQueue.poll()) != null) { task.run(); }
+        }
+        finally {
+            acceptWorkers.decrementAndGet();
+        }
+
+        // An accept may have been queued after this worker found the queue empty.
+        startAcceptWorker();
+    }
+
+    private void acceptConnection(@NonNull MessageEndpointConnection connection, long queuedAt) {
+        final long startedAt = System.nanoTime();
+
+        // The connection was closed while it was queued.
+        if (stopped.get() || !pending.contains(connection)) {
+            pending.remove(connection);
+            Log.d(LogDomain.LISTENER, "Accept cancelled: %s", connection);
+            changeNotifier.postChange(
+                new MessageEndpointListenerChange(
+                    connection,
+                    new C4ReplicatorStatus(C4ReplicatorStatus.ActivityLevel.STOPPED, 0, 0)));
+            return;
+        }
+
+        final byte[] options;
+        try { options = getOptions(); }
+        catch (LiteCoreException e) {
+            // ??? shouldn't this just throw?
+            Log.w(DOMAIN, "Failed getting encoding options", e);
+            pending.remove(connection);
+            changeNotifier.postChange(
+                new MessageEndpointListenerChange(
+                    connection,
+                    new C4ReplicatorStatus(C4ReplicatorStatus.ActivityLevel.STOPPED, e.domain, e.code)));
+            return;
+        }
+
+        final int passiveMode = C4ReplicatorMode.C4_PASSIVE.getVal();
+        final MessageFraming framing = ProtocolType.getFramingForProtocol(config.getProtocolType());
+        final Database db = config.getDatabase();
+
+        final C4Socket c4Socket = C4Socket.createPassiveSocket(connection.hashCode(), framing);
+        c4Socket.init(MessageSocket.create(c4Socket, connection, framing, config.getMessagingOptions()));
+
+        final long createdAt = System.nanoTime();
+        long createNs = 0;
+        C4Replicator replicator = null;
+        C4ReplicatorStatus status;
+        try {
+            // This is the only step that holds the database lock.
+            // It fails with an IllegalStateException if the database is closing.
+            replicator = db.createTargetReplicator(
+                c4Socket,
+                passiveMode,
+                passiveMode,
+                options,
+                new MessageEndpointReplicatorListener(),
+                this);
+            createNs = System.nanoTime() - createdAt;
+
+            addConnection(replicator, connection);
+
+            replicator.start(false);
+
+            // The connection was closed while it was being accepted.  Stopping the replicator
+            // reports the connection as STOPPED: it must not be reported as CONNECTING after that.
+            if (pending.remove(connection)) {
+                status = new C4ReplicatorStatus(C4ReplicatorStatus.ActivityLevel.CONNECTING, 0, 0);
+            }
+            else {
+                status = null;
+                replicator.stop();
+            }
+        }
+        catch (LiteCoreException e) {
+            pending.remove(connection);
+            status = new C4ReplicatorStatus(C4ReplicatorStatus.ActivityLevel.STOPPED, e.domain, e.code);
+        }
+        catch (RuntimeException e) {
+            Log.w(LogDomain.LISTENER, "Failed accepting connection: %s", e, connection);
+            pending.remove(connection);
+            if (replicator != null) { abandonReplicator(replicator); }
+            status = new C4ReplicatorStatus(C4ReplicatorStatus.ActivityLevel.STOPPED, 0, 0);
+        }
+
+        if (status != null) { changeNotifier.postChange(new MessageEndpointListenerChange(connection, status)); }
+
+        final long doneAt = System.nanoTime();
+        Log.d(
+            LogDomain.LISTENER,
+            "Accepted connection in %.3fms (queued %.3fms, create %.3fms): %s",
+            toMs(doneAt - startedAt),
+            toMs(startedAt - queuedAt),
+            toMs(createNs),
+            connection);
+    }
+
+    // Stop and free a replicator whose connection could not be accepted.
+    private void abandonReplicator(@NonNull C4Replicator replicator) {
+        removeConnection(replicator);
+        try {
+            replicator.stop();
+            replicator.close();
+        }
+        catch (RuntimeException e) { Log.w(LogDomain.LISTENER, "Failed closing replicator", e); }
+    }
+
+    // Report the throughput when the last of a burst of accepts completes.
+    private void acceptDone() {
+        final int accepts;
+        final long elapsedNs;
+        synchronized (statsLock) {
+            burstAccepts++;
+            if (--queuedAccepts > 0) { return; }
+            accepts = burstAccepts;
+            elapsedNs = System.nanoTime() - burstStartNs;
+            burstAccepts = 0;
+        }
+
+        final double elapsedMs = toMs(elapsedNs);
+        Log.i(
+            LogDomain.LISTENER,
+            "%s: accepted %d connections in %.3fms (%.1f/s)",
+            this,
+            accepts,
+            elapsedMs,
+            (elapsedMs <= 0) ? 0.0 : (accepts * 1000.0) / elapsedMs);
     }
 
     @NonNull
-    private byte[] getOptions() throws LiteCoreException {
+    private static byte[] getOptions() throws LiteCoreException {
+        // Racing threads may both encode the options: the results are identical.
+        byte[] options = replicatorOptions;
+        if (options == null) {
+            options = encodeOptions();
+            replicatorOptions = options;
+        }
+        return options;
+    }
+
+    @NonNull
+    private static byte[] encodeOptions() throws LiteCoreException {
         try (FLEncoder encoder = FLEncoder.getManagedEncoder()) {
             encoder.beginDict(1);
             encoder.writeKey(C4Replicator.REPLICATOR_OPTION_NO_INCOMING_CONFLICTS);
@@ -296,5 +500,6 @@ public class MessageEndpointListener {
             return encoder.finish();
         }
     }
-}
 
+    private static double toMs(long ns) { return ns / 1000000.0; }
+}
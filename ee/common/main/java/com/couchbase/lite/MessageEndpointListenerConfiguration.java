@@ -24,6 +24,11 @@ import com.couchbase.lite.internal.utils.Preconditions;
  * Configuration for MessageEndpointListener
  */
 public class MessageEndpointListenerConfiguration {
+    /**
+     * The default maximum number of connections that are accepted concurrently.
+     */
+    public static final int DEFAULT_MAX_CONCURRENT_ACCEPTS = 4;
+
     // Local database
     @NonNull
     private final Database database;
@@ -31,6 +36,13 @@ public class MessageEndpointListenerConfiguration {
     @NonNull
     private final ProtocolType protocolType;
 
+    // Options for accepted connections
+    @NonNull
+    private MessagingOptions messagingOptions = new MessagingOptions();
+
+    // Maximum number of connections accepted concurrently
+    private int maxConcurrentAccepts = DEFAULT_MAX_CONCURRENT_ACCEPTS;
+
     public MessageEndpointListenerConfiguration(@NonNull Database database, @NonNull ProtocolType protocolType) {
         this.database = Preconditions.assertNotNull(database, "database");
         this.protocolType = Preconditions.assertNotNull(protocolType, "protocolType");
@@ -41,4 +53,53 @@ public class MessageEndpointListenerConfiguration {
 
     @NonNull
     public ProtocolType getProtocolType() { return protocolType; }
+
+    /**
+     * <b>ENTERPRISE EDITION API</b><br><br>
+     * <p>
+     * Set the options for connections accepted by the listener.
+     *
+     * @param options the options.
+     * @return this.
+     */
+    @NonNull
+    public MessageEndpointListenerConfiguration setMessagingOptions(@NonNull MessagingOptions options) {
+        this.messagingOptions = new MessagingOptions(Preconditions.assertNotNull(options, "options"));
+        return this;
+    }
+
+    /**
+     * <b>ENTERPRISE EDITION API</b><br><br>
+     * <p>
+     * Get the options for connections accepted by the listener.
+     *
+     * @return a copy of the options.
+     */
+    @NonNull
+    public MessagingOptions getMessagingOptions() { return new MessagingOptions(messagingOptions); }
+
+    /**
+     * <b>ENTERPRISE EDITION API</b><br><br>
+     * <p>
+     * Set the maximum number of connections that the listener accepts concurrently.
+     * Connections accepted while that many are already being accepted wait their turn.
+     * The value is read when the listener is created.
+     *
+     * @param maxAccepts the maximum number of concurrent accepts: must be positive.
+     * @return this.
+     */
+    @NonNull
+    public MessageEndpointListenerConfiguration setMaxConcurrentAccepts(int maxAccepts) {
+        this.maxConcurrentAccepts = Preconditions.assertPositive(maxAccepts, "max concurrent accepts");
+        return this;
+    }
+
+    /**
+     * <b>ENTERPRISE EDITION API</b><br><br>
+     * <p>
+     * Get the maximum number of connections that the listener accepts concurrently.
+     *
+     * @return the maximum number of concurrent accepts.
+     */
+    public int getMaxConcurrentAccepts() { return maxConcurrentAccepts; }
 }
@@ -0,0 +1,33 @@
+//
+// Copyright (c) 2022 Couchbase, Inc.  All rights reserved.
+//
+// Licensed under the Couchbase License Agreement (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+// https://info.couchbase.com/rs/302-GJY-034/images/2017-10-30_License_Agreement.pdf
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package com.couchbase.lite;
+
+/**
+ * <b>ENTERPRISE EDITION API</b><br><br>
+ * <p>
+ * The MessagingFlowListener callback interface used to tell a custom transport
+ * to stop, or to resume, reading data from the other peer.
+ * See {@link FlowControlledReplicatorConnection#setFlowListener(MessagingFlowListener)}.
+ */
+@FunctionalInterface
+public interface MessagingFlowListener {
+    /**
+     * Called when the replicator's receive window fills, and when it has drained enough to receive more data.
+     * Notifications are delivered in order, one at a time.
+     *
+     * @param paused true if the transport should stop reading; false if it should resume.
+     */
+    void receivePaused(boolean paused);
+}
@@ -0,0 +1,147 @@
+//
+// Copyright (c) 2022 Couchbase, Inc.  All rights reserved.
+//
+// Licensed under the Couchbase License Agreement (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+// https://info.couchbase.com/rs/302-GJY-034/images/2017-10-30_License_Agreement.pdf
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package com.couchbase.lite;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.couchbase.lite.internal.utils.Preconditions;
+
+
+/**
+ * <b>ENTERPRISE EDITION API</b><br><br>
+ * <p>
+ * Options for the connections made to a {@link MessageEndpoint} or accepted by a {@link MessageEndpointListener}.
+ */
+public final class MessagingOptions {
+    /**
+     * The default time, in milliseconds, for which a write is held back, waiting for others
+     * with which it can be coalesced.
+     */
+    public static final long DEFAULT_COALESCING_LINGER_MS = 5;
+
+    /**
+     * The default size, in bytes, of the receive window: the transport is never told to stop reading.
+     */
+    public static final long DEFAULT_RECEIVE_WINDOW = 0;
+
+    //---------------------------------------------
+    // member variables
+    //---------------------------------------------
+
+    private int maxCoalescedBytes;
+    private long coalescingLingerMs = DEFAULT_COALESCING_LINGER_MS;
+    private long receiveWindow = DEFAULT_RECEIVE_WINDOW;
+
+    //---------------------------------------------
+    // Constructors
+    //---------------------------------------------
+
+    public MessagingOptions() { }
+
+    /**
+     * Copy constructor
+     *
+     * @param options the options to duplicate.
+     */
+    public MessagingOptions(@Nullable MessagingOptions options) {
+        if (options == null) { return; }
+        this.maxCoalescedBytes = options.maxCoalescedBytes;
+        this.coalescingLingerMs = options.coalescingLingerMs;
+        this.receiveWindow = options.receiveWindow;
+    }
+
+    //---------------------------------------------
+    // API - public methods
+    //---------------------------------------------
+
+    /**
+     * Set the maximum size of a coalesced write.
+     * <p>
+     * When coalescing is enabled, consecutive writes from the replicator are merged and passed to
+     * {@link MessageEndpointConnection#send(Message, MessagingCompletion)} as a single message, which is sent
+     * when it reaches this size or when the oldest write in it has waited for the linger time
+     * (see {@link #setCoalescingLinger(long)}), whichever comes first.  A transport with a large cost per send
+     * makes far fewer of them.  Writes larger than this size are sent as they are.
+     * <p>
+     * Only byte streams ({@link ProtocolType#BYTE_STREAM}) are coalesced: the boundaries between the messages
+     * of a message stream are significant.  The default is 0: coalescing is disabled.
+     *
+     * @param maxBytes the maximum size, in bytes, of a coalesced write, or 0 to disable coalescing.
+     * @return this.
+     */
+    @NonNull
+    public MessagingOptions setMaxCoalescedBytes(int maxBytes) {
+        this.maxCoalescedBytes = Preconditions.assertNotNegative(maxBytes, "maxBytes");
+        return this;
+    }
+
+    /**
+     * Get the maximum size of a coalesced write.
+     *
+     * @return the maximum size, in bytes, of a coalesced write.  0 means that coalescing is disabled.
+     */
+    public int getMaxCoalescedBytes() { return maxCoalescedBytes; }
+
+    /**
+     * Set the longest time for which a write is held back, waiting for others with which it can be coalesced.
+     * The default is {@link #DEFAULT_COALESCING_LINGER_MS}.
+     *
+     * @param lingerMs the linger time, in milliseconds.  0 sends coalesced writes as soon as possible.
+     * @return this.
+     */
+    @NonNull
+    public MessagingOptions setCoalescingLinger(long lingerMs) {
+        this.coalescingLingerMs = Preconditions.assertNotNegative(lingerMs, "lingerMs");
+        return this;
+    }
+
+    /**
+     * Get the longest time for which a write is held back, waiting for others with which it can be coalesced.
+     *
+     * @return the linger time, in milliseconds.
+     */
+    public long getCoalescingLinger() { return coalescingLingerMs; }
+
+    /**
+     * Set the size of the receive window: the amount of data received from the other peer, but not yet processed
+     * by the replicator, at which the transport is told to stop reading.
+     * See {@link FlowControlledReplicatorConnection#isReceivePaused()}.
+     * The amount of data held is counted as the replicator acknowledges the data it has processed.
+     * The default is {@link #DEFAULT_RECEIVE_WINDOW}: flow control is off.
+     *
+     * @param windowBytes the size of the window, in bytes, or 0 if the transport should never be told to stop.
+     * @return this.
+     */
+    @NonNull
+    public MessagingOptions setReceiveWindow(long windowBytes) {
+        this.receiveWindow = Preconditions.assertNotNegative(windowBytes, "windowBytes");
+        return this;
+    }
+
+    /**
+     * Get the size of the receive window.
+     *
+     * @return the size of the window, in bytes.  0 means that the transport is never told to stop.
+     */
+    public long getReceiveWindow() { return receiveWindow; }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "MessagingOptions{coalescing(" + maxCoalescedBytes + ", " + coalescingLingerMs + ")"
+            + ", window(" + receiveWindow + ")}";
+    }
+}
@@ -0,0 +1,266 @@
+//
+// Copyright (c) 2022 Couchbase, Inc.  All rights reserved.
+//
+// Licensed under the Couchbase License Agreement (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+// https://info.couchbase.com/rs/302-GJY-034/images/2017-10-30_License_Agreement.pdf
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package com.couchbase.lite;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.List;
+
+import com.couchbase.lite.internal.utils.PlatformUtils;
+import com.couchbase.lite.internal.utils.Preconditions;
+
+
+/**
+ * <b>ENTERPRISE EDITION API</b><br><br>
+ * <p>
+ * Compact storage for embedding vectors.
+ * <p>
+ * A vector stored as an array of numbers uses 9 bytes, or more, for each element, and every element must be
+ * decoded individually.  A packed vector is a string stored in the document itself: a base64 data URL
+ * holding the elements as little-endian floats, 4 bytes per element ({@link VectorFormat#FLOAT32})
+ * or 2 ({@link VectorFormat#FLOAT16}), about 5.3 or 2.7 characters once encoded.
+ * It is decoded to a float[] in bulk, without boxing.
+ * <p>
+ * The base64 encoding makes a packed vector a third larger than its raw bytes: a FLOAT16 vector takes
+ * about 2.7 bytes per element, not 2.  It is still several times smaller than an array of numbers,
+ * and, unlike a blob, it is read along with the document, without a separate lookup.
+ * <p>
+ * Packed vectors are accepted wherever the vector search APIs ({@link VectorIndex}, {@link VectorSearch})
+ * read a vector.  The query engine's distance functions, such as
+ * {@link Function#euclideanDistance(Expression, Expression)}, accept only arrays of numbers.
+ */
+public final class PackedVector {
+    private PackedVector() { } // Utility class
+
+    private static final String DATA_URL_PREFIX = "data:";
+    private static final String DATA_URL_ENCODING = ";base64,";
+
+    /**
+     * Pack a vector, as 32-bit floats.
+     *
+     * @param vector the vector.
+     * @return the packed vector.
+     */
+    @NonNull
+    public static String encode(@NonNull float[] vector) { return encode(vector, VectorFormat.FLOAT32); }
+
+    /**
+     * Pack a vector, in the given format.
+     *
+     * @param vector the vector.
+     * @param format the format of the packed elements.
+     * @return the packed vector.
+     */
+    @NonNull
+    public static String encode(@NonNull float[] vector, @NonNull VectorFormat format) {
+        Preconditions.assertNotNull(format, "format");
+        final String data
+            = PlatformUtils.getEncoder().encodeToString(pack(Preconditions.assertNotNull(vector, "vector"), format));
+        if (data == null) { throw new IllegalStateException("Failed encoding vector"); }
+        return getDataUrlPrefix(format) + data;
+    }
+
+    /**
+     * Unpack a packed vector.
+     *
+     * @param packed a string created by {@link #encode(float[], VectorFormat)}.
+     * @return the vector, or null if the string is not a packed vector.
+     */
+    @Nullable
+    public static float[] decode(@NonNull String packed) {
+        Preconditions.assertNotNull(packed, "packed");
+        if (!packed.startsWith(DATA_URL_PREFIX)) { return null; }
+
+        for (VectorFormat format: VectorFormat.values()) {
+            final String prefix = getDataUrlPrefix(format);
+            if (!packed.startsWith(prefix)) { continue; }
+
+            final byte[] data;
+            try { data = PlatformUtils.getDecoder().decodeString(packed.substring(prefix.length())); }
+            catch (IllegalArgumentException e) { return null; }
+            return (data == null) ? null : unpack(data, format);
+        }
+
+        return null;
+    }
+
+    /**
+     * Get the vector stored in a document, dictionary or query result property.
+     *
+     * @param dict a document, dictionary or result.
+     * @param key  the name of the property.
+     * @return the vector, or null if the property is neither a packed vector nor an array of numbers.
+     */
+    @Nullable
+    public static float[] getVector(@NonNull DictionaryInterface dict, @NonNull String key) {
+        Preconditions.assertNotNull(dict, "dict");
+        return toVector(dict.getValue(Preconditions.assertNotNull(key, "key")));
+    }
+
+    /**
+     * Get the vector stored in an element of an array or query result.
+     *
+     * @param array an array or result.
+     * @param index the index of the element.
+     * @return the vector, or null if the element is neither a packed vector nor an array of numbers.
+     */
+    @Nullable
+    public static float[] getVector(@NonNull ArrayInterface array, int index) {
+        return toVector(Preconditions.assertNotNull(array, "array").getValue(index));
+    }
+
+    /**
+     * Convert a value to a vector.  The value may be a packed vector, an Array of numbers,
+     * a List of numbers or a float[].
+     *
+     * @param value the value.
+     * @return the vector, or null if the value cannot be converted to a vector.
+     */
+    @Nullable
+    public static float[] toVector(@Nullable Object value) {
+        if (value instanceof String) { return decode((String) value); }
+        if (value instanceof Array) { return fromArray((Array) value); }
+        if (value instanceof List) { return fromList((List<?>) value); }
+        if (value instanceof float[]) { return ((float[]) value).clone(); }
+        return null;
+    }
+
+    //---------------------------------------------
+    // Package visible methods
+    //---------------------------------------------
+
+    @NonNull
+    static byte[] pack(@NonNull float[] vector, @NonNull VectorFormat format) {
+        final ByteBuffer buf = ByteBuffer.allocate(vector.length * format.getBytesPerElement())
+            .order(ByteOrder.LITTLE_ENDIAN);
+        switch (format) {
+            case FLOAT32:
+                buf.asFloatBuffer().put(vector);
+                break;
+            case FLOAT16:
+                for (float f: vector) { buf.putShort(toHalf(f)); }
+                break;
+            default:
+                throw new IllegalArgumentException("Unrecognized vector format: " + format);
+        }
+        return buf.array();
+    }
+
+    @Nullable
+    static float[] unpack(@NonNull byte[] data, @NonNull VectorFormat format) {
+        final int size = format.getBytesPerElement();
+        if ((data.length % size) != 0) { return null; }
+
+        final ByteBuffer buf = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+        final float[] vector = new float[data.length / size];
+        switch (format) {
+            case FLOAT32:
+                buf.asFloatBuffer().get(vector);
+                break;
+            case FLOAT16:
+                for (int i = 0; i < vector.length; i++) { vector[i] = fromHalf(buf.getShort()); }
+                break;
+            default:
+                throw new IllegalArgumentException("Unrecognized vector format: " + format);
+        }
+        return vector;
+    }
+
+    // IEEE 754 binary32 to binary16, rounding to nearest even.
+    static short toHalf(float f) {
+        final int bits = Float.floatToRawIntBits(f);
+        final int sign = (bits >>> 16) & 0x8000;
+        final int exp = (bits >>> 23) & 0xff;
+        final int mantissa = bits & 0x7fffff;
+
+        // NaN and infinity
+        if (exp == 0xff) { return (short) (sign | 0x7c00 | ((mantissa != 0) ? 0x200 : 0)); }
+
+        final int halfExp = exp - 127 + 15;
+        // Overflow: infinity
+        if (halfExp >= 0x1f) { return (short) (sign | 0x7c00); }
+
+        // Subnormal or zero
+        if (halfExp <= 0) {
+            if (halfExp < -10) { return (short) sign; }
+            final int m = mantissa | 0x800000;
+            final int shift = 14 - halfExp;
+            int half = m >> shift;
+            final int rem = m & ((1 << shift) - 1);
+            final int halfway = 1 << (shift - 1);
+            if ((rem > halfway) || ((rem == halfway) && ((half & 1) != 0))) { half++; }
+            return (short) (sign | half);
+        }
+
+        int half = (halfExp << 10) | (mantissa >> 13);
+        final int rem = mantissa & 0x1fff;
+        // A carry out of the mantissa correctly increments the exponent, possibly to infinity.
+        if ((rem > 0x1000) || ((rem == 0x1000) && ((half & 1) != 0))) { half++; }
+        return (short) (sign | half);
+    }
+
+    // IEEE 754 binary16 to binary32: exact.
+    static float fromHalf(short h) {
+        final int bits = h & 0xffff;
+        final int sign = (bits & 0x8000) << 16;
+        final int exp = (bits >>> 10) & 0x1f;
+        final int mantissa = bits & 0x3ff;
+
+        if (exp == 0x1f) { return Float.intBitsToFloat(sign | 0x7f800000 | (mantissa << 13)); }
+        if (exp != 0) { return Float.intBitsToFloat(sign | ((exp - 15 + 127) << 23) | (mantissa << 13)); }
+        if (mantissa == 0) { return Float.intBitsToFloat(sign); }
+
+        // Subnormal: 2^-24 * mantissa
+        final float f = mantissa * 5.9604645e-8f;
+        return (sign == 0) ? f : -f;
+    }
+
+    //---------------------------------------------
+    // Private methods
+    //---------------------------------------------
+
+    @NonNull
+    private static String getDataUrlPrefix(@NonNull VectorFormat format) {
+        return DATA_URL_PREFIX + format.getContentType() + DATA_URL_ENCODING;
+    }
+
+    @Nullable
+    private static float[] fromArray(@NonNull Array array) {
+        final int n = array.count();
+        final float[] vector = new float[n];
+        for (int i = 0; i < n; i++) {
+            final Object element = array.getValue(i);
+            if (!(element instanceof Number)) { return null; }
+            vector[i] = ((Number) element).floatValue();
+        }
+        return vector;
+    }
+
+    @Nullable
+    private static float[] fromList(@NonNull List<?> list) {
+        final int n = list.size();
+        final float[] vector = new float[n];
+        for (int i = 0; i < n; i++) {
+            final Object element = list.get(i);
+            if (!(element instanceof Number)) { return null; }
+            vector[i] = ((Number) element).floatValue();
+        }
+        return vector;
+    }
+}
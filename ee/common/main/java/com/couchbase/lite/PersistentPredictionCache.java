@@ -0,0 +1,423 @@
+//
+// Copyright (c) 2022 Couchbase, Inc.  All rights reserved.
+//
+// Licensed under the Couchbase License Agreement (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+// https://info.couchbase.com/rs/302-GJY-034/images/2017-10-30_License_Agreement.pdf
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package com.couchbase.lite;
+
+import androidx.annotation.GuardedBy;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+import com.couchbase.lite.internal.CouchbaseLiteInternal;
+import com.couchbase.lite.internal.support.Log;
+
+
+/**
+ * <b>ENTERPRISE EDITION API</b><br><br>
+ * <p>
+ * A cache of the results of predictive models that survives restarts.
+ * Open one with {@link Database#openPersistentPredictionCache(long)} and attach it to a model with
+ * {@link PredictiveModelConfiguration#setPersistentCache(PersistentPredictionCache)}.
+ * <p>
+ * Results are stored in a side database, in the same directory as the database that opened the cache
+ * and encrypted with the same key.  They are keyed by the name and version of the model and by a hash
+ * of the model input: give the model a version (see {@link PredictiveModelConfiguration#setVersion(String)})
+ * and change it whenever the model's results might change.  Results are written in the background,
+ * in batches.  When the cache holds more than its maximum number of results, the oldest are removed.
+ * <p>
+ * Queries read only the results held in memory: the most recent results, loaded when the cache is opened,
+ * and those written or looked up since.  A result that is not in memory is loaded in the background,
+ * for the next time it is needed.  Until it is, the model is run.
+ * <p>
+ * The cache is closed when the database that opened it is closed.  It is encrypted with the database's
+ * new key when the database's key is changed and it is deleted when the database is deleted.
+ */
+public final class PersistentPredictionCache {
+    private static final LogDomain DOMAIN = LogDomain.QUERY;
+
+    // The name of the side database is the name of the main database with this suffix.
+    static final String DB_SUFFIX = "_predictions";
+
+    private static final String PROP_MODEL = "model";
+    private static final String PROP_VERSION = "version";
+    private static final String PROP_RESULT = "result";
+    private static final String PROP_CREATED = "created";
+    private static final String CREATED_INDEX = "created";
+
+    // Results waiting to be written beyond this number are dropped: they will be recomputed, if needed.
+    private static final int MAX_PENDING_WRITES = 4096;
+
+    // The number of results held in memory.
+    private static final int MAX_RESULTS_IN_MEMORY = 4096;
+
+    // Lookups of results that are not in memory, beyond this number, are not queued.
+    private static final int MAX_PENDING_READS = 256;
+
+    // Eviction removes results until the cache is this fraction of its maximum size,
+    // so that it does not run after every write.
+    private static final double EVICTION_TARGET = 0.9;
+
+    // A pending write of a MISSING result.
+    private static final Map<String, Object> MISSING = new LinkedHashMap<>();
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private static final class PendingWrite {
+        @NonNull
+        final String model;
+        @Nullable
+        final String version;
+        @NonNull
+        final Map<String, Object> result;
+
+        PendingWrite(@NonNull String model, @Nullable String version, @NonNull Map<String, Object> result) {
+            this.model = model;
+            this.version = version;
+            this.result = result;
+        }
+    }
+
+    //---------------------------------------------
+    // Member variables
+    //---------------------------------------------
+
+    @NonNull
+    private final Database db;
+    @NonNull
+    private final Database cacheDb;
+    private final long maxEntries;
+
+    // Writes are applied, in order, by a single background task.
+    @NonNull
+    private final Executor writer = CouchbaseLiteInternal.getExecutionService().getSerialExecutor();
+
+    // Results are loaded into memory by another, so that lookups do not wait for writes.
+    @NonNull
+    private final Executor reader = CouchbaseLiteInternal.getExecutionService().getSerialExecutor();
+
+    @NonNull
+    private final Object lock = new Object();
+    @GuardedBy("lock")
+    @NonNull
+    private Map<String, PendingWrite> pendingWrites = new LinkedHashMap<>();
+    // The most recently used results, by document id.
+    @GuardedBy("lock")
+    @NonNull
+    private final Map<String, Map<String, Object>> results = new LinkedHashMap<String, Map<String, Object>>(
+        16,
+        0.75f,
+        true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Map<String, Object>> eldest) {
+            return size() > MAX_RESULTS_IN_MEMORY;
+        }
+    };
+    @GuardedBy("lock")
+    @NonNull
+    private final Set<String> pendingReads = new HashSet<>();
+    @GuardedBy("lock")
+    private boolean closed;
+
+    //---------------------------------------------
+    // Constructors
+    //---------------------------------------------
+
+    PersistentPredictionCache(@NonNull Database db, @NonNull Database cacheDb, long maxEntries)
+        throws CouchbaseLiteException {
+        this.db = db;
+        this.cacheDb = cacheDb;
+        this.maxEntries = maxEntries;
+        cacheDb.createIndex(CREATED_INDEX, IndexBuilder.valueIndex(ValueIndexItem.property(PROP_CREATED)));
+        reader.execute(this::loadRecent);
+    }
+
+    //---------------------------------------------
+    // Public API
+    //---------------------------------------------
+
+    /**
+     * Get the maximum number of results held in the cache.
+     *
+     * @return the maximum number of results.
+     */
+    public long getMaxEntries() { return maxEntries; }
+
+    /**
+     * Get the number of results in the cache.  Results that have not yet been written are not included.
+     *
+     * @return the number of results.
+     */
+    public long getCount() { return cacheDb.getCount(); }
+
+    /**
+     * Write any pending results, remove the oldest results if the cache is over its maximum size,
+     * and compact the side database.  This may take a while: call it when the application is idle.
+     *
+     * @throws CouchbaseLiteException on failure.
+     */
+    public void compact() throws CouchbaseLiteException {
+        flush();
+        evict();
+        cacheDb.performMaintenance(MaintenanceType.COMPACT);
+    }
+
+    /**
+     * Remove every result from the cache.
+     *
+     * @throws CouchbaseLiteException on failure.
+     */
+    public void clear() throws CouchbaseLiteException {
+        synchronized (lock) {
+            pendingWrites = new LinkedHashMap<>();
+            results.clear();
+        }
+        purgeOldest(Long.MAX_VALUE);
+    }
+
+    /**
+     * Write any pending results and close the cache.  Models using the cache continue to work without it.
+     *
+     * @throws CouchbaseLiteException on failure to close the side database.
+     */
+    public void close() throws CouchbaseLiteException {
+        try { flush(); }
+        catch (CouchbaseLiteException | RuntimeException e) {
+            try { closeCacheDb(); }
+            catch (CouchbaseLiteException | RuntimeException closeErr) { e.addSuppressed(closeErr); }
+            throw e;
+        }
+        closeCacheDb();
+    }
+
+    @NonNull
+    @Override
+    public String toString() { return "PersistentPredictionCache{" + cacheDb.getName() + ", " + maxEntries + "}"; }
+
+    //---------------------------------------------
+    // Package visible methods
+    //---------------------------------------------
+
+    boolean isClosed() {
+        synchronized (lock) { return closed; }
+    }
+
+    void changeEncryptionKey(@Nullable EncryptionKey key) throws CouchbaseLiteException {
+        cacheDb.changeEncryptionKey(key);
+    }
+
+    // Look up a result.  This is called from queries: it does not read the side database.
+    // Returns null if there is no result for the input in memory, and queues loading it;
+    // an entry with a null value is a cached MISSING result.
+    @Nullable
+    PredictionCache.Entry get(@NonNull String model, @Nullable String version, @NonNull String input) {
+        final String docId = getDocId(model, version, input);
+
+        synchronized (lock) {
+            if (closed) { return null; }
+
+            final PendingWrite pending = pendingWrites.get(docId);
+            if (pending != null) { return toEntry(pending.result); }
+
+            final Map<String, Object> result = results.get(docId);
+            if (result != null) { return toEntry(result); }
+
+            if ((pendingReads.size() >= MAX_PENDING_READS) || !pendingReads.add(docId)) { return null; }
+        }
+
+        reader.execute(() -> load(docId));
+        return null;
+    }
+
+    // Queue a result to be written.
+    void put(@NonNull String model, @Nullable String version, @NonNull String input, @Nullable Dictionary result) {
+        final String docId = getDocId(model, version, input);
+        final PendingWrite write = new PendingWrite(model, version, (result == null) ? MISSING : result.toMap());
+
+        final boolean first;
+        synchronized (lock) {
+            if (closed || (pendingWrites.size() >= MAX_PENDING_WRITES)) { return; }
+            first = pendingWrites.isEmpty();
+            pendingWrites.put(docId, write);
+            results.put(docId, write.result);
+        }
+
+        if (!first) { return; }
+
+        writer.execute(() -> {
+            try {
+                flush();
+                evict();
+            }
+            catch (CouchbaseLiteException | RuntimeException e) {
+                Log.w(DOMAIN, "Failed writing prediction cache", e);
+            }
+        });
+    }
+
+    //---------------------------------------------
+    // Private methods
+    //---------------------------------------------
+
+    private void closeCacheDb() throws CouchbaseLiteException {
+        synchronized (lock) {
+            if (closed) { return; }
+            closed = true;
+            results.clear();
+        }
+        db.unregisterPersistentPredictionCache(this);
+        cacheDb.close();
+    }
+
+    // Load the most recent results into memory.
+    private void loadRecent() {
+        final List<String> docIds = new ArrayList<>();
+        final List<Map<String, Object>> recent = new ArrayList<>();
+        try (ResultSet rs = QueryBuilder
+            .select(SelectResult.expression(Meta.id), SelectResult.property(PROP_RESULT))
+            .from(DataSource.database(cacheDb))
+            .orderBy(Ordering.property(PROP_CREATED).descending())
+            .limit(Expression.intValue(MAX_RESULTS_IN_MEMORY))
+            .execute()) {
+            for (Result result: rs) {
+                final String docId = result.getString(0);
+                if (docId == null) { continue; }
+                final Dictionary dict = result.getDictionary(1);
+                docIds.add(docId);
+                recent.add((dict == null) ? MISSING : dict.toMap());
+            }
+        }
+        catch (CouchbaseLiteException | RuntimeException e) {
+            // The cache may have been closed concurrently.
+            Log.d(DOMAIN, "Failed loading prediction cache", e);
+            return;
+        }
+
+        // Oldest first, so that the most recent are the last to be dropped from memory.
+        synchronized (lock) {
+            if (closed) { return; }
+            for (int i = docIds.size() - 1; i >= 0; i--) {
+                final String docId = docIds.get(i);
+                if (!results.containsKey(docId)) { results.put(docId, recent.get(i)); }
+            }
+        }
+    }
+
+    // Load a single result into memory.
+    private void load(@NonNull String docId) {
+        Map<String, Object> result = null;
+        try {
+            final Document doc = cacheDb.getDocument(docId);
+            if (doc != null) {
+                final Dictionary dict = doc.getDictionary(PROP_RESULT);
+                result = (dict == null) ? MISSING : dict.toMap();
+            }
+        }
+        catch (RuntimeException e) {
+            // The cache may have been closed concurrently.
+            Log.d(DOMAIN, "Failed reading prediction cache", e);
+        }
+
+        synchronized (lock) {
+            pendingReads.remove(docId);
+            if ((result != null) && !closed && !results.containsKey(docId)) { results.put(docId, result); }
+        }
+    }
+
+    // Write all pending results in a single transaction.
+    private void flush() throws CouchbaseLiteException {
+        final Map<String, PendingWrite> writes;
+        synchronized (lock) {
+            if (closed || pendingWrites.isEmpty()) { return; }
+            writes = pendingWrites;
+            pendingWrites = new LinkedHashMap<>();
+        }
+
+        final long now = System.currentTimeMillis();
+        cacheDb.inBatch(() -> {
+            for (Map.Entry<String, PendingWrite> entry: writes.entrySet()) {
+                final PendingWrite write = entry.getValue();
+                final MutableDocument doc = new MutableDocument(entry.getKey());
+                doc.setString(PROP_MODEL, write.model);
+                doc.setString(PROP_VERSION, write.version);
+                if (write.result != MISSING) { doc.setDictionary(PROP_RESULT, new MutableDictionary(write.result)); }
+                doc.setLong(PROP_CREATED, now);
+                cacheDb.save(doc);
+            }
+        });
+    }
+
+    private void evict() throws CouchbaseLiteException {
+        final long count = cacheDb.getCount();
+        if (count <= maxEntries) { return; }
+        final long n = count - (long) (maxEntries * EVICTION_TARGET);
+        purgeOldest(n);
+        Log.d(DOMAIN, "Evicted %d results from prediction cache %s", n, cacheDb.getName());
+    }
+
+    // Purge the n oldest results.  Purged results leave no tombstones.
+    private void purgeOldest(long n) throws CouchbaseLiteException {
+        final List<String> docIds = new ArrayList<>();
+        try (ResultSet results = QueryBuilder
+            .select(SelectResult.expression(Meta.id))
+            .from(DataSource.database(cacheDb))
+            .orderBy(Ordering.property(PROP_CREATED).ascending())
+            .limit(Expression.longValue(n))
+            .execute()) {
+            for (Result result: results) {
+                final String docId = result.getString(0);
+                if (docId != null) { docIds.add(docId); }
+            }
+        }
+
+        cacheDb.inBatch(() -> {
+            for (String docId: docIds) { cacheDb.purge(docId); }
+        });
+    }
+
+    @NonNull
+    private static PredictionCache.Entry toEntry(@NonNull Map<String, Object> result) {
+        return new PredictionCache.Entry((result == MISSING) ? null : new MutableDictionary(result), 0, 0);
+    }
+
+    // The id of the document holding a result is a SHA-256 hash of the model name, version and input.
+    @NonNull
+    private static String getDocId(@NonNull String model, @Nullable String version, @NonNull String input) {
+        final MessageDigest digest;
+        try { digest = MessageDigest.getInstance("SHA-256"); }
+        catch (NoSuchAlgorithmException e) { throw new IllegalStateException("SHA-256 is not supported", e); }
+
+        digest.update(model.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        if (version != null) { digest.update(version.getBytes(StandardCharsets.UTF_8)); }
+        digest.update((byte) 0);
+        final byte[] hash = digest.digest(input.getBytes(StandardCharsets.UTF_8));
+
+        final char[] hex = new char[hash.length * 2];
+        for (int i = 0; i < hash.length; i++) {
+            hex[2 * i] = HEX[(hash[i] >> 4) & 0x0f];
+            hex[(2 * i) + 1] = HEX[hash[i] & 0x0f];
+        }
+        return new String(hex);
+    }
+}
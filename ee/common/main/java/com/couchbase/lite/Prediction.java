@@ -15,20 +15,24 @@
 
 package com.couchbase.lite;
 
+import androidx.annotation.GuardedBy;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
-import com.couchbase.lite.internal.DbContext;
+import com.couchbase.lite.internal.CouchbaseLiteInternal;
 import com.couchbase.lite.internal.core.C4Prediction;
 import com.couchbase.lite.internal.core.C4PredictiveModel;
-import com.couchbase.lite.internal.exec.ClientTask;
-import com.couchbase.lite.internal.fleece.FLEncoder;
-import com.couchbase.lite.internal.fleece.FLSliceResult;
-import com.couchbase.lite.internal.fleece.FLValue;
-import com.couchbase.lite.internal.fleece.MRoot;
 import com.couchbase.lite.internal.support.Log;
 import com.couchbase.lite.internal.utils.Preconditions;
 
@@ -39,48 +43,66 @@ import com.couchbase.lite.internal.utils.Preconditions;
  * The prediction model manager for registering and unregistering predictive models.
  */
 public final class Prediction {
-    private static class C4PredictiveModelImpl implements C4PredictiveModel {
+    // Notified each time a model is registered.
+    interface ModelListener {
+        void modelRegistered(@NonNull String name, @Nullable String version);
+    }
+
+    // The object registered with LiteCore for a model name.  It is registered when the name is
+    // first used and stays registered until the name is unregistered.  Replacing the model
+    // registered under a name just swaps the delegate: there is no window in which queries
+    // that use the name see MISSING.
+    private static final class ModelSlot implements C4PredictiveModel {
         @NonNull
-        private final PredictiveModel model;
+        private final AtomicReference<C4PredictiveModelImpl> model;
 
-        C4PredictiveModelImpl(@NonNull PredictiveModel model) { this.model = model; }
+        ModelSlot(@NonNull C4PredictiveModelImpl model) { this.model = new AtomicReference<>(model); }
 
         // This method is called by reflection.  Don't change its signature.
         @Override
-        public long predict(long input, long c4db) {
-            final ClientTask<Dictionary> task = new ClientTask<>(() -> model.predict(
-                (Dictionary) new MRoot(new DbContext(new ShellDb(c4db)), new FLValue(input), false).asNative()));
-            task.execute();
-
-            final Dictionary prediction;
-            final Exception err = task.getFailure();
-            if (err == null) { prediction = task.getResult(); }
-            else {
-                prediction = null;
-                Log.w(LogDomain.QUERY, "Prediction model failed", err);
-            }
-            return encode(prediction).getHandle();
-        }
+        public long predict(long input, long c4db) { return model.get().predict(input, c4db); }
 
         @NonNull
-        private FLSliceResult encode(@Nullable Dictionary prediction) {
-            if (prediction != null) {
-                try (FLEncoder encoder = FLEncoder.getManagedEncoder()) {
-                    prediction.encodeTo(encoder);
-                    return encoder.finish2Unmanaged(); // Will be freed by the native code.
-                }
-                catch (LiteCoreException e) { Log.w(LogDomain.QUERY, "Failed encoding a predictive result", e); }
-            }
+        C4PredictiveModelImpl getModel() { return model.get(); }
 
-            return FLSliceResult.getUnmanagedSliceResult(); // Will be freed by the native code.
-        }
+        @NonNull
+        C4PredictiveModelImpl swap(@NonNull C4PredictiveModelImpl newModel) { return model.getAndSet(newModel); }
     }
 
+    /**
+     * The default maximum number of inputs passed to a batch model in a single call.
+     */
+    public static final int DEFAULT_MAX_BATCH_SIZE = 64;
+
+    /**
+     * The default maximum number of predictions that an asynchronous model may have in flight at once.
+     */
+    public static final int DEFAULT_MAX_IN_FLIGHT = 16;
+
     //---------------------------------------------
     // Member variables
     //---------------------------------------------
 
-    private Map<String, Object> models;
+    // Guards changes to the registry.  Lookups do not need it.
+    @NonNull
+    private final Object lock = new Object();
+
+    @GuardedBy("lock")
+    @NonNull
+    private final ConcurrentMap<String, ModelSlot> models = new ConcurrentHashMap<>();
+
+    // Models are warmed up and closed, in order, on this executor.  Closing a model before warming up
+    // its replacement means that a model registered again under the same name is not left closed.
+    // It is created lazily, only when a model that implements PredictiveModelLifecycle is registered:
+    // this object is created before the library is initialized.
+    @GuardedBy("lock")
+    @Nullable
+    private Executor lifecycleExecutor;
+
+    // Listeners are held weakly: they go away with their databases.
+    @GuardedBy("lock")
+    @NonNull
+    private final Set<ModelListener> listeners = Collections.newSetFromMap(new WeakHashMap<>());
 
     //---------------------------------------------
     // Constructor
@@ -98,17 +120,177 @@ public final class Prediction {
      * @param name  The name of the predictive model.
      * @param model The predictive model.
      */
-    public synchronized void registerModel(@NonNull String name, @NonNull PredictiveModel model) {
+    public void registerModel(@NonNull String name, @NonNull PredictiveModel model) {
+        registerModel(name, model, new PredictiveModelConfiguration());
+    }
+
+    /**
+     * Register a predictive model by the given name, with the given options.
+     * Registering a model under a name that is already in use replaces the existing model
+     * and discards any results cached for it.  The replacement is atomic: queries running
+     * concurrently use either the old or the new model, never neither.
+     *
+     * @param name   The name of the predictive model.
+     * @param model  The predictive model.
+     * @param config Options for the model.
+     */
+    public void registerModel(
+        @NonNull String name,
+        @NonNull PredictiveModel model,
+        @NonNull PredictiveModelConfiguration config) {
+        Preconditions.assertNotNull(name, "name");
+        Preconditions.assertNotNull(model, "model");
+        Preconditions.assertNotNull(config, "config");
+
+        register(name, new C4PredictiveModelImpl(name, model, config, getLifecycle(model)));
+    }
+
+    /**
+     * Register a batch predictive model by the given name.
+     * Inputs are passed to the model in batches of at most {@link #DEFAULT_MAX_BATCH_SIZE}.
+     *
+     * @param name  The name of the predictive model.
+     * @param model The batch predictive model.
+     */
+    public void registerBatchModel(@NonNull String name, @NonNull BatchPredictiveModel model) {
+        registerBatchModel(name, model, DEFAULT_MAX_BATCH_SIZE);
+    }
+
+    /**
+     * Register a batch predictive model by the given name.
+     * A predictive index built in the background passes inputs to the model in batches of at most maxBatchSize.
+     * Inputs for which queries request predictions concurrently are coalesced into batches of the same size.
+     *
+     * @param name         The name of the predictive model.
+     * @param model        The batch predictive model.
+     * @param maxBatchSize The maximum number of inputs passed to the model in a single call.
+     */
+    public void registerBatchModel(@NonNull String name, @NonNull BatchPredictiveModel model, int maxBatchSize) {
+        registerBatchModel(name, model, new PredictiveModelConfiguration().setMaxBatchSize(maxBatchSize));
+    }
+
+    /**
+     * Register a batch predictive model by the given name, with the given options.
+     * A predictive index built in the background passes inputs to the model in batches of at most
+     * config.getMaxBatchSize().  Inputs for which queries request predictions concurrently are coalesced
+     * into batches of the same size.
+     *
+     * @param name   The name of the predictive model.
+     * @param model  The batch predictive model.
+     * @param config Options for the model.
+     */
+    public void registerBatchModel(
+        @NonNull String name,
+        @NonNull BatchPredictiveModel model,
+        @NonNull PredictiveModelConfiguration config) {
         Preconditions.assertNotNull(name, "name");
         Preconditions.assertNotNull(model, "model");
+        Preconditions.assertNotNull(config, "config");
+        register(
+            name,
+            new C4PredictiveModelImpl(
+                name,
+                new PredictionBatcher(model, config.getMaxBatchSize()),
+                config,
+                getLifecycle(model)));
+    }
 
-        if (models == null) { models = new HashMap<>(); }
+    /**
+     * Register an asynchronous predictive model by the given name.
+     * At most {@link #DEFAULT_MAX_IN_FLIGHT} predictions are in flight at once.
+     *
+     * @param name  The name of the predictive model.
+     * @param model The asynchronous predictive model.
+     */
+    public void registerAsyncModel(@NonNull String name, @NonNull AsyncPredictiveModel model) {
+        registerAsyncModel(name, model, new PredictiveModelConfiguration());
+    }
 
-        if (models.containsKey(name)) { C4Prediction.unregister(name); }
+    /**
+     * Register an asynchronous predictive model by the given name, with the given options.
+     * At most config.getMaxInFlight() predictions are in flight at once: callers requesting
+     * further predictions wait until one completes, but no longer than config.getTimeout().
+     *
+     * @param name   The name of the predictive model.
+     * @param model  The asynchronous predictive model.
+     * @param config Options for the model.
+     */
+    public void registerAsyncModel(
+        @NonNull String name,
+        @NonNull AsyncPredictiveModel model,
+        @NonNull PredictiveModelConfiguration config) {
+        Preconditions.assertNotNull(name, "name");
+        Preconditions.assertNotNull(model, "model");
+        Preconditions.assertNotNull(config, "config");
+        register(
+            name,
+            new C4PredictiveModelImpl(
+                name,
+                new AsyncPredictionAdapter(model, config.getMaxInFlight(), config.getTimeout()),
+                config,
+                getLifecycle(model)));
+    }
 
-        final C4PredictiveModel c4Model = new C4PredictiveModelImpl(model);
-        C4Prediction.register(name, c4Model);
-        models.put(name, c4Model);
+    /**
+     * Register a predictive model that reads its input through a lazily decoding view, by the given name.
+     *
+     * @param name  The name of the predictive model.
+     * @param model The predictive model.
+     */
+    public void registerLazyModel(@NonNull String name, @NonNull LazyPredictiveModel model) {
+        registerLazyModel(name, model, new PredictiveModelConfiguration());
+    }
+
+    /**
+     * Register a predictive model that reads its input through a lazily decoding view, by the given name,
+     * with the given options.
+     * <p>
+     * The result cache, the persistent cache and deduplication (see
+     * {@link PredictiveModelConfiguration#setDeduplicationEnabled(boolean)}) all identify an input by its JSON,
+     * and so encode all of it.  They are disabled by default: enabling any of them forfeits the benefit
+     * of the lazy view.
+     * Lazy models are not run ahead of time by predictive index builds.
+     *
+     * @param name   The name of the predictive model.
+     * @param model  The predictive model.
+     * @param config Options for the model.
+     */
+    public void registerLazyModel(
+        @NonNull String name,
+        @NonNull LazyPredictiveModel model,
+        @NonNull PredictiveModelConfiguration config) {
+        Preconditions.assertNotNull(name, "name");
+        Preconditions.assertNotNull(model, "model");
+        Preconditions.assertNotNull(config, "config");
+        register(name, new C4PredictiveModelImpl(name, model, config, getLifecycle(model)));
+    }
+
+    /**
+     * Register a predictive model that writes its results directly, by the given name.
+     *
+     * @param name  The name of the predictive model.
+     * @param model The predictive model.
+     */
+    public void registerEncodingModel(@NonNull String name, @NonNull EncodingPredictiveModel model) {
+        registerEncodingModel(name, model, new PredictiveModelConfiguration());
+    }
+
+    /**
+     * Register a predictive model that writes its results directly, by the given name, with the given options.
+     * Results written directly are not cached: the cache options in the configuration are ignored.
+     *
+     * @param name   The name of the predictive model.
+     * @param model  The predictive model.
+     * @param config Options for the model.
+     */
+    public void registerEncodingModel(
+        @NonNull String name,
+        @NonNull EncodingPredictiveModel model,
+        @NonNull PredictiveModelConfiguration config) {
+        Preconditions.assertNotNull(name, "name");
+        Preconditions.assertNotNull(model, "model");
+        Preconditions.assertNotNull(config, "config");
+        register(name, new C4PredictiveModelImpl(name, model, config, getLifecycle(model)));
     }
 
     /**
@@ -116,12 +298,131 @@ public final class Prediction {
      *
      * @param name The name of the predictive model.
      */
-    public synchronized void unregisterModel(@NonNull String name) {
+    public void unregisterModel(@NonNull String name) {
         Preconditions.assertNotNull(name, "name");
 
-        if (models == null) { return; }
+        final C4PredictiveModelImpl c4Model;
+        final Executor executor;
+        synchronized (lock) {
+            final ModelSlot slot = models.remove(name);
+            if (slot == null) { return; }
+            C4Prediction.unregister(name);
+            c4Model = slot.getModel();
+            executor = (!c4Model.hasLifecycle()) ? null : getLifecycleExecutorLocked();
+        }
+
+        c4Model.close();
+        if (executor != null) { executor.execute(c4Model::closeModel); }
+    }
+
+    /**
+     * Wait for the model of the given name to warm up.  Warm-up begins when a model that implements
+     * {@link PredictiveModelLifecycle} is registered.  A model that does not implement it is always warm.
+     *
+     * @param name    The name of the predictive model.
+     * @param timeout The maximum time to wait.
+     * @param unit    The unit of the timeout.
+     * @return true if the model has completed warm-up, successfully or not; false if the timeout expired
+     * or there is no such model.
+     * @throws InterruptedException if the current thread is interrupted while waiting.
+     */
+    public boolean awaitWarmUp(@NonNull String name, long timeout, @NonNull TimeUnit unit)
+        throws InterruptedException {
+        Preconditions.assertNotNull(unit, "unit");
+        final C4PredictiveModelImpl c4Model = getModel(name);
+        return (c4Model != null) && c4Model.awaitWarmUp(timeout, unit);
+    }
+
+    /**
+     * Get the statistics for the result cache of the predictive model of the given name.
+     *
+     * @param name The name of the predictive model.
+     * @return the cache statistics, or null if there is no such model or its cache is not enabled.
+     */
+    @Nullable
+    public PredictionCacheStats getCacheStats(@NonNull String name) {
+        final C4PredictiveModelImpl c4Model = getModel(name);
+        return (c4Model == null) ? null : c4Model.getCacheStats();
+    }
 
-        C4Prediction.unregister(name);
-        models.remove(name);
+    /**
+     * Get usage statistics for the predictive model of the given name.
+     * Statistics are kept from the time the model was registered.
+     *
+     * @param name The name of the predictive model.
+     * @return the model's statistics, or null if there is no such model.
+     */
+    @Nullable
+    public PredictionStats getStats(@NonNull String name) {
+        final C4PredictiveModelImpl c4Model = getModel(name);
+        return (c4Model == null) ? null : c4Model.getStats();
+    }
+
+    //---------------------------------------------
+    // Package visible methods
+    //---------------------------------------------
+
+    void addModelListener(@NonNull ModelListener listener) {
+        synchronized (lock) { listeners.add(listener); }
+    }
+
+    @Nullable
+    C4PredictiveModelImpl getModel(@NonNull String name) {
+        Preconditions.assertNotNull(name, "name");
+        final ModelSlot slot = models.get(name);
+        return (slot == null) ? null : slot.getModel();
+    }
+
+    //---------------------------------------------
+    // Private methods
+    //---------------------------------------------
+
+    @GuardedBy("lock")
+    @NonNull
+    private Executor getLifecycleExecutorLocked() {
+        if (lifecycleExecutor == null) {
+            lifecycleExecutor = CouchbaseLiteInternal.getExecutionService().getSerialExecutor();
+        }
+        return lifecycleExecutor;
+    }
+
+    @Nullable
+    private static PredictiveModelLifecycle getLifecycle(@NonNull Object model) {
+        return (model instanceof PredictiveModelLifecycle) ? (PredictiveModelLifecycle) model : null;
+    }
+
+    private void register(@NonNull String name, @NonNull C4PredictiveModelImpl c4Model) {
+        final C4PredictiveModelImpl prevModel;
+        final List<ModelListener> currentListeners;
+        final Executor executor;
+        synchronized (lock) {
+            currentListeners = new ArrayList<>(listeners);
+            final ModelSlot slot = models.get(name);
+            if (slot != null) { prevModel = slot.swap(c4Model); }
+            else {
+                prevModel = null;
+                final ModelSlot newSlot = new ModelSlot(c4Model);
+                C4Prediction.register(name, newSlot);
+                models.put(name, newSlot);
+            }
+            executor = (c4Model.hasLifecycle() || ((prevModel != null) && prevModel.hasLifecycle()))
+                ? getLifecycleExecutorLocked()
+                : null;
+        }
+
+        // Calls that are already running against the previous model will complete normally.
+        if (prevModel != null) {
+            prevModel.close();
+            if ((executor != null) && prevModel.hasLifecycle()) { executor.execute(prevModel::closeModel); }
+        }
+
+        if ((executor == null) || !c4Model.hasLifecycle()) { c4Model.warmUp(); }
+        else { executor.execute(c4Model::warmUp); }
+
+        final String version = c4Model.getVersion();
+        for (ModelListener listener: currentListeners) {
+            try { listener.modelRegistered(name, version); }
+            catch (RuntimeException e) { Log.w(LogDomain.QUERY, "Model listener failed for %s", e, name); }
+        }
     }
 }
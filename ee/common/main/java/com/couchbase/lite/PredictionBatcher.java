@@ -0,0 +1,204 @@
+//
+// Copyright (c) 2022 Couchbase, Inc.  All rights reserved.
+//
+// Licensed under the Couchbase License Agreement (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+// https://info.couchbase.com/rs/302-GJY-034/images/2017-10-30_License_Agreement.pdf
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package com.couchbase.lite;
+
+import androidx.annotation.GuardedBy;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+import com.couchbase.lite.internal.support.Log;
+
+
+/**
+ * Adapts a BatchPredictiveModel to the single row PredictiveModel interface.
+ * <p>
+ * A PredictiveIndexBuild passes inputs to the model in batches, through predictBatch.
+ * When a query is evaluated, though, LiteCore asks for predictions one row at a time,
+ * so only inputs for which predictions are requested concurrently can be coalesced.
+ * Each caller queues its input.  The first caller to find the model idle becomes the leader:
+ * it runs the model over the queued inputs, at most maxBatchSize at a time, until its own input
+ * has been evaluated.  It then hands off to the next waiting caller, if any.  Callers whose
+ * inputs were evaluated as part of someone else's batch just pick up their results.
+ * A caller that finds the model idle and the queue empty runs a batch of one without waiting.
+ * <p>
+ * A caller that times out leaves its request in the queue, and a leader may still read its input.
+ * C4PredictiveModelImpl passes a model that runs under a timeout a copy of its input, which stays valid
+ * after LiteCore has freed the original.
+ */
+final class PredictionBatcher implements PredictiveModel {
+    private static final class Request {
+        @NonNull
+        final Dictionary input;
+
+        @Nullable
+        Dictionary result;
+        @Nullable
+        RuntimeException failure;
+        boolean done;
+
+        Request(@NonNull Dictionary input) { this.input = input; }
+    }
+
+    //---------------------------------------------
+    // Member variables
+    //---------------------------------------------
+
+    @NonNull
+    private final Object lock = new Object();
+
+    @NonNull
+    private final BatchPredictiveModel model;
+
+    private final int maxBatchSize;
+
+    @GuardedBy("lock")
+    @NonNull
+    private final Deque<Request> pending = new ArrayDeque<>();
+
+    @GuardedBy("lock")
+    private boolean running;
+
+    //---------------------------------------------
+    // Constructor
+    //---------------------------------------------
+
+    PredictionBatcher(@NonNull BatchPredictiveModel model, int maxBatchSize) {
+        this.model = model;
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    //---------------------------------------------
+    // Implementation of PredictiveModel
+    //---------------------------------------------
+
+    @Nullable
+    @Override
+    public Dictionary predict(@NonNull Dictionary input) {
+        final Request req = new Request(input);
+
+        final boolean isLeader;
+        synchronized (lock) {
+            pending.addLast(req);
+            while (running && !req.done) {
+                try { lock.wait(); }
+                catch (InterruptedException e) {
+                    // If the request has already been claimed by a leader, its result is just dropped.
+                    pending.remove(req);
+                    Thread.currentThread().interrupt();
+                    return null;
+                }
+            }
+
+            isLeader = !req.done;
+            if (isLeader) { running = true; }
+        }
+
+        // This thread is the leader: keep running batches until this request has been evaluated.
+        // Requests are evaluated in the order in which they arrived so this loop must terminate.
+        if (isLeader) {
+            try {
+                boolean done;
+                do {
+                    runBatch(nextBatch());
+                    synchronized (lock) { done = req.done; }
+                }
+                while (!done);
+            }
+            finally {
+                synchronized (lock) {
+                    running = false;
+                    lock.notifyAll();
+                }
+            }
+        }
+
+        if (req.failure != null) { throw req.failure; }
+        return req.result;
+    }
+
+    @NonNull
+    @Override
+    public String toString() { return "PredictionBatcher{" + maxBatchSize + ", " + model + "}"; }
+
+    //---------------------------------------------
+    // Package visible methods
+    //---------------------------------------------
+
+    int getMaxBatchSize() { return maxBatchSize; }
+
+    // Run the model over a batch of at most maxBatchSize inputs, on the calling thread.
+    // Returns one result per input.
+    @NonNull
+    List<Dictionary> predictBatch(@NonNull List<Dictionary> inputs) {
+        final int n = inputs.size();
+        if (n > maxBatchSize) {
+            throw new IllegalArgumentException("Batch of " + n + " inputs is larger than " + maxBatchSize);
+        }
+
+        final List<Dictionary> results = model.predict(inputs);
+        if ((results == null) || (results.size() != n)) {
+            throw new IllegalStateException(
+                "Batch model returned " + ((results == null) ? "null" : results.size() + " results")
+                    + " for " + n + " inputs");
+        }
+
+        return results;
+    }
+
+    //---------------------------------------------
+    // Private methods
+    //---------------------------------------------
+
+    @NonNull
+    private List<Request> nextBatch() {
+        synchronized (lock) {
+            final int n = Math.min(pending.size(), maxBatchSize);
+            final List<Request> batch = new ArrayList<>(n);
+            for (int i = 0; i < n; i++) { batch.add(pending.removeFirst()); }
+            return batch;
+        }
+    }
+
+    private void runBatch(@NonNull List<Request> batch) {
+        final int n = batch.size();
+        if (n <= 0) { return; }
+
+        final List<Dictionary> inputs = new ArrayList<>(n);
+        for (Request req: batch) { inputs.add(req.input); }
+
+        List<Dictionary> results = null;
+        RuntimeException failure = null;
+        try { results = predictBatch(inputs); }
+        catch (RuntimeException e) { failure = e; }
+
+        Log.d(LogDomain.QUERY, "Batch prediction (%d): %s", n, failure);
+
+        synchronized (lock) {
+            for (int i = 0; i < n; i++) {
+                final Request req = batch.get(i);
+                if (failure != null) { req.failure = failure; }
+                else { req.result = results.get(i); }
+                req.done = true;
+            }
+            lock.notifyAll();
+        }
+    }
+}
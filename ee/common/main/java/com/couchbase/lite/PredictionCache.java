@@ -0,0 +1,196 @@
+//
+// Copyright (c) 2022 Couchbase, Inc.  All rights reserved.
+//
+// Licensed under the Couchbase License Agreement (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+// https://info.couchbase.com/rs/302-GJY-034/images/2017-10-30_License_Agreement.pdf
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package com.couchbase.lite;
+
+import androidx.annotation.GuardedBy;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * A bounded LRU cache of the results of a predictive model, keyed by the encoded model input.
+ * Cached results are deep copies of the model's output: they do not share any state with
+ * the Fleece input, which is only valid for the duration of a single up-call.
+ * A null value is a valid, cached, MISSING result.
+ */
+final class PredictionCache {
+    // Rough per-entry overhead: the map entry, the Entry object and the key String.
+    private static final int ENTRY_OVERHEAD_BYTES = 96;
+
+    static final class Entry {
+        @Nullable
+        private final Dictionary value;
+        private final long size;
+        private final long expiresAt;
+
+        Entry(@Nullable Dictionary value, long size, long expiresAt) {
+            this.value = value;
+            this.size = size;
+            this.expiresAt = expiresAt;
+        }
+
+        @Nullable
+        Dictionary getValue() { return value; }
+    }
+
+    //---------------------------------------------
+    // Member variables
+    //---------------------------------------------
+
+    private final int maxEntries;
+    private final long maxBytes;
+    private final long ttlNs;
+
+    @NonNull
+    private final Object lock = new Object();
+
+    // Access ordered: the eldest entry is the least recently used.
+    @GuardedBy("lock")
+    @NonNull
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    @GuardedBy("lock")
+    private long bytes;
+    @GuardedBy("lock")
+    private long hits;
+    @GuardedBy("lock")
+    private long misses;
+    @GuardedBy("lock")
+    private long evictions;
+
+    //---------------------------------------------
+    // Constructor
+    //---------------------------------------------
+
+    PredictionCache(int maxEntries, long maxBytes, long ttlMs) {
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+        this.ttlNs = TimeUnit.MILLISECONDS.toNanos(ttlMs);
+    }
+
+    //---------------------------------------------
+    // Package visible methods
+    //---------------------------------------------
+
+    /**
+     * Look up a cached result.
+     *
+     * @param key the encoded model input
+     * @return the cache entry, or null if there is no unexpired entry for the key
+     */
+    @Nullable
+    Entry get(@NonNull String key) {
+        synchronized (lock) {
+            final Entry entry = entries.get(key);
+            if ((entry != null) && isExpired(entry, System.nanoTime())) {
+                removeLocked(key);
+                evictions++;
+            }
+            else if (entry != null) {
+                hits++;
+                return entry;
+            }
+
+            misses++;
+            return null;
+        }
+    }
+
+    /**
+     * Cache the model's result for the passed input.
+     *
+     * @param key    the encoded model input
+     * @param result the model's output: it will be copied
+     */
+    void put(@NonNull String key, @Nullable Dictionary result) {
+        final Map<String, Object> content = (result == null) ? null : result.toMap();
+        final long size = ENTRY_OVERHEAD_BYTES + (2L * key.length()) + estimateSize(content);
+        if ((maxBytes > 0) && (size > maxBytes)) { return; }
+
+        final Entry entry = new Entry(
+            (content == null) ? null : new MutableDictionary(content),
+            size,
+            (ttlNs <= 0) ? 0 : System.nanoTime() + ttlNs);
+
+        synchronized (lock) {
+            removeLocked(key);
+            entries.put(key, entry);
+            bytes += size;
+            trimLocked();
+        }
+    }
+
+    void clear() {
+        synchronized (lock) {
+            entries.clear();
+            bytes = 0;
+        }
+    }
+
+    @NonNull
+    PredictionCacheStats getStats() {
+        synchronized (lock) { return new PredictionCacheStats(hits, misses, evictions, entries.size(), bytes); }
+    }
+
+    //---------------------------------------------
+    // Private methods
+    //---------------------------------------------
+
+    private boolean isExpired(@NonNull Entry entry, long now) {
+        return (entry.expiresAt != 0) && (now - entry.expiresAt > 0);
+    }
+
+    @GuardedBy("lock")
+    private void removeLocked(@NonNull String key) {
+        final Entry prev = entries.remove(key);
+        if (prev != null) { bytes -= prev.size; }
+    }
+
+    @GuardedBy("lock")
+    private void trimLocked() {
+        final Iterator<Entry> lru = entries.values().iterator();
+        while (lru.hasNext() && ((entries.size() > maxEntries) || ((maxBytes > 0) && (bytes > maxBytes)))) {
+            bytes -= lru.next().size;
+            lru.remove();
+            evictions++;
+        }
+    }
+
+    // A rough estimate of the heap used by the value.  It needn't be precise: it is just a bound.
+    private static long estimateSize(@Nullable Object value) {
+        if (value == null) { return 8; }
+        if (value instanceof String) { return 40 + (2L * ((String) value).length()); }
+        if (value instanceof Map) {
+            long size = 48;
+            for (Map.Entry<?, ?> entry: ((Map<?, ?>) value).entrySet()) {
+                size += 32 + estimateSize(entry.getKey()) + estimateSize(entry.getValue());
+            }
+            return size;
+        }
+        if (value instanceof List) {
+            long size = 40;
+            for (Object item: (List<?>) value) { size += 8 + estimateSize(item); }
+            return size;
+        }
+        return 24;
+    }
+}
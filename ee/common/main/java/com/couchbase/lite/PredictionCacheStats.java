@@ -0,0 +1,92 @@
+//
+// Copyright (c) 2022 Couchbase, Inc.  All rights reserved.
+//
+// Licensed under the Couchbase License Agreement (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+// https://info.couchbase.com/rs/302-GJY-034/images/2017-10-30_License_Agreement.pdf
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package com.couchbase.lite;
+
+import androidx.annotation.NonNull;
+
+
+/**
+ * <b>ENTERPRISE EDITION API</b><br><br>
+ * <p>
+ * A snapshot of the state of a predictive model's result cache.
+ */
+public final class PredictionCacheStats {
+    private final long hits;
+    private final long misses;
+    private final long evictions;
+    private final int entries;
+    private final long bytes;
+
+    PredictionCacheStats(long hits, long misses, long evictions, int entries, long bytes) {
+        this.hits = hits;
+        this.misses = misses;
+        this.evictions = evictions;
+        this.entries = entries;
+        this.bytes = bytes;
+    }
+
+    /**
+     * Get the number of predictions that were satisfied from the cache.
+     *
+     * @return the number of cache hits.
+     */
+    public long getHitCount() { return hits; }
+
+    /**
+     * Get the number of predictions that required a call to the model.
+     *
+     * @return the number of cache misses.
+     */
+    public long getMissCount() { return misses; }
+
+    /**
+     * Get the number of results that have been removed from the cache because it was full
+     * or because they had expired.
+     *
+     * @return the number of evicted results.
+     */
+    public long getEvictionCount() { return evictions; }
+
+    /**
+     * Get the number of results currently in the cache.
+     *
+     * @return the number of cached results.
+     */
+    public int getEntryCount() { return entries; }
+
+    /**
+     * Get the approximate size of the results currently in the cache.
+     *
+     * @return the approximate size of the cache, in bytes.
+     */
+    public long getByteCount() { return bytes; }
+
+    /**
+     * Get the fraction of predictions that were satisfied from the cache.
+     *
+     * @return the hit ratio: a number between 0.0 and 1.0.
+     */
+    public double getHitRatio() {
+        final long total = hits + misses;
+        return (total <= 0) ? 0.0 : ((double) hits) / total;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "PredictionCacheStats{" + hits + "/" + misses + ", " + evictions + ", " + entries + ", " + bytes + "}";
+    }
+}
@@ -0,0 +1,145 @@
+//
+// Copyright (c) 2022 Couchbase, Inc.  All rights reserved.
+//
+// Licensed under the Couchbase License Agreement (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+// https://info.couchbase.com/rs/302-GJY-034/images/2017-10-30_License_Agreement.pdf
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package com.couchbase.lite;
+
+import androidx.annotation.GuardedBy;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.couchbase.lite.internal.CouchbaseLiteInternal;
+import com.couchbase.lite.internal.support.Log;
+
+
+/**
+ * A circuit breaker for a predictive model.
+ * After failureThreshold consecutive failed calls, the breaker opens and no calls are allowed
+ * for the cool-down period.  After that, a single probe call is allowed: if it succeeds the breaker
+ * closes, if it fails the breaker opens for another cool-down period.
+ * <p>
+ * The common case, a closed breaker and a successful call, costs a couple of volatile reads.
+ */
+final class PredictionCircuitBreaker {
+    @NonNull
+    private final String modelName;
+    private final int failureThreshold;
+    private final long coolDownNs;
+    @Nullable
+    private final PredictionCircuitListener listener;
+    @Nullable
+    private final Executor dispatcher;
+
+    @NonNull
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+
+    // Written only while holding the lock.
+    @NonNull
+    private volatile PredictionCircuitState state = PredictionCircuitState.CLOSED;
+
+    @GuardedBy("this")
+    private long reopenAt;
+    @GuardedBy("this")
+    private boolean probing;
+
+    PredictionCircuitBreaker(
+        @NonNull String modelName,
+        int failureThreshold,
+        long coolDownMs,
+        @Nullable PredictionCircuitListener listener) {
+        this.modelName = modelName;
+        this.failureThreshold = failureThreshold;
+        this.coolDownNs = TimeUnit.MILLISECONDS.toNanos(coolDownMs);
+        this.listener = listener;
+        this.dispatcher = (listener == null)
+            ? null
+            : CouchbaseLiteInternal.getExecutionService().getSerialExecutor();
+    }
+
+    @NonNull
+    PredictionCircuitState getState() { return state; }
+
+    /**
+     * Decide whether a call to the model should be allowed.
+     *
+     * @return true if the model may be called
+     */
+    boolean allowCall() {
+        if (state == PredictionCircuitState.CLOSED) { return true; }
+
+        synchronized (this) {
+            switch (state) {
+                case CLOSED:
+                    return true;
+                case OPEN:
+                    if (System.nanoTime() - reopenAt < 0) { return false; }
+                    setStateLocked(PredictionCircuitState.HALF_OPEN);
+                    probing = true;
+                    return true;
+                case HALF_OPEN:
+                    if (probing) { return false; }
+                    probing = true;
+                    return true;
+                default:
+                    throw new IllegalStateException("Unrecognized circuit state: " + state);
+            }
+        }
+    }
+
+    void onSuccess() {
+        if ((state == PredictionCircuitState.CLOSED) && (consecutiveFailures.get() == 0)) { return; }
+
+        synchronized (this) {
+            consecutiveFailures.set(0);
+            probing = false;
+            setStateLocked(PredictionCircuitState.CLOSED);
+        }
+    }
+
+    void onFailure() {
+        final int failures = consecutiveFailures.incrementAndGet();
+        if ((state == PredictionCircuitState.CLOSED) && (failures < failureThreshold)) { return; }
+
+        synchronized (this) {
+            probing = false;
+            if ((state == PredictionCircuitState.HALF_OPEN) || (consecutiveFailures.get() >= failureThreshold)) {
+                reopenAt = System.nanoTime() + coolDownNs;
+                setStateLocked(PredictionCircuitState.OPEN);
+            }
+        }
+    }
+
+    // A call that was allowed but never reached the model: no outcome is recorded.
+    // If it was the probe, the next call may probe instead.
+    void onAbandoned() {
+        if (state != PredictionCircuitState.HALF_OPEN) { return; }
+        synchronized (this) { probing = false; }
+    }
+
+    @GuardedBy("this")
+    private void setStateLocked(@NonNull PredictionCircuitState newState) {
+        if (state == newState) { return; }
+        state = newState;
+
+        Log.i(LogDomain.QUERY, "Circuit breaker for prediction model %s is now %s", modelName, newState);
+
+        final PredictionCircuitListener stateListener = listener;
+        if ((stateListener == null) || (dispatcher == null)) { return; }
+        dispatcher.execute(() -> stateListener.stateChanged(modelName, newState));
+    }
+}
@@ -0,0 +1,36 @@
+//
+// Copyright (c) 2022 Couchbase, Inc.  All rights reserved.
+//
+// Licensed under the Couchbase License Agreement (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+// https://info.couchbase.com/rs/302-GJY-034/images/2017-10-30_License_Agreement.pdf
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package com.couchbase.lite;
+
+import androidx.annotation.NonNull;
+
+
+/**
+ * <b>ENTERPRISE EDITION API</b><br><br>
+ * <p>
+ * The listener interface for receiving changes to the state of a predictive model's circuit breaker.
+ */
+@FunctionalInterface
+public interface PredictionCircuitListener {
+    /**
+     * Called when the state of a model's circuit breaker changes.
+     * Notifications for any given model are delivered in order.
+     *
+     * @param model the name of the model
+     * @param state the new state of the circuit breaker
+     */
+    void stateChanged(@NonNull String model, @NonNull PredictionCircuitState state);
+}
@@ -0,0 +1,39 @@
+//
+// Copyright (c) 2022 Couchbase, Inc.  All rights reserved.
+//
+// Licensed under the Couchbase License Agreement (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+// https://info.couchbase.com/rs/302-GJY-034/images/2017-10-30_License_Agreement.pdf
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package com.couchbase.lite;
+
+/**
+ * <b>ENTERPRISE EDITION API</b><br><br>
+ * <p>
+ * The state of the circuit breaker that protects queries from a failing predictive model.
+ */
+public enum PredictionCircuitState {
+    /**
+     * The model is healthy: it is called normally.
+     */
+    CLOSED,
+
+    /**
+     * The model has failed repeatedly: it is not called and every prediction evaluates as MISSING.
+     */
+    OPEN,
+
+    /**
+     * The cool-down period has expired: a single call is allowed through to test whether the
+     * model has recovered.  If it succeeds, the breaker closes; if it fails, the breaker opens again.
+     */
+    HALF_OPEN
+}
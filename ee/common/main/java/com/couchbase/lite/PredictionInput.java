@@ -0,0 +1,313 @@
+//
+// Copyright (c) 2022 Couchbase, Inc.  All rights reserved.
+//
+// Licensed under the Couchbase License Agreement (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+// https://info.couchbase.com/rs/302-GJY-034/images/2017-10-30_License_Agreement.pdf
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package com.couchbase.lite;
+
+import androidx.annotation.GuardedBy;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.couchbase.lite.internal.DbContext;
+import com.couchbase.lite.internal.fleece.FLArray;
+import com.couchbase.lite.internal.fleece.FLConstants;
+import com.couchbase.lite.internal.fleece.FLDict;
+import com.couchbase.lite.internal.fleece.FLValue;
+import com.couchbase.lite.internal.fleece.MRoot;
+import com.couchbase.lite.internal.utils.Preconditions;
+
+
+/**
+ * <b>ENTERPRISE EDITION API</b><br><br>
+ * <p>
+ * A read-only view of the input to a {@link LazyPredictiveModel}.
+ * <p>
+ * The view reads the query engine's encoding of the input directly.  A property is decoded only when
+ * it is requested, and the typed accessors return primitives, without boxing them.  Nested dictionaries
+ * are returned as views, too: nothing is copied unless the model asks for it,
+ * with {@link #toDictionary()}.
+ * <p>
+ * A view, and any view nested in it, may be used only from within the call to
+ * {@link LazyPredictiveModel#predict(PredictionInput)} to which it was passed.
+ */
+public final class PredictionInput {
+    // Shared by a view and the views nested in it: all of them become invalid together.
+    private static final class Scope {
+        @NonNull
+        final DbContext context;
+        @GuardedBy("this")
+        boolean closed;
+
+        Scope(@NonNull DbContext context) { this.context = context; }
+    }
+
+    @NonNull
+    private final Scope scope;
+
+    @NonNull
+    private final FLValue value;
+
+    // Null if the value is not a dictionary: the view is empty.
+    @Nullable
+    private final FLDict dict;
+
+    PredictionInput(@NonNull DbContext context, @NonNull FLValue value) { this(new Scope(context), value); }
+
+    private PredictionInput(@NonNull Scope scope, @NonNull FLValue value) {
+        this.scope = scope;
+        this.value = value;
+        this.dict = (value.getType() != FLConstants.ValueType.DICT) ? null : value.asFLDict();
+    }
+
+    /**
+     * Get the number of properties in the input.
+     *
+     * @return the number of properties
+     */
+    public int count() {
+        synchronized (scope) {
+            assertOpen();
+            return (dict == null) ? 0 : (int) dict.count();
+        }
+    }
+
+    /**
+     * Tell whether the input has a property with the given name.
+     *
+     * @param key the property name
+     * @return true if the property exists, even if its value is null
+     */
+    public boolean contains(@NonNull String key) {
+        synchronized (scope) { return get(key) != null; }
+    }
+
+    /**
+     * Get a string property.
+     *
+     * @param key the property name
+     * @return the value, or null if the property does not exist or is not a string
+     */
+    @Nullable
+    public String getString(@NonNull String key) {
+        synchronized (scope) {
+            final FLValue val = get(key, FLConstants.ValueType.STRING);
+            return (val == null) ? null : val.asString();
+        }
+    }
+
+    /**
+     * Get a boolean property.
+     *
+     * @param key the property name
+     * @return the value: false if the property does not exist, and true for any non-zero number
+     */
+    public boolean getBoolean(@NonNull String key) {
+        synchronized (scope) {
+            final FLValue val = get(key);
+            if (val == null) { return false; }
+            switch (val.getType()) {
+                case FLConstants.ValueType.BOOLEAN:
+                case FLConstants.ValueType.NUMBER:
+                    return val.asBool();
+                default:
+                    return false;
+            }
+        }
+    }
+
+    /**
+     * Get an integer property.
+     *
+     * @param key the property name
+     * @return the value, or 0 if the property does not exist or is not a number
+     */
+    public int getInt(@NonNull String key) { return (int) getLong(key); }
+
+    /**
+     * Get a long property.
+     *
+     * @param key the property name
+     * @return the value, or 0 if the property does not exist or is not a number
+     */
+    public long getLong(@NonNull String key) {
+        synchronized (scope) {
+            final FLValue val = getNumber(key);
+            return (val == null) ? 0L : val.asInt();
+        }
+    }
+
+    /**
+     * Get a float property.
+     *
+     * @param key the property name
+     * @return the value, or 0 if the property does not exist or is not a number
+     */
+    public float getFloat(@NonNull String key) {
+        synchronized (scope) {
+            final FLValue val = getNumber(key);
+            return (val == null) ? 0.0F : val.asFloat();
+        }
+    }
+
+    /**
+     * Get a double property.
+     *
+     * @param key the property name
+     * @return the value, or 0 if the property does not exist or is not a number
+     */
+    public double getDouble(@NonNull String key) {
+        synchronized (scope) {
+            final FLValue val = getNumber(key);
+            return (val == null) ? 0.0 : val.asDouble();
+        }
+    }
+
+    /**
+     * Get an array of numbers, for instance an embedding vector, as floats.
+     *
+     * @param key the property name
+     * @return the values, or null if the property does not exist or is not an array of numbers
+     */
+    @Nullable
+    public float[] getFloats(@NonNull String key) {
+        synchronized (scope) {
+            final FLArray array = getNumbers(key);
+            if (array == null) { return null; }
+
+            final float[] values = new float[(int) array.count()];
+            return (copyFloats(array, values) < 0) ? null : values;
+        }
+    }
+
+    /**
+     * Copy an array of numbers, for instance an embedding vector, into the passed array.
+     * A model that reuses the destination array does not allocate a new array for each prediction.
+     * The elements are still read one at a time: each is wrapped, briefly, as a Fleece value.
+     *
+     * @param key    the property name
+     * @param values the destination: elements past the length of the property are not changed
+     * @return the number of elements copied, which may be more than the length of the destination;
+     *     or -1 if the property does not exist or is not an array of numbers
+     */
+    public int getFloats(@NonNull String key, @NonNull float[] values) {
+        Preconditions.assertNotNull(values, "values");
+        synchronized (scope) {
+            final FLArray array = getNumbers(key);
+            return (array == null) ? -1 : copyFloats(array, values);
+        }
+    }
+
+    /**
+     * Get a nested dictionary, as a view.
+     *
+     * @param key the property name
+     * @return a view of the dictionary, or null if the property does not exist or is not a dictionary
+     */
+    @Nullable
+    public PredictionInput getDictionary(@NonNull String key) {
+        synchronized (scope) {
+            final FLValue val = get(key, FLConstants.ValueType.DICT);
+            return (val == null) ? null : new PredictionInput(scope, val);
+        }
+    }
+
+    /**
+     * Copy the whole input into a Dictionary.  This decodes all of it, and so costs what the view saves:
+     * it is intended for the few properties, such as blobs, that the view does not decode.
+     * The returned Dictionary remains valid after the prediction.
+     *
+     * @return the input, as a Dictionary
+     */
+    @NonNull
+    public Dictionary toDictionary() {
+        synchronized (scope) {
+            assertOpen();
+            final Object obj = new MRoot(scope.context, value, false).asNative();
+            return (obj instanceof Dictionary) ? (Dictionary) obj : new MutableDictionary();
+        }
+    }
+
+    /**
+     * Get the input as JSON.
+     *
+     * @return the JSON
+     */
+    @NonNull
+    public String toJSON() {
+        synchronized (scope) {
+            assertOpen();
+            final String json = value.toJSON();
+            return (json == null) ? "{}" : json;
+        }
+    }
+
+    //---------------------------------------------
+    // Package visible methods
+    //---------------------------------------------
+
+    // Called when the prediction completes: the encoded input may be freed as soon as this method returns.
+    void close() {
+        synchronized (scope) { scope.closed = true; }
+    }
+
+    //---------------------------------------------
+    // Private methods
+    //---------------------------------------------
+
+    @GuardedBy("scope")
+    private void assertOpen() {
+        if (scope.closed) { throw new IllegalStateException("Attempt to use a prediction input after the prediction"); }
+    }
+
+    @GuardedBy("scope")
+    @Nullable
+    private FLValue get(@NonNull String key) {
+        Preconditions.assertNotNull(key, "key");
+        assertOpen();
+        if (dict == null) { return null; }
+        final FLValue val = dict.get(key);
+        return ((val == null) || (val.getType() == FLConstants.ValueType.UNDEFINED)) ? null : val;
+    }
+
+    @GuardedBy("scope")
+    @Nullable
+    private FLValue get(@NonNull String key, int type) {
+        final FLValue val = get(key);
+        return ((val == null) || (val.getType() != type)) ? null : val;
+    }
+
+    @GuardedBy("scope")
+    @Nullable
+    private FLValue getNumber(@NonNull String key) { return get(key, FLConstants.ValueType.NUMBER); }
+
+    @GuardedBy("scope")
+    @Nullable
+    private FLArray getNumbers(@NonNull String key) {
+        final FLValue val = get(key, FLConstants.ValueType.ARRAY);
+        return (val == null) ? null : val.asFLArray();
+    }
+
+    // Returns the length of the source, or -1 if any of the copied elements is not a number.
+    // The Fleece bindings have no bulk accessor for arrays: each element is read through its own FLValue.
+    // The caller must hold the scope lock.
+    private static int copyFloats(@NonNull FLArray array, @NonNull float[] values) {
+        final int n = (int) array.count();
+        final int m = Math.min(n, values.length);
+        for (int i = 0; i < m; i++) {
+            final FLValue element = array.get(i);
+            if ((element == null) || (element.getType() != FLConstants.ValueType.NUMBER)) { return -1; }
+            values[i] = element.asFloat();
+        }
+        return n;
+    }
+}
@@ -0,0 +1,127 @@
+//
+// Copyright (c) 2022 Couchbase, Inc.  All rights reserved.
+//
+// Licensed under the Couchbase License Agreement (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+// https://info.couchbase.com/rs/302-GJY-034/images/2017-10-30_License_Agreement.pdf
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package com.couchbase.lite;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+
+/**
+ * Counters for a registered predictive model.  Recording is lock-free and allocation-free:
+ * it is cheap enough to be left on all the time.
+ * <p>
+ * Latencies are recorded, in nanoseconds, in a log-linear histogram: each power of two
+ * is divided into 8 linear sub-buckets, so any reported percentile is within 12.5%
+ * of the actual value.  Values less than 8 are recorded exactly.
+ */
+final class PredictionMetrics {
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (Long.SIZE - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    static int bucketFor(long value) {
+        if (value < SUB_BUCKETS) { return (value < 0) ? 0 : (int) value; }
+        final int exp = (Long.SIZE - 1) - Long.numberOfLeadingZeros(value);
+        final int sub = (int) (value >>> (exp - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return ((exp - SUB_BUCKET_BITS + 1) * SUB_BUCKETS) + sub;
+    }
+
+    // The largest value recorded in the given bucket.
+    static long bucketLimit(int bucket) {
+        if (bucket < SUB_BUCKETS) { return bucket; }
+        final int exp = (bucket / SUB_BUCKETS) + SUB_BUCKET_BITS - 1;
+        final long base = ((long) (SUB_BUCKETS + (bucket % SUB_BUCKETS))) << (exp - SUB_BUCKET_BITS);
+        return base + (1L << (exp - SUB_BUCKET_BITS)) - 1;
+    }
+
+    // Estimate the value at the given percentile from a histogram.
+    static long percentile(@NonNull long[] histogram, double percentile) {
+        long total = 0;
+        for (long count: histogram) { total += count; }
+        if (total <= 0) { return 0; }
+
+        final double p = Math.max(0.0, Math.min(100.0, percentile));
+        final long rank = Math.max(1, (long) Math.ceil((p / 100.0) * total));
+        long seen = 0;
+        for (int i = 0; i < histogram.length; i++) {
+            seen += histogram[i];
+            if (seen >= rank) { return bucketLimit(i); }
+        }
+
+        return bucketLimit(histogram.length - 1);
+    }
+
+
+    //---------------------------------------------
+    // Member variables
+    //---------------------------------------------
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong calls = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong totalLatencyNs = new AtomicLong();
+    private final AtomicLong inputBytes = new AtomicLong();
+    private final AtomicLong outputBytes = new AtomicLong();
+    private final AtomicLongArray latencies = new AtomicLongArray(BUCKETS);
+
+    //---------------------------------------------
+    // Package visible methods
+    //---------------------------------------------
+
+    // Called for every prediction request, whether or not it is satisfied from the cache.
+    void recordRequest(long inBytes, long outBytes) {
+        requests.incrementAndGet();
+        if (inBytes > 0) { inputBytes.addAndGet(inBytes); }
+        if (outBytes > 0) { outputBytes.addAndGet(outBytes); }
+    }
+
+    // Called for every call to the model.
+    void recordCall(long latencyNs, boolean failed, boolean timedOut) {
+        calls.incrementAndGet();
+        if (failed) { errors.incrementAndGet(); }
+        if (timedOut) { timeouts.incrementAndGet(); }
+        totalLatencyNs.addAndGet(latencyNs);
+        latencies.incrementAndGet(bucketFor(latencyNs));
+    }
+
+    // Called for every request that was not passed to the model because its circuit breaker was open.
+    void recordRejected() { rejected.incrementAndGet(); }
+
+    @NonNull
+    PredictionStats getStats(
+        @Nullable PredictionCacheStats cacheStats,
+        @Nullable PredictionCircuitState circuitState) {
+        final long[] histogram = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) { histogram[i] = latencies.get(i); }
+        return new PredictionStats(
+            requests.get(),
+            calls.get(),
+            errors.get(),
+            timeouts.get(),
+            rejected.get(),
+            totalLatencyNs.get(),
+            histogram,
+            inputBytes.get(),
+            outputBytes.get(),
+            cacheStats,
+            circuitState);
+    }
+}
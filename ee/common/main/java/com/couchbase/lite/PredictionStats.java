@@ -0,0 +1,179 @@
+//
+// Copyright (c) 2022 Couchbase, Inc.  All rights reserved.
+//
+// Licensed under the Couchbase License Agreement (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+// https://info.couchbase.com/rs/302-GJY-034/images/2017-10-30_License_Agreement.pdf
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package com.couchbase.lite;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+
+/**
+ * <b>ENTERPRISE EDITION API</b><br><br>
+ * <p>
+ * A snapshot of the usage statistics for a registered predictive model.
+ * Statistics are kept from the time the model is registered.
+ * Latencies are reported in nanoseconds; percentiles are accurate to within 12.5%.
+ */
+public final class PredictionStats {
+    private final long requests;
+    private final long calls;
+    private final long errors;
+    private final long timeouts;
+    private final long rejected;
+    private final long totalLatencyNs;
+    @NonNull
+    private final long[] latencies;
+    private final long inputBytes;
+    private final long outputBytes;
+    @Nullable
+    private final PredictionCacheStats cacheStats;
+    @Nullable
+    private final PredictionCircuitState circuitState;
+
+    @SuppressWarnings("PMD.ArrayIsStoredDirectly")
+    PredictionStats(
+        long requests,
+        long calls,
+        long errors,
+        long timeouts,
+        long rejected,
+        long totalLatencyNs,
+        @NonNull long[] latencies,
+        long inputBytes,
+        long outputBytes,
+        @Nullable PredictionCacheStats cacheStats,
+        @Nullable PredictionCircuitState circuitState) {
+        this.requests = requests;
+        this.calls = calls;
+        this.errors = errors;
+        this.timeouts = timeouts;
+        this.rejected = rejected;
+        this.totalLatencyNs = totalLatencyNs;
+        this.latencies = latencies;
+        this.inputBytes = inputBytes;
+        this.outputBytes = outputBytes;
+        this.cacheStats = cacheStats;
+        this.circuitState = circuitState;
+    }
+
+    /**
+     * Get the number of predictions requested by the query engine.
+     * This includes predictions that were satisfied from the model's result cache.
+     *
+     * @return the number of prediction requests.
+     */
+    public long getRequestCount() { return requests; }
+
+    /**
+     * Get the number of times the model was called.
+     *
+     * @return the number of model calls.
+     */
+    public long getCallCount() { return calls; }
+
+    /**
+     * Get the number of model calls that failed.
+     *
+     * @return the number of failed calls.
+     */
+    public long getErrorCount() { return errors; }
+
+    /**
+     * Get the number of model calls that did not complete within the model's timeout.
+     * Calls that timed out are also counted as failed calls.
+     *
+     * @return the number of calls that timed out.
+     */
+    public long getTimeoutCount() { return timeouts; }
+
+    /**
+     * Get the number of prediction requests that were not passed to the model
+     * because the model's circuit breaker was open.
+     *
+     * @return the number of rejected requests.
+     */
+    public long getRejectedCount() { return rejected; }
+
+    /**
+     * Get the state of the model's circuit breaker at the time this snapshot was taken.
+     *
+     * @return the circuit breaker state, or null if the circuit breaker is not enabled.
+     */
+    @Nullable
+    public PredictionCircuitState getCircuitState() { return circuitState; }
+
+    /**
+     * Get the total time spent in model calls.
+     *
+     * @return the cumulative latency of all model calls, in nanoseconds.
+     */
+    public long getTotalLatencyNanos() { return totalLatencyNs; }
+
+    /**
+     * Get the mean time spent in a model call.
+     *
+     * @return the mean latency of a model call, in nanoseconds.
+     */
+    public long getMeanLatencyNanos() { return (calls <= 0) ? 0 : totalLatencyNs / calls; }
+
+    /**
+     * Get the latency of a model call at the given percentile.
+     * For instance, getLatencyPercentileNanos(99.0) is the time within which 99% of all calls completed.
+     *
+     * @param percentile the percentile: a number between 0.0 and 100.0.
+     * @return the latency at the given percentile, in nanoseconds.
+     */
+    public long getLatencyPercentileNanos(double percentile) {
+        return PredictionMetrics.percentile(latencies, percentile);
+    }
+
+    /**
+     * Get the total size of the inputs passed to the model.
+     * Inputs are measured only when the model's result cache is enabled.
+     *
+     * @return the approximate size of all inputs, in bytes.
+     */
+    public long getInputBytes() { return inputBytes; }
+
+    /**
+     * Get the total size of the encoded results returned to the query engine.
+     *
+     * @return the size of all results, in bytes.
+     */
+    public long getOutputBytes() { return outputBytes; }
+
+    /**
+     * Get the statistics for the model's result cache.
+     *
+     * @return the cache statistics, or null if the cache is not enabled.
+     */
+    @Nullable
+    public PredictionCacheStats getCacheStats() { return cacheStats; }
+
+    /**
+     * Get the fraction of prediction requests that were satisfied from the model's result cache.
+     *
+     * @return the cache hit ratio: a number between 0.0 and 1.0.  Always 0.0 if the cache is not enabled.
+     */
+    public double getCacheHitRatio() { return (cacheStats == null) ? 0.0 : cacheStats.getHitRatio(); }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "PredictionStats{" + requests + ", " + calls + ", " + errors + ", " + timeouts + ", " + rejected
+            + ", " + getMeanLatencyNanos() + "ns, " + getLatencyPercentileNanos(99.0) + "ns"
+            + ", " + cacheStats + ", " + circuitState + "}";
+    }
+}
@@ -0,0 +1,161 @@
+//
+// Copyright (c) 2022 Couchbase, Inc.  All rights reserved.
+//
+// Licensed under the Couchbase License Agreement (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+// https://info.couchbase.com/rs/302-GJY-034/images/2017-10-30_License_Agreement.pdf
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package com.couchbase.lite;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.couchbase.lite.internal.fleece.FLEncoder;
+import com.couchbase.lite.internal.utils.Preconditions;
+
+
+/**
+ * <b>ENTERPRISE EDITION API</b><br><br>
+ * <p>
+ * Writes the properties of a prediction result directly to the encoder that will return it
+ * to the query engine.  A property must not be written more than once.
+ * A writer may be used only from within the call to
+ * {@link EncodingPredictiveModel#predict(Dictionary, PredictionWriter)} to which it was passed.
+ */
+public final class PredictionWriter {
+    @NonNull
+    private final FLEncoder encoder;
+
+    private volatile boolean closed;
+
+    PredictionWriter(@NonNull FLEncoder encoder) { this.encoder = encoder; }
+
+    /**
+     * Write a string property.
+     *
+     * @param key   the property name
+     * @param value the value
+     * @return this
+     */
+    @NonNull
+    public PredictionWriter writeString(@NonNull String key, @Nullable String value) {
+        writeKey(key);
+        if (value == null) { encoder.writeNull(); }
+        else { encoder.writeValue(value); }
+        return this;
+    }
+
+    /**
+     * Write a boolean property.
+     *
+     * @param key   the property name
+     * @param value the value
+     * @return this
+     */
+    @NonNull
+    public PredictionWriter writeBoolean(@NonNull String key, boolean value) {
+        writeKey(key);
+        encoder.writeValue(value);
+        return this;
+    }
+
+    /**
+     * Write an integer property.
+     *
+     * @param key   the property name
+     * @param value the value
+     * @return this
+     */
+    @NonNull
+    public PredictionWriter writeLong(@NonNull String key, long value) {
+        writeKey(key);
+        encoder.writeValue(value);
+        return this;
+    }
+
+    /**
+     * Write a floating point property.
+     *
+     * @param key   the property name
+     * @param value the value
+     * @return this
+     */
+    @NonNull
+    public PredictionWriter writeDouble(@NonNull String key, double value) {
+        writeKey(key);
+        encoder.writeValue(value);
+        return this;
+    }
+
+    /**
+     * Write an array of floats, for instance an embedding vector, as an array property.
+     *
+     * @param key    the property name
+     * @param values the values
+     * @return this
+     */
+    @NonNull
+    public PredictionWriter writeFloats(@NonNull String key, @NonNull float[] values) {
+        Preconditions.assertNotNull(values, "values");
+        writeKey(key);
+        encoder.beginArray(values.length);
+        for (float value: values) { encoder.writeValue(value); }
+        encoder.endArray();
+        return this;
+    }
+
+    /**
+     * Write an array of doubles as an array property.
+     *
+     * @param key    the property name
+     * @param values the values
+     * @return this
+     */
+    @NonNull
+    public PredictionWriter writeDoubles(@NonNull String key, @NonNull double[] values) {
+        Preconditions.assertNotNull(values, "values");
+        writeKey(key);
+        encoder.beginArray(values.length);
+        for (double value: values) { encoder.writeValue(value); }
+        encoder.endArray();
+        return this;
+    }
+
+    /**
+     * Write a property of any type that can be stored in a Dictionary.
+     *
+     * @param key   the property name
+     * @param value the value
+     * @return this
+     */
+    @NonNull
+    public PredictionWriter writeValue(@NonNull String key, @Nullable Object value) {
+        writeKey(key);
+        encoder.writeValue(value);
+        return this;
+    }
+
+    //---------------------------------------------
+    // Package visible methods
+    //---------------------------------------------
+
+    void close() { closed = true; }
+
+    //---------------------------------------------
+    // Private methods
+    //---------------------------------------------
+
+    private void writeKey(@NonNull String key) {
+        Preconditions.assertNotNull(key, "key");
+        if (closed) { throw new IllegalStateException("Attempt to use a prediction writer after the prediction"); }
+        encoder.writeKey(key);
+    }
+}
@@ -53,6 +53,12 @@ public class PredictiveIndex extends Index {
         this.properties = properties;
     }
 
+    @NonNull
+    String getModel() { return model; }
+
+    @NonNull
+    Expression getInput() { return input; }
+
     @NonNull
     @Override
     List<Object> getJson() {
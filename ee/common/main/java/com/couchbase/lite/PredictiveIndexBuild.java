@@ -0,0 +1,524 @@
+//
+// Copyright (c) 2022 Couchbase, Inc.  All rights reserved.
+//
+// Licensed under the Couchbase License Agreement (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+// https://info.couchbase.com/rs/302-GJY-034/images/2017-10-30_License_Agreement.pdf
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package com.couchbase.lite;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.couchbase.lite.internal.CouchbaseLiteInternal;
+import com.couchbase.lite.internal.exec.ExecutionService;
+import com.couchbase.lite.internal.support.Log;
+
+
+/**
+ * <b>ENTERPRISE EDITION API</b><br><br>
+ * <p>
+ * A handle on a predictive index that is being built in the background.
+ * Use {@link Database#createPredictiveIndex(String, PredictiveIndex, int, PredictiveIndexBuildListener)}
+ * to start a build.
+ * <p>
+ * The query engine creates the index in a single transaction, calling the model for one document at a time.
+ * While it does, the build reads the model inputs for the documents, in chunks, through a second connection
+ * to the database, and runs the model over each chunk on up to parallelism worker threads.
+ * A {@link BatchPredictiveModel} is passed the inputs in a chunk in batches,
+ * each as large as the model allows.  Predictions
+ * computed this way are used by the query engine without calling the model again.  The build stays no more
+ * than a few thousand documents ahead of the query engine, and each prediction is discarded once it has been
+ * used, so the memory used by a build does not grow with the size of the database.
+ * An {@link AsyncPredictiveModel} is not run on worker threads: instead, predictions for the documents
+ * in a chunk are all started at once, subject to the model's limit on predictions in flight.
+ * A worker waits for the model no longer than the timeout in its configuration, as a query would:
+ * a model that does not return in time does not hold up the build, nor a cancelled build its workers.
+ * Models that write their results directly are not run ahead of time: for them, the build
+ * simply creates the index in the background.
+ * <p>
+ * If the index already exists and was built from the same version of the model
+ * (see {@link PredictiveModelConfiguration#setVersion(String)}), there is nothing to do.
+ * If it was built from a different version, it is rebuilt: queries continue to use the existing index
+ * while the new predictions are computed, and it is replaced, in a single transaction, at the end.
+ * <p>
+ * Models built this way must be thread safe.
+ */
+public final class PredictiveIndexBuild {
+    private static final LogDomain DOMAIN = LogDomain.QUERY;
+
+    // The number of documents read from the database and passed to the workers at once.
+    static final int CHUNK_SIZE = 256;
+
+    // The maximum number of documents for which predictions are computed ahead of their use by the query engine.
+    static final int PRECOMPUTE_WINDOW = 16 * CHUNK_SIZE;
+
+    // How often a build that is a full window ahead of the query engine checks whether it can continue.
+    private static final long WINDOW_POLL_MS = 10;
+
+    //---------------------------------------------
+    // Member variables
+    //---------------------------------------------
+
+    @NonNull
+    private final Database db;
+    @NonNull
+    private final PredictiveIndexRegistry registry;
+    @NonNull
+    private final String name;
+    @NonNull
+    private final PredictiveIndex index;
+    private final int parallelism;
+    @Nullable
+    private final PredictiveIndexBuildListener listener;
+
+    // The steps of the build run, in order, on this executor.  Only the creation of the index blocks.
+    @NonNull
+    private final Executor builder;
+    // Chunks of inputs are read, in order, on this executor.
+    @NonNull
+    private final Executor reader;
+    // The model is run on this executor.
+    @NonNull
+    private final Executor workers;
+
+    @NonNull
+    private final AtomicBoolean cancelled = new AtomicBoolean();
+    @NonNull
+    private final AtomicBoolean indexStarted = new AtomicBoolean();
+    @NonNull
+    private final CountDownLatch finished = new CountDownLatch(1);
+
+    private volatile long completed;
+    private volatile long total;
+    private volatile boolean done;
+    @Nullable
+    private volatile CouchbaseLiteException error;
+
+    // Set by the first step, before any other step runs.
+    private long startedAt;
+    private boolean existed;
+    @Nullable
+    private String version;
+    // The model whose predictions are computed ahead of time, or null if none are.
+    @Nullable
+    private C4PredictiveModelImpl precomputeModel;
+    // The number of requests for precomputed predictions, and of misses, before this build started.
+    private long requestsBase;
+    private long missesBase;
+
+    // The source of the model inputs.  These are confined to the reader.
+    @Nullable
+    private Database inputDb;
+    @Nullable
+    private ResultSet inputs;
+    @Nullable
+    private Iterator<Result> rows;
+
+    //---------------------------------------------
+    // Constructors
+    //---------------------------------------------
+
+    PredictiveIndexBuild(
+        @NonNull Database db,
+        @NonNull PredictiveIndexRegistry registry,
+        @NonNull String name,
+        @NonNull PredictiveIndex index,
+        int parallelism,
+        @Nullable PredictiveIndexBuildListener listener) {
+        this.db = db;
+        this.registry = registry;
+        this.name = name;
+        this.index = index;
+        this.parallelism = parallelism;
+        this.listener = listener;
+
+        final ExecutionService executionService = CouchbaseLiteInternal.getExecutionService();
+        this.builder = executionService.getSerialExecutor();
+        this.reader = executionService.getSerialExecutor();
+        this.workers = executionService.getConcurrentExecutor();
+    }
+
+    //---------------------------------------------
+    // Public API
+    //---------------------------------------------
+
+    /**
+     * Get the name of the index being built.
+     *
+     * @return the index name.
+     */
+    @NonNull
+    public String getName() { return name; }
+
+    /**
+     * Get the number of documents for which predictions have been computed ahead of time.
+     *
+     * @return the number of documents processed.
+     */
+    public long getCompleted() { return completed; }
+
+    /**
+     * Get the number of documents in the database when the build started.
+     * This is 0 if the model cannot be run ahead of time.
+     *
+     * @return the number of documents to be processed.
+     */
+    public long getTotal() { return total; }
+
+    /**
+     * Stop the build.  Any part of the index that has already been created is deleted.
+     * If the query engine is already creating the index, the build stops when it finishes.
+     */
+    public void cancel() { cancelled.set(true); }
+
+    /**
+     * Tell whether the build was cancelled.
+     *
+     * @return true if cancel has been called.
+     */
+    public boolean isCancelled() { return cancelled.get(); }
+
+    /**
+     * Tell whether the build is complete, whether it succeeded, failed or was cancelled.
+     *
+     * @return true if the build is complete.
+     */
+    public boolean isDone() { return done; }
+
+    /**
+     * Get the error that caused the build to fail.
+     *
+     * @return the error or null if the build has not failed.
+     */
+    @Nullable
+    public CouchbaseLiteException getError() { return error; }
+
+    /**
+     * Wait for the build to complete.
+     *
+     * @param timeout the maximum time to wait.
+     * @param unit    the unit of the timeout.
+     * @return true if the build completed before the timeout.
+     * @throws InterruptedException if the current thread is interrupted while waiting.
+     */
+    public boolean awaitCompletion(long timeout, @NonNull TimeUnit unit) throws InterruptedException {
+        return finished.await(timeout, unit);
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "PredictiveIndexBuild{" + name + ", " + completed + "/" + total
+            + (cancelled.get() ? ", cancelled" : "") + (done ? ", done" : "") + "}";
+    }
+
+    //---------------------------------------------
+    // Package visible methods
+    //---------------------------------------------
+
+    void start() { builder.execute(this::begin); }
+
+    //---------------------------------------------
+    // Private methods: the steps of the build
+    //---------------------------------------------
+
+    // Runs on the builder.
+    private void begin() {
+        startedAt = System.nanoTime();
+
+        final C4PredictiveModelImpl c4Model = Database.prediction.getModel(index.getModel());
+        version = (c4Model == null) ? null : c4Model.getVersion();
+
+        try {
+            existed = db.getIndexes().contains(name);
+            if (existed && registry.isCurrent(name, index, version)) {
+                finish(true);
+                return;
+            }
+
+            if ((c4Model == null) || !c4Model.canPrecompute()) {
+                createIndex();
+                return;
+            }
+
+            total = db.getCount();
+            notifyListener();
+
+            requestsBase = c4Model.getPrecomputeRequests();
+            missesBase = c4Model.getPrecomputeMisses();
+            c4Model.beginPrecompute();
+            precomputeModel = c4Model;
+        }
+        catch (CouchbaseLiteException e) {
+            error = e;
+            finish(false);
+            return;
+        }
+        catch (RuntimeException e) {
+            error = new CouchbaseLiteException("Failed building predictive index " + name, e);
+            finish(false);
+            return;
+        }
+
+        // The index is created as soon as there are predictions ready for it to use.
+        reader.execute(this::openInputs);
+    }
+
+    // Runs on the builder.
+    private void createIndex() {
+        try {
+            if (!cancelled.get()) {
+                // Creating an index with the same definition as an existing one does nothing:
+                // if the existing index was built from another version of the model, it must be replaced.
+                // The record of the build is committed with the index.
+                final boolean replacing = existed && registry.isDefinedAs(name, index);
+                db.inBatch(() -> {
+                    if (replacing) { db.deleteIndex(name); }
+                    db.createIndex(name, index);
+                    registry.recordBuild(name, index, version);
+                });
+
+                // Don't delete an index that was here before the build started.
+                if (cancelled.get() && !existed) {
+                    db.inBatch(() -> {
+                        db.deleteIndex(name);
+                        registry.forgetBuild(name);
+                    });
+                }
+            }
+        }
+        catch (CouchbaseLiteException e) {
+            error = e;
+        }
+        catch (RuntimeException e) {
+            error = new CouchbaseLiteException("Failed building predictive index " + name, e);
+        }
+
+        finish(false);
+    }
+
+    // Runs on the builder.
+    private void finish(boolean upToDate) {
+        final C4PredictiveModelImpl c4Model = precomputeModel;
+        final long misses = (c4Model == null) ? 0 : c4Model.getPrecomputeMisses() - missesBase;
+        if (c4Model != null) { c4Model.endPrecompute(); }
+        done = true;
+
+        final CouchbaseLiteException err = error;
+        if (err != null) { Log.w(DOMAIN, "Failed building predictive index %s", err, name); }
+        else {
+            Log.i(
+                DOMAIN,
+                "Predictive index %s %s in %dms (%d/%d, %d not precomputed)",
+                name,
+                (upToDate ? "up to date" : (cancelled.get() ? "cancelled" : "built")),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt),
+                completed,
+                total,
+                misses);
+        }
+
+        // Close the second connection, and deliver the final notification, before releasing
+        // anyone waiting for the build.
+        reader.execute(() -> {
+            closeInputs();
+            try { notifyListener(); }
+            finally { finished.countDown(); }
+        });
+    }
+
+    //---------------------------------------------
+    // Private methods: computing predictions ahead of time
+    //---------------------------------------------
+
+    // Runs on the reader.  The inputs are read through a second connection: the connection through which
+    // the query engine creates the index is locked until it has finished.
+    private void openInputs() {
+        if (done) { return; }
+        try {
+            inputDb = db.openConnection();
+            inputs = QueryBuilder
+                .select(SelectResult.expression(index.getInput()))
+                .from(DataSource.database(inputDb))
+                .execute();
+            rows = inputs.iterator();
+        }
+        catch (CouchbaseLiteException | RuntimeException e) {
+            // The model will be called as the index is created.
+            Log.w(DOMAIN, "Failed reading inputs for predictive index %s", e, name);
+            closeInputs();
+            startIndex();
+            return;
+        }
+
+        readChunk();
+    }
+
+    // Runs on the reader.
+    private void readChunk() {
+        final Iterator<Result> source = rows;
+        final C4PredictiveModelImpl c4Model = precomputeModel;
+        if ((source == null) || (c4Model == null) || done) { return; }
+
+        try {
+            if (cancelled.get() || !source.hasNext()) {
+                closeInputs();
+                startIndex();
+                return;
+            }
+
+            // Wait for the query engine to catch up.
+            if ((completed - (c4Model.getPrecomputeRequests() - requestsBase)) >= PRECOMPUTE_WINDOW) {
+                startIndex();
+                CouchbaseLiteInternal.getExecutionService()
+                    .postDelayedOnExecutor(WINDOW_POLL_MS, reader, this::readChunk);
+                return;
+            }
+
+            int n = 0;
+            final List<String> keys = new ArrayList<>(CHUNK_SIZE);
+            final List<Dictionary> chunk = new ArrayList<>(CHUNK_SIZE);
+            while ((n < CHUNK_SIZE) && source.hasNext()) {
+                n++;
+                final Dictionary input = source.next().getDictionary(0);
+                if (input == null) { continue; }
+                // The key is computed from the input as it was read from the database,
+                // so that it is the same as the key for the input the query engine passes to the model.
+                final String key = c4Model.getPrecomputeKey(input);
+                if (key == null) { continue; }
+                keys.add(key);
+                // Copy the input: the result set's values should not be shared across threads.
+                chunk.add(new MutableDictionary(input.toMap()));
+            }
+
+            final int nRead = n;
+            final Runnable onDone = () -> reader.execute(() -> chunkDone(nRead));
+            if (c4Model.isAsync()) { precomputeChunkAsync(c4Model, keys, chunk, onDone); }
+            else { precomputeChunk(c4Model, keys, chunk, onDone); }
+        }
+        catch (RuntimeException e) {
+            Log.w(DOMAIN, "Failed computing predictions for predictive index %s", e, name);
+            closeInputs();
+            startIndex();
+        }
+    }
+
+    // Runs on the reader.
+    private void chunkDone(int n) {
+        if (rows == null) { return; }
+        completed += n;
+        notifyListener();
+        readChunk();
+    }
+
+    // Run the model over the chunk, a batch at a time, on up to parallelism workers.
+    // The last worker to finish calls onDone.
+    private void precomputeChunk(
+        @NonNull C4PredictiveModelImpl c4Model,
+        @NonNull List<String> keys,
+        @NonNull List<Dictionary> chunk,
+        @NonNull Runnable onDone) {
+        final int n = chunk.size();
+        final int batchSize = Math.max(1, c4Model.getPrecomputeBatchSize());
+        final int nBatches = (n + batchSize - 1) / batchSize;
+        final int nWorkers = Math.min(parallelism, nBatches);
+        if (nWorkers <= 0) {
+            onDone.run();
+            return;
+        }
+
+        final AtomicInteger next = new AtomicInteger();
+        final AtomicInteger running = new AtomicInteger(nWorkers);
+        for (int i = 0; i < nWorkers; i++) {
+            workers.execute(() -> {
+                try {
+                    int j;
+                    while (!cancelled.get() && ((j = next.getAndIncrement()) < nBatches)) {
+                        final int from = j * batchSize;
+                        if (batchSize <= 1) {
+                            c4Model.precompute(keys.get(from), chunk.get(from));
+                            continue;
+                        }
+                        final int to = Math.min(from + batchSize, n);
+                        c4Model.precomputeBatch(keys.subList(from, to), chunk.subList(from, to));
+                    }
+                }
+                finally {
+                    if (running.decrementAndGet() <= 0) { onDone.run(); }
+                }
+            });
+        }
+    }
+
+    // Start a prediction for each input: the model limits the number in flight.
+    // The last prediction to complete calls onDone.
+    private void precomputeChunkAsync(
+        @NonNull C4PredictiveModelImpl c4Model,
+        @NonNull List<String> keys,
+        @NonNull List<Dictionary> chunk,
+        @NonNull Runnable onDone) {
+        final AtomicInteger pending = new AtomicInteger(chunk.size() + 1);
+        final Runnable predictionDone = () -> {
+            if (pending.decrementAndGet() <= 0) { onDone.run(); }
+        };
+
+        final int n = chunk.size();
+        for (int i = 0; i < n; i++) {
+            if (cancelled.get()) { predictionDone.run(); }
+            else { c4Model.precomputeAsync(keys.get(i), chunk.get(i), predictionDone, cancelled); }
+        }
+
+        // Account for this thread: onDone is not called before all the predictions have started.
+        predictionDone.run();
+    }
+
+    // Runs on the reader.
+    private void startIndex() {
+        if (indexStarted.compareAndSet(false, true)) { builder.execute(this::createIndex); }
+    }
+
+    // Runs on the reader.
+    private void closeInputs() {
+        rows = null;
+
+        final ResultSet results = inputs;
+        inputs = null;
+        if (results != null) {
+            try { results.close(); }
+            catch (RuntimeException e) { Log.w(DOMAIN, "Failed closing inputs for predictive index %s", e, name); }
+        }
+
+        final Database connection = inputDb;
+        inputDb = null;
+        if (connection != null) {
+            try { connection.close(); }
+            catch (CouchbaseLiteException e) {
+                Log.w(DOMAIN, "Failed closing connection for predictive index %s", e, name);
+            }
+        }
+    }
+
+    private void notifyListener() {
+        if (listener == null) { return; }
+        try { listener.changed(this); }
+        catch (RuntimeException e) { Log.w(DOMAIN, "Predictive index build listener failed", e); }
+    }
+}
@@ -0,0 +1,199 @@
+//
+// Copyright (c) 2022 Couchbase, Inc.  All rights reserved.
+//
+// Licensed under the Couchbase License Agreement (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+// https://info.couchbase.com/rs/302-GJY-034/images/2017-10-30_License_Agreement.pdf
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package com.couchbase.lite;
+
+import androidx.annotation.GuardedBy;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.couchbase.lite.internal.support.Log;
+
+
+/**
+ * The predictive indexes built by a database, and the versions of the models from which they were built.
+ * <p>
+ * The record of each build is kept in the database, as local metadata that is neither queried nor replicated,
+ * and is written in the same transaction as the index.  An index built by a previous session with the current
+ * version of its model need not be built again.  The definitions of the indexes are known only for indexes
+ * built during this session: only those are rebuilt automatically when a new version of their model
+ * is registered.  Others are rebuilt when they are next created.
+ */
+final class PredictiveIndexRegistry implements Prediction.ModelListener {
+    private static final LogDomain DOMAIN = LogDomain.QUERY;
+
+    private static final String KEY_PREFIX = "predictive_index:";
+    private static final String PROP_MODEL = "model";
+    private static final String PROP_VERSION = "version";
+    private static final String PROP_DEFINITION = "definition";
+
+    //---------------------------------------------
+    // Member variables
+    //---------------------------------------------
+
+    @NonNull
+    private final Database db;
+
+    // The definitions of the indexes built during this session.
+    @NonNull
+    private final Map<String, PredictiveIndex> indexes = new ConcurrentHashMap<>();
+    // The most recent build of each index.
+    @NonNull
+    private final Map<String, PredictiveIndexBuild> builds = new ConcurrentHashMap<>();
+
+    @GuardedBy("this")
+    private boolean listening;
+
+    //---------------------------------------------
+    // Constructors
+    //---------------------------------------------
+
+    PredictiveIndexRegistry(@NonNull Database db) { this.db = db; }
+
+    //---------------------------------------------
+    // Implementation of Prediction.ModelListener
+    //---------------------------------------------
+
+    // Rebuild, in the background, the indexes whose model has a new version.
+    // The existing index is used until its replacement is ready.
+    @Override
+    public void modelRegistered(@NonNull String model, @Nullable String version) {
+        for (Map.Entry<String, PredictiveIndex> entry: indexes.entrySet()) {
+            final String name = entry.getKey();
+            final PredictiveIndex index = entry.getValue();
+            if (!model.equals(index.getModel())) { continue; }
+
+            try {
+                if (!db.getIndexes().contains(name)) {
+                    indexes.remove(name);
+                    continue;
+                }
+                if (isCurrent(name, index, version)) { continue; }
+            }
+            catch (CouchbaseLiteException | IllegalStateException e) {
+                Log.w(DOMAIN, "Cannot rebuild predictive index %s for model %s", e, name, model);
+                continue;
+            }
+
+            Log.i(DOMAIN, "Rebuilding predictive index %s for version %s of model %s", name, version, model);
+            startBuild(name, index, Runtime.getRuntime().availableProcessors(), null);
+        }
+    }
+
+    //---------------------------------------------
+    // Package visible methods
+    //---------------------------------------------
+
+    @NonNull
+    PredictiveIndexBuild build(
+        @NonNull String name,
+        @NonNull PredictiveIndex index,
+        int parallelism,
+        @Nullable PredictiveIndexBuildListener listener) {
+        synchronized (this) {
+            if (!listening) {
+                Database.prediction.addModelListener(this);
+                listening = true;
+            }
+        }
+
+        indexes.put(name, index);
+        return startBuild(name, index, parallelism, listener);
+    }
+
+    @Nullable
+    PredictiveIndexBuild getBuild(@NonNull String name) { return builds.get(name); }
+
+    // True if the index was built, with this definition, from this version of its model.
+    boolean isCurrent(@NonNull String name, @NonNull PredictiveIndex index, @Nullable String version)
+        throws CouchbaseLiteException {
+        final Properties props = getRecord(name);
+        return isDefinedAs(props, index)
+            && index.getModel().equals(props.getProperty(PROP_MODEL))
+            && Objects.equals(version, props.getProperty(PROP_VERSION));
+    }
+
+    // True if the index was built with this definition, from any version of its model.
+    // Creating an index that already has the same definition does nothing: such an index
+    // must be deleted before it can be rebuilt.
+    boolean isDefinedAs(@NonNull String name, @NonNull PredictiveIndex index) throws CouchbaseLiteException {
+        return isDefinedAs(getRecord(name), index);
+    }
+
+    // Call this in the transaction that creates the index.
+    void recordBuild(@NonNull String name, @NonNull PredictiveIndex index, @Nullable String version)
+        throws CouchbaseLiteException {
+        final Properties props = new Properties();
+        props.setProperty(PROP_MODEL, index.getModel());
+        props.setProperty(PROP_DEFINITION, getDefinition(index));
+        if (version != null) { props.setProperty(PROP_VERSION, version); }
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try { props.store(out, null); }
+        catch (IOException e) { throw new CouchbaseLiteException("Failed recording predictive index " + name, e); }
+
+        db.setLocalInfo(KEY_PREFIX + name, out.toByteArray());
+    }
+
+    // Call this in the transaction that deletes the index.
+    void forgetBuild(@NonNull String name) throws CouchbaseLiteException { db.setLocalInfo(KEY_PREFIX + name, null); }
+
+    //---------------------------------------------
+    // Private methods
+    //---------------------------------------------
+
+    // A newer build of an index replaces any build already in progress.
+    @NonNull
+    private PredictiveIndexBuild startBuild(
+        @NonNull String name,
+        @NonNull PredictiveIndex index,
+        int parallelism,
+        @Nullable PredictiveIndexBuildListener listener) {
+        final PredictiveIndexBuild build = new PredictiveIndexBuild(db, this, name, index, parallelism, listener);
+        final PredictiveIndexBuild prevBuild = builds.put(name, build);
+        if ((prevBuild != null) && !prevBuild.isDone()) { prevBuild.cancel(); }
+        build.start();
+        return build;
+    }
+
+    private boolean isDefinedAs(@NonNull Properties props, @NonNull PredictiveIndex index) {
+        return getDefinition(index).equals(props.getProperty(PROP_DEFINITION));
+    }
+
+    @NonNull
+    private String getDefinition(@NonNull PredictiveIndex index) { return String.valueOf(index.getJson()); }
+
+    // The record of the most recent build of the index: empty if there is none.
+    @NonNull
+    private Properties getRecord(@NonNull String name) throws CouchbaseLiteException {
+        final Properties props = new Properties();
+        final byte[] data = db.getLocalInfo(KEY_PREFIX + name);
+        if (data == null) { return props; }
+
+        try { props.load(new ByteArrayInputStream(data)); }
+        catch (IOException e) {
+            // The index will be rebuilt.
+            Log.w(DOMAIN, "Failed reading the record of predictive index %s", e, name);
+        }
+        return props;
+    }
+}
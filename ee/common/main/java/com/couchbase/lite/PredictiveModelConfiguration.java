@@ -0,0 +1,373 @@
+//
+// Copyright (c) 2022 Couchbase, Inc.  All rights reserved.
+//
+// Licensed under the Couchbase License Agreement (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+// https://info.couchbase.com/rs/302-GJY-034/images/2017-10-30_License_Agreement.pdf
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package com.couchbase.lite;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.couchbase.lite.internal.utils.Preconditions;
+
+
+/**
+ * <b>ENTERPRISE EDITION API</b><br><br>
+ * <p>
+ * Options for a predictive model registered with {@link Prediction}.
+ */
+public final class PredictiveModelConfiguration {
+    /**
+     * The default time, in milliseconds, for which an open circuit breaker
+     * prevents calls to a model.
+     */
+    public static final long DEFAULT_CIRCUIT_BREAKER_COOL_DOWN_MS = 30 * 1000L;
+
+    //---------------------------------------------
+    // member variables
+    //---------------------------------------------
+    @Nullable
+    private String version;
+    @Nullable
+    private PersistentPredictionCache persistentCache;
+
+    private int maxBatchSize = Prediction.DEFAULT_MAX_BATCH_SIZE;
+
+    private int maxInFlight = Prediction.DEFAULT_MAX_IN_FLIGHT;
+
+    private boolean deduplicationEnabled;
+
+    private int cacheMaxEntries;
+    private long cacheMaxBytes;
+    private long cacheTtlMs;
+
+    private long timeoutMs;
+
+    private int breakerThreshold;
+    private long breakerCoolDownMs = DEFAULT_CIRCUIT_BREAKER_COOL_DOWN_MS;
+    @Nullable
+    private PredictionCircuitListener breakerListener;
+
+    //---------------------------------------------
+    // Constructors
+    //---------------------------------------------
+
+    public PredictiveModelConfiguration() { }
+
+    /**
+     * Copy constructor
+     *
+     * @param config the configuration to duplicate.
+     */
+    public PredictiveModelConfiguration(@Nullable PredictiveModelConfiguration config) {
+        if (config == null) { return; }
+        this.version = config.version;
+        this.persistentCache = config.persistentCache;
+        this.maxBatchSize = config.maxBatchSize;
+        this.maxInFlight = config.maxInFlight;
+        this.deduplicationEnabled = config.deduplicationEnabled;
+        this.cacheMaxEntries = config.cacheMaxEntries;
+        this.cacheMaxBytes = config.cacheMaxBytes;
+        this.cacheTtlMs = config.cacheTtlMs;
+        this.timeoutMs = config.timeoutMs;
+        this.breakerThreshold = config.breakerThreshold;
+        this.breakerCoolDownMs = config.breakerCoolDownMs;
+        this.breakerListener = config.breakerListener;
+    }
+
+    //---------------------------------------------
+    // API - public methods
+    //---------------------------------------------
+
+    /**
+     * Set the maximum number of inputs passed to a {@link BatchPredictiveModel} in a single call.
+     * This value is ignored for other kinds of models.
+     * The default is {@link Prediction#DEFAULT_MAX_BATCH_SIZE}.
+     *
+     * @param maxBatchSize the maximum batch size: must be positive.
+     * @return this.
+     */
+    @NonNull
+    public PredictiveModelConfiguration setMaxBatchSize(int maxBatchSize) {
+        this.maxBatchSize = Preconditions.assertPositive(maxBatchSize, "maxBatchSize");
+        return this;
+    }
+
+    /**
+     * Get the maximum number of inputs passed to a {@link BatchPredictiveModel} in a single call.
+     *
+     * @return the maximum batch size.
+     */
+    public int getMaxBatchSize() { return maxBatchSize; }
+
+    /**
+     * Set the maximum number of results held in the model's result cache.
+     * When the cache is enabled, the model is called only once for any given input:
+     * subsequent requests for a prediction from the same input are satisfied from the cache.
+     * Only enable the cache for models that always return the same result for the same input.
+     * The default is 0: the cache is disabled.
+     *
+     * @param maxEntries the maximum number of cached results, or 0 to disable the cache.
+     * @return this.
+     */
+    @NonNull
+    public PredictiveModelConfiguration setCacheMaxEntries(int maxEntries) {
+        this.cacheMaxEntries = Preconditions.assertNotNegative(maxEntries, "maxEntries");
+        return this;
+    }
+
+    /**
+     * Get the maximum number of results held in the model's result cache.
+     *
+     * @return the maximum number of cached results.  0 means that the cache is disabled.
+     */
+    public int getCacheMaxEntries() { return cacheMaxEntries; }
+
+    /**
+     * Set an approximate upper bound on the memory used by the model's result cache.
+     * When the bound is exceeded, the least recently used results are evicted.
+     * The default is 0: the size of the cache is limited only by its maximum number of entries.
+     *
+     * @param maxBytes the approximate maximum size of the cache, in bytes, or 0 for no limit.
+     * @return this.
+     */
+    @NonNull
+    public PredictiveModelConfiguration setCacheMaxBytes(long maxBytes) {
+        this.cacheMaxBytes = Preconditions.assertNotNegative(maxBytes, "maxBytes");
+        return this;
+    }
+
+    /**
+     * Get the approximate upper bound on the memory used by the model's result cache.
+     *
+     * @return the maximum size of the cache, in bytes.  0 means no limit.
+     */
+    public long getCacheMaxBytes() { return cacheMaxBytes; }
+
+    /**
+     * Set the time for which a cached result is valid.
+     * The default is 0: cached results do not expire.
+     *
+     * @param ttlMs the lifetime of a cached result, in milliseconds, or 0 for no limit.
+     * @return this.
+     */
+    @NonNull
+    public PredictiveModelConfiguration setCacheTtl(long ttlMs) {
+        this.cacheTtlMs = Preconditions.assertNotNegative(ttlMs, "ttl");
+        return this;
+    }
+
+    /**
+     * Get the time for which a cached result is valid.
+     *
+     * @return the lifetime of a cached result, in milliseconds.  0 means no limit.
+     */
+    public long getCacheTtl() { return cacheTtlMs; }
+
+    /**
+     * Set the maximum time that a query will wait for a single prediction.
+     * If the model does not return within this time, the prediction evaluates as MISSING
+     * and the call is counted as a failure.  Note that the model is not interrupted:
+     * it may continue to run after the query has stopped waiting for it.
+     * The default is 0: the query waits for the model for the default client task timeout.
+     * For an {@link AsyncPredictiveModel}, the timeout also bounds the time spent waiting to start
+     * a prediction, and the time a background index build waits for one: there, 0 means 30 seconds.
+     *
+     * @param timeoutMs the maximum time to wait for a prediction, in milliseconds, or 0 for the default.
+     * @return this.
+     */
+    @NonNull
+    public PredictiveModelConfiguration setTimeout(long timeoutMs) {
+        this.timeoutMs = Preconditions.assertNotNegative(timeoutMs, "timeout");
+        return this;
+    }
+
+    /**
+     * Get the maximum time that a query will wait for a single prediction.
+     *
+     * @return the maximum time to wait for a prediction, in milliseconds.  0 means the default.
+     */
+    public long getTimeout() { return timeoutMs; }
+
+    /**
+     * Set the number of consecutive failed calls (exceptions or timeouts) that open the model's
+     * circuit breaker.  While the breaker is open the model is not called and predictions evaluate as MISSING.
+     * After the cool-down period a single call is allowed through: if it succeeds, the breaker closes.
+     * The default is 0: the circuit breaker is disabled.
+     *
+     * @param threshold the number of consecutive failures that open the breaker, or 0 to disable it.
+     * @return this.
+     */
+    @NonNull
+    public PredictiveModelConfiguration setCircuitBreakerThreshold(int threshold) {
+        this.breakerThreshold = Preconditions.assertNotNegative(threshold, "threshold");
+        return this;
+    }
+
+    /**
+     * Get the number of consecutive failed calls that open the model's circuit breaker.
+     *
+     * @return the breaker threshold.  0 means that the circuit breaker is disabled.
+     */
+    public int getCircuitBreakerThreshold() { return breakerThreshold; }
+
+    /**
+     * Set the time for which an open circuit breaker prevents calls to the model.
+     * The default is {@link #DEFAULT_CIRCUIT_BREAKER_COOL_DOWN_MS}.
+     *
+     * @param coolDownMs the cool-down period, in milliseconds.
+     * @return this.
+     */
+    @NonNull
+    public PredictiveModelConfiguration setCircuitBreakerCoolDown(long coolDownMs) {
+        this.breakerCoolDownMs = Preconditions.assertNotNegative(coolDownMs, "coolDown");
+        return this;
+    }
+
+    /**
+     * Get the time for which an open circuit breaker prevents calls to the model.
+     *
+     * @return the cool-down period, in milliseconds.
+     */
+    public long getCircuitBreakerCoolDown() { return breakerCoolDownMs; }
+
+    /**
+     * Set a listener to be notified when the state of the model's circuit breaker changes.
+     * Notifications are delivered asynchronously.
+     *
+     * @param listener the listener, or null for none.
+     * @return this.
+     */
+    @NonNull
+    public PredictiveModelConfiguration setCircuitBreakerListener(@Nullable PredictionCircuitListener listener) {
+        this.breakerListener = listener;
+        return this;
+    }
+
+    /**
+     * Get the listener notified when the state of the model's circuit breaker changes.
+     *
+     * @return the listener, or null for none.
+     */
+    @Nullable
+    public PredictionCircuitListener getCircuitBreakerListener() { return breakerListener; }
+
+    /**
+     * Set the version of the model.  The version is recorded with each predictive index built,
+     * using {@link Database#createPredictiveIndex(String, PredictiveIndex, PredictiveIndexBuildListener)},
+     * from the model.  When a model with a different version is registered under the same name,
+     * those indexes are rebuilt in the background.  Queries continue to use the existing index
+     * until the new one is ready.
+     *
+     * @param version the model version, or null if the model is not versioned.
+     * @return this.
+     */
+    @NonNull
+    public PredictiveModelConfiguration setVersion(@Nullable String version) {
+        this.version = version;
+        return this;
+    }
+
+    /**
+     * Get the version of the model.
+     *
+     * @return the model version, or null if the model is not versioned.
+     */
+    @Nullable
+    public String getVersion() { return version; }
+
+    /**
+     * Set the maximum number of predictions that an {@link AsyncPredictiveModel} may have in flight at once.
+     * The default is {@link Prediction#DEFAULT_MAX_IN_FLIGHT}.  This option is ignored for other models.
+     * A request for a prediction waits for one of those in flight to complete, but no longer than the timeout
+     * (see {@link #setTimeout(long)}).
+     *
+     * @param maxInFlight the maximum number of predictions in flight: must be positive.
+     * @return this.
+     */
+    @NonNull
+    public PredictiveModelConfiguration setMaxInFlight(int maxInFlight) {
+        this.maxInFlight = Preconditions.assertPositive(maxInFlight, "maxInFlight");
+        return this;
+    }
+
+    /**
+     * Get the maximum number of predictions that an asynchronous model may have in flight at once.
+     *
+     * @return the maximum number of predictions in flight.
+     */
+    public int getMaxInFlight() { return maxInFlight; }
+
+    /**
+     * Enable or disable deduplication of calls to the model.  A query that selects several properties
+     * of a prediction (several calls to {@link PredictionFunction#propertyPath(String)}) evaluates
+     * the prediction once for each.  When deduplication is enabled, a prediction requested on a thread
+     * with the same input as the prediction requested immediately before it, on that thread, reuses its
+     * result, so the model is called only once for each row.  A remembered result is forgotten as soon as
+     * a request with another input arrives, or when it has not been used for a millisecond.
+     * Deduplication identifies an input by its JSON, so every input is encoded: only enable it for models
+     * that are called several times for each row and always return the same result for the same input.
+     * Results written directly by an {@link EncodingPredictiveModel} are not deduplicated.
+     * The default is disabled.
+     *
+     * @param enabled true to enable deduplication.
+     * @return this.
+     */
+    @NonNull
+    public PredictiveModelConfiguration setDeduplicationEnabled(boolean enabled) {
+        this.deduplicationEnabled = enabled;
+        return this;
+    }
+
+    /**
+     * Tell whether calls to the model with the same input as the previous call are deduplicated.
+     *
+     * @return true if deduplication is enabled.
+     */
+    public boolean isDeduplicationEnabled() { return deduplicationEnabled; }
+
+    /**
+     * Set a cache in which the model's results are kept across restarts.  The persistent cache is
+     * consulted when a result is not in the in-memory cache.  Results are keyed by the model's name and
+     * version and by its input, so a versioned model should change its version whenever its results might.
+     * Results written directly by an {@link EncodingPredictiveModel} are not cached.
+     *
+     * @param cache the persistent cache, or null for none.
+     * @return this.
+     * @see Database#openPersistentPredictionCache(long)
+     */
+    @NonNull
+    public PredictiveModelConfiguration setPersistentCache(@Nullable PersistentPredictionCache cache) {
+        this.persistentCache = cache;
+        return this;
+    }
+
+    /**
+     * Get the cache in which the model's results are kept across restarts.
+     *
+     * @return the persistent cache, or null for none.
+     */
+    @Nullable
+    public PersistentPredictionCache getPersistentCache() { return persistentCache; }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "PredictiveModelConfiguration{" + version + ", " + maxBatchSize + ", " + maxInFlight
+            + ", " + deduplicationEnabled
+            + ", cache(" + cacheMaxEntries + ", " + cacheMaxBytes + ", " + cacheTtlMs + ")"
+            + ((persistentCache == null) ? "" : ", " + persistentCache)
+            + ", timeout(" + timeoutMs + ")"
+            + ", breaker(" + breakerThreshold + ", " + breakerCoolDownMs + ")}";
+    }
+}
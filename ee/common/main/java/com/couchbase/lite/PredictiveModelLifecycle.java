@@ -0,0 +1,49 @@
+//
+// Copyright (c) 2022 Couchbase, Inc.  All rights reserved.
+//
+// Licensed under the Couchbase License Agreement (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+// https://info.couchbase.com/rs/302-GJY-034/images/2017-10-30_License_Agreement.pdf
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package com.couchbase.lite;
+
+/**
+ * <b>ENTERPRISE EDITION API</b><br><br>
+ * <p>
+ * An optional interface for predictive models that need to prepare before they are used,
+ * or to release resources when they are no longer needed.  A model of any kind
+ * ({@link PredictiveModel}, {@link BatchPredictiveModel}, {@link AsyncPredictiveModel} or
+ * {@link EncodingPredictiveModel}) may also implement this interface.
+ * <p>
+ * Both methods are called asynchronously, on a background thread.  Lifecycle calls for all models are made
+ * one at a time, in the order in which models are registered and unregistered: a model that is replaced
+ * is closed before its replacement is warmed up.
+ * Warm-up begins when the model is registered:
+ * {@link Prediction#awaitWarmUp(String, long, java.util.concurrent.TimeUnit)} reports when it has completed.
+ * Queries do not wait for warm-up: a query run before it completes will call the model anyway.
+ * Close is called after the model is unregistered or replaced, and after warm-up has completed.
+ * Predictions that were already in progress when the model was unregistered may still be running
+ * when close is called.
+ */
+public interface PredictiveModelLifecycle {
+    /**
+     * Prepare the model for use: for instance, load its weights and run it once.
+     *
+     * @throws Exception if the model cannot be prepared.  The failure is logged; the model remains registered.
+     */
+    void warmUp() throws Exception;
+
+    /**
+     * Release the model's resources.
+     *
+     * @throws Exception if the resources cannot be released.  The failure is logged.
+     */
+    void close() throws Exception;
+}
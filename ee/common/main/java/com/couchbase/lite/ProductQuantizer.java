@@ -0,0 +1,182 @@
+//
+// Copyright (c) 2022 Couchbase, Inc.  All rights reserved.
+//
+// Licensed under the Couchbase License Agreement (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+// https://info.couchbase.com/rs/302-GJY-034/images/2017-10-30_License_Agreement.pdf
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package com.couchbase.lite;
+
+import androidx.annotation.NonNull;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+
+/**
+ * Product quantization: a vector is split into m subvectors, and each subvector is replaced
+ * by the index of the nearest of (at most) 256 centroids, found by k-means clustering of a training sample.
+ * See Jegou, Douze and Schmid, "Product quantization for nearest neighbor search".
+ * <p>
+ * The distance from a target to an encoded vector is computed asymmetrically: the distances from each
+ * of the target's subvectors to each centroid are tabulated once, so that scoring a code costs m lookups.
+ */
+final class ProductQuantizer extends Quantizer {
+    private static final int MAX_CENTROIDS = 256;
+    private static final int ITERATIONS = 12;
+
+    @NonNull
+    static ProductQuantizer train(@NonNull List<float[]> sample, int dimensions, int subquantizers) {
+        if ((subquantizers <= 0) || ((dimensions % subquantizers) != 0)) {
+            throw new IllegalArgumentException(
+                "The number of subquantizers (" + subquantizers + ") must divide the dimensions (" + dimensions + ")");
+        }
+        if (sample.isEmpty()) { throw new IllegalArgumentException("Cannot train a quantizer without a sample"); }
+
+        final int subDims = dimensions / subquantizers;
+        final int nCentroids = Math.min(MAX_CENTROIDS, sample.size());
+        final Random random = new Random(subquantizers);
+
+        final float[][] centroids = new float[subquantizers][];
+        for (int m = 0; m < subquantizers; m++) {
+            centroids[m] = kMeans(sample, m * subDims, subDims, nCentroids, random);
+        }
+
+        return new ProductQuantizer(subDims, nCentroids, centroids);
+    }
+
+    // Lloyd's algorithm over the subvectors [from, from + dims) of the sample.
+    // Returns the centroids, packed: centroid c occupies [c * dims, (c + 1) * dims).
+    @NonNull
+    private static float[] kMeans(@NonNull List<float[]> sample, int from, int dims, int k, @NonNull Random random) {
+        final int n = sample.size();
+        final float[] centroids = new float[k * dims];
+
+        // Initialize with distinct sample points.
+        final int[] order = new int[n];
+        for (int i = 0; i < n; i++) { order[i] = i; }
+        for (int c = 0; c < k; c++) {
+            final int j = c + random.nextInt(n - c);
+            final int tmp = order[c];
+            order[c] = order[j];
+            order[j] = tmp;
+            System.arraycopy(sample.get(order[c]), from, centroids, c * dims, dims);
+        }
+
+        final int[] assignment = new int[n];
+        final float[] sums = new float[k * dims];
+        final int[] counts = new int[k];
+        for (int iter = 0; iter < ITERATIONS; iter++) {
+            boolean changed = false;
+            for (int i = 0; i < n; i++) {
+                final int c = nearest(centroids, k, dims, sample.get(i), from);
+                if ((iter == 0) || (c != assignment[i])) { changed = true; }
+                assignment[i] = c;
+            }
+            if (!changed) { break; }
+
+            Arrays.fill(sums, 0.0f);
+            Arrays.fill(counts, 0);
+            for (int i = 0; i < n; i++) {
+                final int c = assignment[i];
+                final float[] v = sample.get(i);
+                counts[c]++;
+                for (int d = 0; d < dims; d++) { sums[(c * dims) + d] += v[from + d]; }
+            }
+
+            for (int c = 0; c < k; c++) {
+                // An empty cluster is moved to a random sample point.
+                if (counts[c] == 0) {
+                    System.arraycopy(sample.get(random.nextInt(n)), from, centroids, c * dims, dims);
+                    continue;
+                }
+                for (int d = 0; d < dims; d++) { centroids[(c * dims) + d] = sums[(c * dims) + d] / counts[c]; }
+            }
+        }
+
+        return centroids;
+    }
+
+    private static int nearest(@NonNull float[] centroids, int k, int dims, @NonNull float[] v, int from) {
+        int best = 0;
+        float bestDistance = Float.POSITIVE_INFINITY;
+        for (int c = 0; c < k; c++) {
+            final int base = c * dims;
+            float distance = 0.0f;
+            for (int d = 0; d < dims; d++) {
+                final float diff = v[from + d] - centroids[base + d];
+                distance += diff * diff;
+            }
+            if (distance < bestDistance) {
+                bestDistance = distance;
+                best = c;
+            }
+        }
+        return best;
+    }
+
+
+    private final int subDims;
+    private final int nCentroids;
+    // centroids[m] holds the centroids for subvector m, packed.
+    @NonNull
+    private final float[][] centroids;
+
+    private ProductQuantizer(int subDims, int nCentroids, @NonNull float[][] centroids) {
+        this.subDims = subDims;
+        this.nCentroids = nCentroids;
+        this.centroids = centroids;
+    }
+
+    @NonNull
+    @Override
+    byte[] encode(@NonNull float[] vector) {
+        final byte[] code = new byte[centroids.length];
+        for (int m = 0; m < centroids.length; m++) {
+            code[m] = (byte) nearest(centroids[m], nCentroids, subDims, vector, m * subDims);
+        }
+        return code;
+    }
+
+    @NonNull
+    @Override
+    float[] decode(@NonNull byte[] code) {
+        final float[] vector = new float[centroids.length * subDims];
+        for (int m = 0; m < centroids.length; m++) {
+            System.arraycopy(centroids[m], (code[m] & 0xff) * subDims, vector, m * subDims, subDims);
+        }
+        return vector;
+    }
+
+    @NonNull
+    @Override
+    Scorer scorer(@NonNull float[] target, @NonNull DistanceMetric metric) {
+        final int nSub = centroids.length;
+        final float[] table = new float[nSub * MAX_CENTROIDS];
+        for (int m = 0; m < nSub; m++) {
+            final float[] subCentroids = centroids[m];
+            for (int c = 0; c < nCentroids; c++) {
+                float sum = 0.0f;
+                for (int d = 0; d < subDims; d++) {
+                    sum += term(metric, target[(m * subDims) + d], subCentroids[(c * subDims) + d]);
+                }
+                table[(m * MAX_CENTROIDS) + c] = sum;
+            }
+        }
+
+        return code -> {
+            float sum = 0.0f;
+            for (int m = 0; m < nSub; m++) { sum += table[(m * MAX_CENTROIDS) + (code[m] & 0xff)]; }
+            return finish(metric, sum);
+        };
+    }
+}
@@ -0,0 +1,73 @@
+//
+// Copyright (c) 2022 Couchbase, Inc.  All rights reserved.
+//
+// Licensed under the Couchbase License Agreement (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+// https://info.couchbase.com/rs/302-GJY-034/images/2017-10-30_License_Agreement.pdf
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package com.couchbase.lite;
+
+import androidx.annotation.NonNull;
+
+
+/**
+ * A lossy compression of float vectors to byte codes.
+ * Distances are computed directly from the codes.
+ * <p>
+ * Distances are those used internally by an HNSW graph: squared euclidean for both euclidean metrics,
+ * 1 - dot product for cosine (the vectors are normalized before they are encoded), the negated dot product
+ * and the manhattan distance.
+ */
+abstract class Quantizer {
+    // The distance from a single target vector to encoded vectors.
+    interface Scorer {
+        float distance(@NonNull byte[] code);
+    }
+
+    @NonNull
+    abstract byte[] encode(@NonNull float[] vector);
+
+    // An approximation of the encoded vector.
+    @NonNull
+    abstract float[] decode(@NonNull byte[] code);
+
+    @NonNull
+    abstract Scorer scorer(@NonNull float[] target, @NonNull DistanceMetric metric);
+
+    // Convert accumulated distance terms to a distance.
+    static float finish(@NonNull DistanceMetric metric, float sum) {
+        switch (metric) {
+            case COSINE:
+                return 1.0f - sum;
+            case DOT_PRODUCT:
+                return -sum;
+            default:
+                return sum;
+        }
+    }
+
+    // The term for a single element (or subvector) of a distance that is a sum of terms.
+    static float term(@NonNull DistanceMetric metric, float a, float b) {
+        switch (metric) {
+            case EUCLIDEAN:
+            case SQUARED_EUCLIDEAN:
+                final float d = a - b;
+                return d * d;
+            case COSINE:
+            case DOT_PRODUCT:
+                return a * b;
+            case MANHATTAN:
+                return Math.abs(a - b);
+            default:
+                throw new IllegalArgumentException("Unrecognized metric: " + metric);
+        }
+    }
+}
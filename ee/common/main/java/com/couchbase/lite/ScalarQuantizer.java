@@ -0,0 +1,99 @@
+//
+// Copyright (c) 2022 Couchbase, Inc.  All rights reserved.
+//
+// Licensed under the Couchbase License Agreement (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+// https://info.couchbase.com/rs/302-GJY-034/images/2017-10-30_License_Agreement.pdf
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package com.couchbase.lite;
+
+import androidx.annotation.NonNull;
+
+import java.util.List;
+
+
+/**
+ * Scalar quantization: each element is mapped, linearly, onto 256 levels spanning
+ * the range of values for that element in a training sample.  Values outside the range are clamped.
+ */
+final class ScalarQuantizer extends Quantizer {
+    private static final int LEVELS = 255;
+
+    @NonNull
+    static ScalarQuantizer train(@NonNull List<float[]> sample, int dimensions) {
+        final float[] min = new float[dimensions];
+        final float[] max = new float[dimensions];
+        for (int i = 0; i < dimensions; i++) {
+            min[i] = Float.POSITIVE_INFINITY;
+            max[i] = Float.NEGATIVE_INFINITY;
+        }
+
+        for (float[] v: sample) {
+            for (int i = 0; i < dimensions; i++) {
+                min[i] = Math.min(min[i], v[i]);
+                max[i] = Math.max(max[i], v[i]);
+            }
+        }
+
+        final float[] scale = new float[dimensions];
+        for (int i = 0; i < dimensions; i++) {
+            if (min[i] > max[i]) {
+                min[i] = 0.0f;
+                max[i] = 0.0f;
+            }
+            final float range = max[i] - min[i];
+            scale[i] = (range > 0.0f) ? range / LEVELS : 1.0f;
+        }
+
+        return new ScalarQuantizer(min, scale);
+    }
+
+
+    @NonNull
+    private final float[] offset;
+    @NonNull
+    private final float[] scale;
+
+    private ScalarQuantizer(@NonNull float[] offset, @NonNull float[] scale) {
+        this.offset = offset;
+        this.scale = scale;
+    }
+
+    @NonNull
+    @Override
+    byte[] encode(@NonNull float[] vector) {
+        final byte[] code = new byte[vector.length];
+        for (int i = 0; i < vector.length; i++) {
+            final int q = Math.round((vector[i] - offset[i]) / scale[i]);
+            code[i] = (byte) Math.max(0, Math.min(LEVELS, q));
+        }
+        return code;
+    }
+
+    @NonNull
+    @Override
+    float[] decode(@NonNull byte[] code) {
+        final float[] vector = new float[code.length];
+        for (int i = 0; i < code.length; i++) { vector[i] = offset[i] + ((code[i] & 0xff) * scale[i]); }
+        return vector;
+    }
+
+    @NonNull
+    @Override
+    Scorer scorer(@NonNull float[] target, @NonNull DistanceMetric metric) {
+        final float[] t = target.clone();
+        return code -> {
+            float sum = 0.0f;
+            for (int i = 0; i < t.length; i++) { sum += term(metric, t[i], offset[i] + ((code[i] & 0xff) * scale[i])); }
+            return finish(metric, sum);
+        };
+    }
+}
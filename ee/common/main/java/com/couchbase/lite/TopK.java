@@ -0,0 +1,126 @@
+//
+// Copyright (c) 2022 Couchbase, Inc.  All rights reserved.
+//
+// Licensed under the Couchbase License Agreement (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+// https://info.couchbase.com/rs/302-GJY-034/images/2017-10-30_License_Agreement.pdf
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package com.couchbase.lite;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+
+/**
+ * A bounded max-heap that keeps the k documents with the smallest distances offered to it.
+ * Offering a document that is further than all k kept documents costs a single comparison.
+ * The heap grows as documents are offered: k may be much larger than the number of documents.
+ * <p>
+ * Not thread safe.
+ */
+final class TopK {
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final int k;
+    @NonNull
+    private float[] distances;
+    @NonNull
+    private String[] docIds;
+    private int size;
+
+    TopK(int k) {
+        this.k = k;
+        final int capacity = Math.min(k, INITIAL_CAPACITY);
+        this.distances = new float[capacity];
+        this.docIds = new String[capacity];
+    }
+
+    int size() { return size; }
+
+    // The largest distance that would still be kept.
+    float bound() { return (size < k) ? Float.POSITIVE_INFINITY : distances[0]; }
+
+    void offer(@NonNull String docId, float distance) {
+        if (size < k) {
+            if (size >= distances.length) { grow(); }
+            distances[size] = distance;
+            docIds[size] = docId;
+            siftUp(size++);
+            return;
+        }
+
+        if (!(distance < distances[0])) { return; }
+        distances[0] = distance;
+        docIds[0] = docId;
+        siftDown(0);
+    }
+
+    void addAll(@NonNull TopK other) {
+        for (int i = 0; i < other.size; i++) { offer(other.docIds[i], other.distances[i]); }
+    }
+
+    // The kept documents, nearest first.  This empties the heap.
+    @NonNull
+    List<VectorMatch> drain() {
+        final VectorMatch[] matches = new VectorMatch[size];
+        while (size > 0) {
+            final int last = --size;
+            matches[last] = new VectorMatch(docIds[0], distances[0]);
+            distances[0] = distances[last];
+            docIds[0] = docIds[last];
+            docIds[last] = null;
+            siftDown(0);
+        }
+
+        final List<VectorMatch> list = new ArrayList<>(matches.length);
+        for (VectorMatch match: matches) { list.add(match); }
+        return list;
+    }
+
+    private void grow() {
+        final int capacity = (int) Math.min(k, 2L * distances.length);
+        distances = Arrays.copyOf(distances, capacity);
+        docIds = Arrays.copyOf(docIds, capacity);
+    }
+
+    private void siftUp(int i) {
+        while (i > 0) {
+            final int parent = (i - 1) / 2;
+            if (!(distances[i] > distances[parent])) { return; }
+            swap(i, parent);
+            i = parent;
+        }
+    }
+
+    private void siftDown(int i) {
+        while (true) {
+            final int left = (2 * i) + 1;
+            if (left >= size) { return; }
+            final int right = left + 1;
+            final int largest = ((right < size) && (distances[right] > distances[left])) ? right : left;
+            if (!(distances[largest] > distances[i])) { return; }
+            swap(i, largest);
+            i = largest;
+        }
+    }
+
+    private void swap(int i, int j) {
+        final float d = distances[i];
+        distances[i] = distances[j];
+        distances[j] = d;
+        final String docId = docIds[i];
+        docIds[i] = docIds[j];
+        docIds[j] = docId;
+    }
+}
@@ -0,0 +1,61 @@
+//
+// Copyright (c) 2022 Couchbase, Inc.  All rights reserved.
+//
+// Licensed under the Couchbase License Agreement (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+// https://info.couchbase.com/rs/302-GJY-034/images/2017-10-30_License_Agreement.pdf
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package com.couchbase.lite;
+
+import androidx.annotation.NonNull;
+
+
+/**
+ * <b>ENTERPRISE EDITION API</b><br><br>
+ * <p>
+ * The formats in which a vector can be packed.  See {@link PackedVector}.
+ */
+public enum VectorFormat {
+    /**
+     * 4-byte little-endian IEEE 754 single precision floats.
+     */
+    FLOAT32("application/x-cbl-vector; format=f32", 4),
+
+    /**
+     * 2-byte little-endian IEEE 754 half precision floats.
+     * Values are rounded to about 3 significant decimal digits.  Values larger than 65504 overflow to infinity.
+     */
+    FLOAT16("application/x-cbl-vector; format=f16", 2);
+
+    @NonNull
+    private final String contentType;
+    private final int bytesPerElement;
+
+    VectorFormat(@NonNull String contentType, int bytesPerElement) {
+        this.contentType = contentType;
+        this.bytesPerElement = bytesPerElement;
+    }
+
+    /**
+     * Get the media type of a packed vector in this format.
+     *
+     * @return the content type.
+     */
+    @NonNull
+    public String getContentType() { return contentType; }
+
+    /**
+     * Get the number of bytes used to store each element of a vector in this format.
+     *
+     * @return the size of an element, in bytes.
+     */
+    public int getBytesPerElement() { return bytesPerElement; }
+}
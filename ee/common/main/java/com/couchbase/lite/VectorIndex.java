@@ -0,0 +1,375 @@
+//
+// Copyright (c) 2022 Couchbase, Inc.  All rights reserved.
+//
+// Licensed under the Couchbase License Agreement (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+// https://info.couchbase.com/rs/302-GJY-034/images/2017-10-30_License_Agreement.pdf
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package com.couchbase.lite;
+
+import androidx.annotation.GuardedBy;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import com.couchbase.lite.internal.CouchbaseLiteInternal;
+import com.couchbase.lite.internal.support.Log;
+import com.couchbase.lite.internal.utils.Preconditions;
+
+
+/**
+ * <b>ENTERPRISE EDITION API</b><br><br>
+ * <p>
+ * An approximate nearest-neighbour index over vectors computed from the documents in a database.
+ * Create one with {@link Database#createVectorIndex(String, VectorIndexConfiguration)}.
+ * <p>
+ * The indexed vectors may be arrays of numbers or {@link PackedVector}s.
+ * The index is an HNSW graph held in memory.  It is built when it is created and is updated,
+ * asynchronously, as documents change.  It is not persistent: it must be created again
+ * each time the database is opened.
+ * <p>
+ * To reduce its memory footprint, the index can hold quantized vectors: see
+ * {@link VectorIndexConfiguration#setQuantization(VectorQuantization)}.  The documents' vectors are unchanged.
+ * <p>
+ * The query engine cannot use the index directly.  Instead, use {@link #nearest(float[], int)}
+ * to create an expression that selects the nearest documents, and combine it with a query's WHERE
+ * clause.  Ordering those few documents by a distance function is cheap.
+ */
+public final class VectorIndex {
+    private static final LogDomain DOMAIN = LogDomain.QUERY;
+
+    // The maximum number of document ids in a single update query.
+    private static final int MAX_IDS_PER_QUERY = 256;
+
+    //---------------------------------------------
+    // Member variables
+    //---------------------------------------------
+
+    @NonNull
+    private final Database db;
+    @NonNull
+    private final String name;
+    @NonNull
+    private final VectorIndexConfiguration config;
+    @NonNull
+    private final HnswGraph graph;
+
+    @NonNull
+    private final Object lock = new Object();
+    @GuardedBy("lock")
+    @Nullable
+    private Set<String> deferredChanges = new HashSet<>();
+    @GuardedBy("lock")
+    @Nullable
+    private ListenerToken changeToken;
+
+    //---------------------------------------------
+    // Constructors
+    //---------------------------------------------
+
+    VectorIndex(@NonNull Database db, @NonNull String name, @NonNull VectorIndexConfiguration config) {
+        this.db = db;
+        this.name = name;
+        this.config = new VectorIndexConfiguration(config);
+        this.graph
+            = new HnswGraph(config.getDimensions(), config.getMetric(), config.getM(), config.getEfConstruction());
+    }
+
+    //---------------------------------------------
+    // Public API
+    //---------------------------------------------
+
+    /**
+     * Get the name of the index.
+     *
+     * @return the index name.
+     */
+    @NonNull
+    public String getName() { return name; }
+
+    /**
+     * Get a copy of the index configuration.
+     *
+     * @return the index configuration.
+     */
+    @NonNull
+    public VectorIndexConfiguration getConfiguration() { return new VectorIndexConfiguration(config); }
+
+    /**
+     * Get the number of documents in the index.
+     *
+     * @return the number of indexed documents.
+     */
+    public int size() { return graph.size(); }
+
+    /**
+     * Find the (approximately) k documents whose vectors are nearest the target vector.
+     *
+     * @param target the target vector.
+     * @param k      the maximum number of documents to find.
+     * @return the matching documents, nearest first.
+     */
+    @NonNull
+    public List<VectorMatch> search(@NonNull float[] target, int k) { return search(target, k, config.getEfSearch()); }
+
+    /**
+     * Find the (approximately) k documents whose vectors are nearest the target vector.
+     *
+     * @param target   the target vector.
+     * @param k        the maximum number of documents to find.
+     * @param efSearch the size of the candidate list: larger values improve recall at the cost of speed.
+     * @return the matching documents, nearest first.
+     */
+    @NonNull
+    public List<VectorMatch> search(@NonNull float[] target, int k, int efSearch) {
+        Preconditions.assertNotNull(target, "target");
+        Preconditions.assertPositive(k, "k");
+        Preconditions.assertPositive(efSearch, "efSearch");
+
+        // There can be no more matches than there are indexed documents.
+        final int size = graph.size();
+        if (size <= 0) { return new ArrayList<>(); }
+        final int limit = Math.min(k, size);
+
+        final int rerankFactor = config.getRerankFactor();
+        if ((rerankFactor <= 1) || !graph.isQuantized()) { return graph.search(target, limit, efSearch); }
+
+        // Find more candidates than necessary, using the approximate distances,
+        // then rank them by their exact distances.
+        final int candidates = (int) Math.min(size, ((long) limit) * rerankFactor);
+        final List<VectorMatch> approximate = graph.search(target, candidates, Math.max(efSearch, candidates));
+        try { return rerank(approximate, target, limit); }
+        catch (CouchbaseLiteException e) {
+            Log.w(DOMAIN, "Failed re-ranking search of vector index %s", e, name);
+            return new ArrayList<>(approximate.subList(0, Math.min(limit, approximate.size())));
+        }
+    }
+
+    /**
+     * Create an expression that is true for the (approximately) k documents whose vectors are
+     * nearest the target vector.  For example:
+     * <pre>
+     * QueryBuilder.select(SelectResult.expression(Meta.id))
+     *     .from(DataSource.database(db))
+     *     .where(index.nearest(target, 10))
+     *     .orderBy(Ordering.expression(Function.euclideanDistance(vector, targetExpr)))
+     * </pre>
+     * The search is done when this method is called: the expression does not change
+     * if the database changes.
+     *
+     * @param target the target vector.
+     * @param k      the maximum number of documents to select.
+     * @return an expression that selects the matching documents.
+     */
+    @NonNull
+    public Expression nearest(@NonNull float[] target, int k) {
+        return VectorSearch.selecting(search(target, k));
+    }
+
+    /**
+     * Find exactly the k documents whose vectors are nearest the target vector.
+     * This compares the target with every vector in the index, splitting the work across all cores:
+     * use it when approximate results cannot be tolerated.
+     * If the index is quantized, the vectors are read from the database.
+     *
+     * @param target the target vector.
+     * @param k      the maximum number of documents to find.
+     * @return the matching documents, nearest first.
+     * @throws CouchbaseLiteException on failure to read the vectors of a quantized index from the database.
+     */
+    @NonNull
+    public List<VectorMatch> searchExact(@NonNull float[] target, int k) throws CouchbaseLiteException {
+        Preconditions.assertNotNull(target, "target");
+        Preconditions.assertPositive(k, "k");
+        if (!graph.isQuantized()) { return graph.searchExact(target, k); }
+
+        if (target.length != graph.getDimensions()) {
+            throw new IllegalArgumentException(
+                "Target vector has " + target.length + " dimensions: expected " + graph.getDimensions());
+        }
+        return VectorSearch.nearest(db, config.getVector(), target, k, config.getMetric());
+    }
+
+    @NonNull
+    @Override
+    public String toString() { return "VectorIndex{" + name + ", " + config + "}"; }
+
+    //---------------------------------------------
+    // Package visible methods
+    //---------------------------------------------
+
+    // Index all of the documents currently in the database, and start following changes.
+    // Changes that arrive while the index is being built are applied when the build completes.
+    void build() throws CouchbaseLiteException {
+        final ListenerToken token = db.addChangeListener(
+            CouchbaseLiteInternal.getExecutionService().getSerialExecutor(),
+            change -> onChange(change.getDocumentIDs()));
+        synchronized (lock) { changeToken = token; }
+
+        final long start = System.nanoTime();
+        if (config.getQuantization() != VectorQuantization.NONE) { train(); }
+
+        final int n = index(QueryBuilder
+            .select(SelectResult.expression(Meta.id), SelectResult.expression(config.getVector()))
+            .from(DataSource.database(db)), null);
+        Log.i(DOMAIN, "Built vector index %s (%d docs) in %dms", name, n, (System.nanoTime() - start) / 1000000L);
+
+        final Set<String> deferred;
+        synchronized (lock) {
+            deferred = deferredChanges;
+            deferredChanges = null;
+        }
+        if ((deferred != null) && !deferred.isEmpty()) { update(deferred); }
+    }
+
+    void close() {
+        final ListenerToken token;
+        synchronized (lock) {
+            token = changeToken;
+            changeToken = null;
+        }
+        if (token != null) { db.removeChangeListener(token); }
+    }
+
+    boolean isClosed() {
+        synchronized (lock) { return changeToken == null; }
+    }
+
+    //---------------------------------------------
+    // Private methods
+    //---------------------------------------------
+
+    private void onChange(@NonNull List<String> docIds) {
+        synchronized (lock) {
+            if (changeToken == null) { return; }
+            if (deferredChanges != null) {
+                deferredChanges.addAll(docIds);
+                return;
+            }
+        }
+
+        try { update(docIds); }
+        catch (CouchbaseLiteException e) { Log.w(DOMAIN, "Failed updating vector index %s", e, name); }
+    }
+
+    // Train the quantizer from a random sample of the vectors in the database.
+    // The sample is chosen with reservoir sampling, so that the vectors are read only once.
+    private void train() throws CouchbaseLiteException {
+        final int sampleSize = config.getTrainingSampleSize();
+        final List<float[]> sample = new ArrayList<>(Math.min(sampleSize, MAX_IDS_PER_QUERY));
+        final Random random = new Random();
+        long seen = 0;
+        try (ResultSet results = QueryBuilder
+            .select(SelectResult.expression(config.getVector()))
+            .from(DataSource.database(db))
+            .execute()) {
+            for (Result result: results) {
+                final float[] vector = PackedVector.toVector(result.getValue(0));
+                if ((vector == null) || (vector.length != graph.getDimensions())) { continue; }
+
+                seen++;
+                if (sample.size() < sampleSize) {
+                    sample.add(vector);
+                    continue;
+                }
+                final long i = (long) (random.nextDouble() * seen);
+                if (i < sampleSize) { sample.set((int) i, vector); }
+            }
+        }
+
+        if (sample.isEmpty()) {
+            Log.w(DOMAIN, "No vectors with which to train a quantizer: vector index %s will not be quantized", name);
+            return;
+        }
+
+        final long start = System.nanoTime();
+        graph.train(config.getQuantization(), config.getSubquantizers(), sample);
+        Log.i(
+            DOMAIN,
+            "Trained %s quantizer for vector index %s (%d samples) in %dms",
+            config.getQuantization(),
+            name,
+            sample.size(),
+            (System.nanoTime() - start) / 1000000L);
+    }
+
+    // Rank candidates by the exact distances between their stored vectors and the target.
+    @NonNull
+    private List<VectorMatch> rerank(@NonNull List<VectorMatch> candidates, @NonNull float[] target, int k)
+        throws CouchbaseLiteException {
+        final int n = candidates.size();
+        final String[] docIds = new String[n];
+        final float[][] vectors = new float[n][];
+        int found = 0;
+        for (int i = 0; i < n; i += MAX_IDS_PER_QUERY) {
+            final List<VectorMatch> chunk = candidates.subList(i, Math.min(n, i + MAX_IDS_PER_QUERY));
+            try (ResultSet results = QueryBuilder
+                .select(SelectResult.expression(Meta.id), SelectResult.expression(config.getVector()))
+                .from(DataSource.database(db))
+                .where(VectorSearch.selecting(chunk))
+                .execute()) {
+                for (Result result: results) {
+                    final String docId = result.getString(0);
+                    final float[] vector = PackedVector.toVector(result.getValue(1));
+                    if ((docId == null) || (vector == null) || (vector.length != target.length)) { continue; }
+                    docIds[found] = docId;
+                    vectors[found++] = vector;
+                }
+            }
+        }
+        return VectorSearch.scan(docIds, vectors, found, target, k, config.getMetric()).drain();
+    }
+
+    // Re-index the given documents.  Documents that have been deleted or
+    // that no longer have a valid vector are removed from the index.
+    private void update(@NonNull Collection<String> docIds) throws CouchbaseLiteException {
+        final List<String> ids = new ArrayList<>(docIds);
+        for (int i = 0; i < ids.size(); i += MAX_IDS_PER_QUERY) {
+            final List<String> chunk = ids.subList(i, Math.min(ids.size(), i + MAX_IDS_PER_QUERY));
+
+            final Expression[] idExprs = new Expression[chunk.size()];
+            for (int j = 0; j < idExprs.length; j++) { idExprs[j] = Expression.string(chunk.get(j)); }
+
+            final Set<String> missing = new HashSet<>(chunk);
+            index(
+                QueryBuilder
+                    .select(SelectResult.expression(Meta.id), SelectResult.expression(config.getVector()))
+                    .from(DataSource.database(db))
+                    .where(Meta.id.in(idExprs)),
+                missing);
+
+            for (String docId: missing) { graph.remove(docId); }
+        }
+    }
+
+    // Index the documents returned by the query, removing any that are indexed from the missing set.
+    private int index(@NonNull Query query, @Nullable Set<String> missing) throws CouchbaseLiteException {
+        int n = 0;
+        try (ResultSet results = query.execute()) {
+            for (Result result: results) {
+                final String docId = result.getString(0);
+                final float[] vector = PackedVector.toVector(result.getValue(1));
+                if ((docId == null) || (vector == null) || (vector.length != graph.getDimensions())) { continue; }
+
+                graph.insert(docId, vector);
+                if (missing != null) { missing.remove(docId); }
+                n++;
+            }
+        }
+        return n;
+    }
+}
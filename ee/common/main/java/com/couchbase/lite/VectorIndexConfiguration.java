@@ -0,0 +1,309 @@
+//
+// Copyright (c) 2022 Couchbase, Inc.  All rights reserved.
+//
+// Licensed under the Couchbase License Agreement (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+// https://info.couchbase.com/rs/302-GJY-034/images/2017-10-30_License_Agreement.pdf
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package com.couchbase.lite;
+
+import androidx.annotation.NonNull;
+
+import com.couchbase.lite.internal.utils.Preconditions;
+
+
+/**
+ * <b>ENTERPRISE EDITION API</b><br><br>
+ * <p>
+ * The specification of a vector index.  Create one with {@link IndexBuilder#vectorIndex(Expression, int)}
+ * and build the index with {@link Database#createVectorIndex(String, VectorIndexConfiguration)}.
+ * <p>
+ * The vector expression may be any expression that evaluates to an array of numbers or to
+ * a {@link PackedVector}: a document property or a property of a prediction result, for instance.
+ */
+public final class VectorIndexConfiguration {
+    /**
+     * The default maximum number of links from a node in the index graph.
+     */
+    public static final int DEFAULT_M = 16;
+
+    /**
+     * The default size of the candidate list used when building the index.
+     */
+    public static final int DEFAULT_EF_CONSTRUCTION = 200;
+
+    /**
+     * The default size of the candidate list used when searching the index.
+     */
+    public static final int DEFAULT_EF_SEARCH = 64;
+
+    /**
+     * The default maximum number of vectors used to train a quantizer.
+     */
+    public static final int DEFAULT_TRAINING_SAMPLE_SIZE = 10000;
+
+    //---------------------------------------------
+    // member variables
+    //---------------------------------------------
+    @NonNull
+    private final Expression vector;
+    private final int dimensions;
+
+    @NonNull
+    private DistanceMetric metric = DistanceMetric.EUCLIDEAN;
+    private int m = DEFAULT_M;
+    private int efConstruction = DEFAULT_EF_CONSTRUCTION;
+    private int efSearch = DEFAULT_EF_SEARCH;
+
+    @NonNull
+    private VectorQuantization quantization = VectorQuantization.NONE;
+    private int subquantizers;
+    private int trainingSampleSize = DEFAULT_TRAINING_SAMPLE_SIZE;
+    private int rerankFactor;
+
+    //---------------------------------------------
+    // Constructors
+    //---------------------------------------------
+
+    VectorIndexConfiguration(@NonNull Expression vector, int dimensions) {
+        this.vector = Preconditions.assertNotNull(vector, "vector");
+        this.dimensions = Preconditions.assertPositive(dimensions, "dimensions");
+    }
+
+    /**
+     * Copy constructor
+     *
+     * @param config the configuration to duplicate.
+     */
+    public VectorIndexConfiguration(@NonNull VectorIndexConfiguration config) {
+        Preconditions.assertNotNull(config, "config");
+        this.vector = config.vector;
+        this.dimensions = config.dimensions;
+        this.metric = config.metric;
+        this.m = config.m;
+        this.efConstruction = config.efConstruction;
+        this.efSearch = config.efSearch;
+        this.quantization = config.quantization;
+        this.subquantizers = config.subquantizers;
+        this.trainingSampleSize = config.trainingSampleSize;
+        this.rerankFactor = config.rerankFactor;
+    }
+
+    //---------------------------------------------
+    // API - public methods
+    //---------------------------------------------
+
+    /**
+     * Get the expression that evaluates to the indexed vectors.
+     *
+     * @return the vector expression.
+     */
+    @NonNull
+    public Expression getVector() { return vector; }
+
+    /**
+     * Get the number of dimensions of the indexed vectors.
+     * Documents whose vectors have a different number of dimensions are not indexed.
+     *
+     * @return the number of dimensions.
+     */
+    public int getDimensions() { return dimensions; }
+
+    /**
+     * Set the metric used to measure the distance between vectors.
+     * The default is {@link DistanceMetric#EUCLIDEAN}.
+     *
+     * @param metric the distance metric.
+     * @return this.
+     */
+    @NonNull
+    public VectorIndexConfiguration setMetric(@NonNull DistanceMetric metric) {
+        this.metric = Preconditions.assertNotNull(metric, "metric");
+        return this;
+    }
+
+    /**
+     * Get the metric used to measure the distance between vectors.
+     *
+     * @return the distance metric.
+     */
+    @NonNull
+    public DistanceMetric getMetric() { return metric; }
+
+    /**
+     * Set the maximum number of links from a node in the index graph (twice this, at the bottom level).
+     * Larger values improve recall, at the cost of memory and build time.
+     * The default is {@link #DEFAULT_M}.
+     *
+     * @param m the maximum number of links: must be positive.
+     * @return this.
+     */
+    @NonNull
+    public VectorIndexConfiguration setM(int m) {
+        this.m = Preconditions.assertPositive(m, "m");
+        return this;
+    }
+
+    /**
+     * Get the maximum number of links from a node in the index graph.
+     *
+     * @return the maximum number of links.
+     */
+    public int getM() { return m; }
+
+    /**
+     * Set the size of the candidate list used when building the index.
+     * Larger values produce a better graph, at the cost of build time.
+     * The default is {@link #DEFAULT_EF_CONSTRUCTION}.
+     *
+     * @param efConstruction the size of the candidate list: must be positive.
+     * @return this.
+     */
+    @NonNull
+    public VectorIndexConfiguration setEfConstruction(int efConstruction) {
+        this.efConstruction = Preconditions.assertPositive(efConstruction, "efConstruction");
+        return this;
+    }
+
+    /**
+     * Get the size of the candidate list used when building the index.
+     *
+     * @return the size of the candidate list.
+     */
+    public int getEfConstruction() { return efConstruction; }
+
+    /**
+     * Set the default size of the candidate list used when searching the index.
+     * Larger values improve recall, at the cost of search time.
+     * A search always considers at least as many candidates as the number of results requested.
+     * The default is {@link #DEFAULT_EF_SEARCH}.
+     *
+     * @param efSearch the size of the candidate list: must be positive.
+     * @return this.
+     */
+    @NonNull
+    public VectorIndexConfiguration setEfSearch(int efSearch) {
+        this.efSearch = Preconditions.assertPositive(efSearch, "efSearch");
+        return this;
+    }
+
+    /**
+     * Get the default size of the candidate list used when searching the index.
+     *
+     * @return the size of the candidate list.
+     */
+    public int getEfSearch() { return efSearch; }
+
+    /**
+     * Set the way in which the index compresses the vectors it holds.
+     * Compressed vectors take less memory, at the cost of approximate distances: see {@link #setRerankFactor(int)}.
+     * The default is {@link VectorQuantization#NONE}.
+     *
+     * @param quantization the quantization.
+     * @return this.
+     */
+    @NonNull
+    public VectorIndexConfiguration setQuantization(@NonNull VectorQuantization quantization) {
+        this.quantization = Preconditions.assertNotNull(quantization, "quantization");
+        return this;
+    }
+
+    /**
+     * Get the way in which the index compresses the vectors it holds.
+     *
+     * @return the quantization.
+     */
+    @NonNull
+    public VectorQuantization getQuantization() { return quantization; }
+
+    /**
+     * Set the number of subvectors into which {@link VectorQuantization#PRODUCT} quantization divides a vector.
+     * Each subvector is stored in a single byte.  The number must divide the number of dimensions.
+     * The default is 0: the largest divisor of the dimensions that is no more than a quarter of them,
+     * which compresses vectors to a sixteenth of their size, or less.
+     *
+     * @param subquantizers the number of subvectors, or 0 for the default.
+     * @return this.
+     */
+    @NonNull
+    public VectorIndexConfiguration setSubquantizers(int subquantizers) {
+        Preconditions.assertNotNegative(subquantizers, "subquantizers");
+        if ((subquantizers > 0) && ((dimensions % subquantizers) != 0)) {
+            throw new IllegalArgumentException(
+                "subquantizers (" + subquantizers + ") must divide dimensions (" + dimensions + ")");
+        }
+        this.subquantizers = subquantizers;
+        return this;
+    }
+
+    /**
+     * Get the number of subvectors into which product quantization divides a vector.
+     *
+     * @return the number of subvectors.
+     */
+    public int getSubquantizers() {
+        if (subquantizers > 0) { return subquantizers; }
+        for (int n = Math.max(1, dimensions / 4); n > 1; n--) {
+            if ((dimensions % n) == 0) { return n; }
+        }
+        return 1;
+    }
+
+    /**
+     * Set the maximum number of vectors, sampled at random from the database, used to train the quantizer.
+     * The default is {@link #DEFAULT_TRAINING_SAMPLE_SIZE}.
+     *
+     * @param sampleSize the maximum size of the training sample: must be positive.
+     * @return this.
+     */
+    @NonNull
+    public VectorIndexConfiguration setTrainingSampleSize(int sampleSize) {
+        this.trainingSampleSize = Preconditions.assertPositive(sampleSize, "sampleSize");
+        return this;
+    }
+
+    /**
+     * Get the maximum number of vectors used to train the quantizer.
+     *
+     * @return the maximum size of the training sample.
+     */
+    public int getTrainingSampleSize() { return trainingSampleSize; }
+
+    /**
+     * Set the re-rank factor for a quantized index.  When it is greater than 1, a search for k vectors
+     * finds k * factor candidates using the compressed vectors, then reads the candidates' original vectors
+     * from the database and returns the k nearest by exact distance.
+     * The default is 0: results are ranked by approximate distance.
+     *
+     * @param rerankFactor the re-rank factor, or 0 for none.
+     * @return this.
+     */
+    @NonNull
+    public VectorIndexConfiguration setRerankFactor(int rerankFactor) {
+        this.rerankFactor = Preconditions.assertNotNegative(rerankFactor, "rerankFactor");
+        return this;
+    }
+
+    /**
+     * Get the re-rank factor for a quantized index.
+     *
+     * @return the re-rank factor.  0 means no re-ranking.
+     */
+    public int getRerankFactor() { return rerankFactor; }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "VectorIndexConfiguration{" + dimensions + ", " + metric
+            + ", " + m + ", " + efConstruction + ", " + efSearch
+            + ", " + quantization + "(" + getSubquantizers() + ", " + trainingSampleSize + ", " + rerankFactor + ")}";
+    }
+}
@@ -0,0 +1,54 @@
+//
+// Copyright (c) 2022 Couchbase, Inc.  All rights reserved.
+//
+// Licensed under the Couchbase License Agreement (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+// https://info.couchbase.com/rs/302-GJY-034/images/2017-10-30_License_Agreement.pdf
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package com.couchbase.lite;
+
+import androidx.annotation.NonNull;
+
+
+/**
+ * <b>ENTERPRISE EDITION API</b><br><br>
+ * <p>
+ * A document found by a vector search, and its distance from the target vector.
+ */
+public final class VectorMatch {
+    @NonNull
+    private final String docId;
+    private final float distance;
+
+    VectorMatch(@NonNull String docId, float distance) {
+        this.docId = docId;
+        this.distance = distance;
+    }
+
+    /**
+     * Get the id of the matching document.
+     *
+     * @return the document id.
+     */
+    @NonNull
+    public String getDocumentId() { return docId; }
+
+    /**
+     * Get the distance between the document's vector and the target vector, by the index's metric.
+     *
+     * @return the distance.
+     */
+    public float getDistance() { return distance; }
+
+    @NonNull
+    @Override
+    public String toString() { return "VectorMatch{" + docId + ", " + distance + "}"; }
+}
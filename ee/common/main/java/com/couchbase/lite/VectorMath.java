@@ -0,0 +1,151 @@
+//
+// Copyright (c) 2022 Couchbase, Inc.  All rights reserved.
+//
+// Licensed under the Couchbase License Agreement (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+// https://info.couchbase.com/rs/302-GJY-034/images/2017-10-30_License_Agreement.pdf
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package com.couchbase.lite;
+
+import androidx.annotation.NonNull;
+
+
+/**
+ * Distance kernels for float vectors.
+ * The vectors passed to these methods must be the same length: that is not checked.
+ * <p>
+ * The loops are unrolled by four, with four independent accumulators.  A single accumulator makes each
+ * iteration wait for the previous addition to complete; four let the additions proceed in parallel
+ * and give the JIT straight-line code that it can vectorize.  The sums are therefore associated differently
+ * from a naive loop, and may differ from it in the last bits.
+ */
+final class VectorMath {
+    private VectorMath() { } // Utility class
+
+    static float squaredEuclidean(@NonNull float[] a, @NonNull float[] b) {
+        float s0 = 0.0f;
+        float s1 = 0.0f;
+        float s2 = 0.0f;
+        float s3 = 0.0f;
+        final int n = a.length;
+        final int end = n & ~3;
+        int i = 0;
+        for (; i < end; i += 4) {
+            final float d0 = a[i] - b[i];
+            final float d1 = a[i + 1] - b[i + 1];
+            final float d2 = a[i + 2] - b[i + 2];
+            final float d3 = a[i + 3] - b[i + 3];
+            s0 += d0 * d0;
+            s1 += d1 * d1;
+            s2 += d2 * d2;
+            s3 += d3 * d3;
+        }
+        for (; i < n; i++) {
+            final float d = a[i] - b[i];
+            s0 += d * d;
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    static float dot(@NonNull float[] a, @NonNull float[] b) {
+        float s0 = 0.0f;
+        float s1 = 0.0f;
+        float s2 = 0.0f;
+        float s3 = 0.0f;
+        final int n = a.length;
+        final int end = n & ~3;
+        int i = 0;
+        for (; i < end; i += 4) {
+            s0 += a[i] * b[i];
+            s1 += a[i + 1] * b[i + 1];
+            s2 += a[i + 2] * b[i + 2];
+            s3 += a[i + 3] * b[i + 3];
+        }
+        for (; i < n; i++) { s0 += a[i] * b[i]; }
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    static float manhattan(@NonNull float[] a, @NonNull float[] b) {
+        float s0 = 0.0f;
+        float s1 = 0.0f;
+        float s2 = 0.0f;
+        float s3 = 0.0f;
+        final int n = a.length;
+        final int end = n & ~3;
+        int i = 0;
+        for (; i < end; i += 4) {
+            s0 += Math.abs(a[i] - b[i]);
+            s1 += Math.abs(a[i + 1] - b[i + 1]);
+            s2 += Math.abs(a[i + 2] - b[i + 2]);
+            s3 += Math.abs(a[i + 3] - b[i + 3]);
+        }
+        for (; i < n; i++) { s0 += Math.abs(a[i] - b[i]); }
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    static float cosine(@NonNull float[] a, @NonNull float[] b) { return cosine(a, norm(a), b); }
+
+    // The cosine distance, given the precomputed norm of a: use this when comparing one vector with many.
+    static float cosine(@NonNull float[] a, double normA, @NonNull float[] b) {
+        float d0 = 0.0f;
+        float d1 = 0.0f;
+        float n0 = 0.0f;
+        float n1 = 0.0f;
+        final int n = a.length;
+        final int end = n & ~1;
+        int i = 0;
+        for (; i < end; i += 2) {
+            final float b0 = b[i];
+            final float b1 = b[i + 1];
+            d0 += a[i] * b0;
+            d1 += a[i + 1] * b1;
+            n0 += b0 * b0;
+            n1 += b1 * b1;
+        }
+        for (; i < n; i++) {
+            d0 += a[i] * b[i];
+            n0 += b[i] * b[i];
+        }
+        final double norms = normA * Math.sqrt(n0 + n1);
+        return (norms <= 0.0) ? 1.0f : (float) (1.0 - ((d0 + d1) / norms));
+    }
+
+    static double norm(@NonNull float[] v) { return Math.sqrt(dot(v, v)); }
+
+    // The distance between two vectors, by the given metric.
+    static float distance(@NonNull DistanceMetric metric, @NonNull float[] a, @NonNull float[] b) {
+        switch (metric) {
+            case EUCLIDEAN:
+                return (float) Math.sqrt(squaredEuclidean(a, b));
+            case SQUARED_EUCLIDEAN:
+                return squaredEuclidean(a, b);
+            case COSINE:
+                return cosine(a, b);
+            case DOT_PRODUCT:
+                return -dot(a, b);
+            case MANHATTAN:
+                return manhattan(a, b);
+            default:
+                throw new IllegalArgumentException("Unrecognized metric: " + metric);
+        }
+    }
+
+    // Scale a vector, in place, to unit length.  A zero vector is left unchanged.
+    @NonNull
+    static float[] normalize(@NonNull float[] v) {
+        final float sum = dot(v, v);
+        if (sum <= 0.0f) { return v; }
+
+        final float scale = (float) (1.0 / Math.sqrt(sum));
+        for (int i = 0; i < v.length; i++) { v[i] *= scale; }
+        return v;
+    }
+}
@@ -0,0 +1,41 @@
+//
+// Copyright (c) 2022 Couchbase, Inc.  All rights reserved.
+//
+// Licensed under the Couchbase License Agreement (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+// https://info.couchbase.com/rs/302-GJY-034/images/2017-10-30_License_Agreement.pdf
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package com.couchbase.lite;
+
+/**
+ * <b>ENTERPRISE EDITION API</b><br><br>
+ * <p>
+ * The ways in which a {@link VectorIndex} can compress the vectors it holds.
+ */
+public enum VectorQuantization {
+    /**
+     * Vectors are held as 32-bit floats.
+     */
+    NONE,
+
+    /**
+     * Each element of a vector is held as a single byte, scaled to the range of that element in a training sample.
+     * Vectors take a quarter of the memory of uncompressed vectors.
+     */
+    SCALAR,
+
+    /**
+     * A vector is divided into subvectors, each of which is replaced by the index of the nearest of 256 centroids
+     * learned from a training sample.  A vector takes one byte per subvector.
+     * See {@link VectorIndexConfiguration#setSubquantizers(int)}.
+     */
+    PRODUCT
+}
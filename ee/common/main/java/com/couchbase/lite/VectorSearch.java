@@ -0,0 +1,210 @@
+//
+// Copyright (c) 2022 Couchbase, Inc.  All rights reserved.
+//
+// Licensed under the Couchbase License Agreement (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+// https://info.couchbase.com/rs/302-GJY-034/images/2017-10-30_License_Agreement.pdf
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package com.couchbase.lite;
+
+import androidx.annotation.NonNull;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.couchbase.lite.internal.CouchbaseLiteInternal;
+import com.couchbase.lite.internal.utils.Preconditions;
+
+
+/**
+ * <b>ENTERPRISE EDITION API</b><br><br>
+ * <p>
+ * Exact nearest-neighbour search.
+ * <p>
+ * Ordering a query by a distance function and limiting it to k results sorts every row.
+ * These methods instead evaluate the distances in a single streaming pass, keeping only the k nearest
+ * documents seen so far, and, for large collections, split the distance computations across all cores.
+ */
+public final class VectorSearch {
+    private VectorSearch() { } // Utility class
+
+    // The number of vectors read from the database before they are scored.
+    private static final int CHUNK_SIZE = 4096;
+
+    // Below this many multiply-adds, scoring is not worth splitting across threads.
+    private static final long MIN_PARALLEL_WORK = 1 << 16;
+
+    private static final int PARALLELISM = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Find the k documents in the database whose vectors are nearest the target.
+     * The vector expression must evaluate to an array of numbers, or a {@link PackedVector}, with the same number
+     * of dimensions as the target: documents for which it does not are ignored.
+     *
+     * @param db     the database to search.
+     * @param vector the expression that evaluates to a document's vector.
+     * @param target the target vector.
+     * @param k      the maximum number of documents to find.
+     * @param metric the distance metric.
+     * @return the matching documents, nearest first.
+     * @throws CouchbaseLiteException on failure to read the database.
+     */
+    @NonNull
+    public static List<VectorMatch> nearest(
+        @NonNull Database db,
+        @NonNull Expression vector,
+        @NonNull float[] target,
+        int k,
+        @NonNull DistanceMetric metric)
+        throws CouchbaseLiteException {
+        Preconditions.assertNotNull(db, "db");
+        Preconditions.assertNotNull(vector, "vector");
+        Preconditions.assertNotNull(target, "target");
+        Preconditions.assertPositive(k, "k");
+        Preconditions.assertNotNull(metric, "metric");
+
+        final Query query = QueryBuilder
+            .select(SelectResult.expression(Meta.id), SelectResult.expression(vector))
+            .from(DataSource.database(db));
+
+        final TopK nearest = new TopK(k);
+        final String[] docIds = new String[CHUNK_SIZE];
+        final float[][] vectors = new float[CHUNK_SIZE][];
+        int n = 0;
+        try (ResultSet results = query.execute()) {
+            for (Result result: results) {
+                final String docId = result.getString(0);
+                final float[] v = PackedVector.toVector(result.getValue(1));
+                if ((docId == null) || (v == null) || (v.length != target.length)) { continue; }
+
+                docIds[n] = docId;
+                vectors[n++] = v;
+                if (n >= CHUNK_SIZE) {
+                    nearest.addAll(scan(docIds, vectors, n, target, k, metric));
+                    n = 0;
+                }
+            }
+        }
+        if (n > 0) { nearest.addAll(scan(docIds, vectors, n, target, k, metric)); }
+
+        return nearest.drain();
+    }
+
+    /**
+     * Create an expression that is true for the documents in a list of matches.
+     * Use it in a query's WHERE clause to restrict the query to the matching documents.
+     *
+     * @param matches the result of a vector search.
+     * @return an expression that selects the matching documents.
+     */
+    @NonNull
+    public static Expression selecting(@NonNull List<VectorMatch> matches) {
+        Preconditions.assertNotNull(matches, "matches");
+        if (matches.isEmpty()) { return Expression.booleanValue(false); }
+
+        final Expression[] ids = new Expression[matches.size()];
+        for (int i = 0; i < ids.length; i++) { ids[i] = Expression.string(matches.get(i).getDocumentId()); }
+        return Meta.id.in(ids);
+    }
+
+    //---------------------------------------------
+    // Package visible methods
+    //---------------------------------------------
+
+    // Find the k nearest of the first n vectors.  Elements of vectors may be null: they are skipped.
+    // Large scans are split into slices, scored on the concurrent executor and by the calling thread.
+    // The calling thread claims slices too, so the scan completes even if no worker is free:
+    // it waits only for slices that a worker has already started.
+    @NonNull
+    static TopK scan(
+        @NonNull String[] docIds,
+        @NonNull float[][] vectors,
+        int n,
+        @NonNull float[] target,
+        int k,
+        @NonNull DistanceMetric metric) {
+        final int slices = ((((long) n) * target.length) < MIN_PARALLEL_WORK)
+            ? 1
+            : Math.min(PARALLELISM, Math.max(1, n / 256));
+        if (slices <= 1) { return scanSlice(docIds, vectors, 0, n, target, k, metric); }
+
+        final int sliceSize = (n + slices - 1) / slices;
+        final int nSlices = (n + sliceSize - 1) / sliceSize;
+        final TopK[] results = new TopK[nSlices];
+        final AtomicInteger nextSlice = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(nSlices);
+        final AtomicReference<RuntimeException> failure = new AtomicReference<>();
+        final Runnable scanner = () -> {
+            int slice;
+            while ((slice = nextSlice.getAndIncrement()) < nSlices) {
+                final int from = slice * sliceSize;
+                final int to = Math.min(n, from + sliceSize);
+                try { results[slice] = scanSlice(docIds, vectors, from, to, target, k, metric); }
+                catch (RuntimeException e) { failure.compareAndSet(null, e); }
+                finally { done.countDown(); }
+            }
+        };
+
+        final Executor executor = CouchbaseLiteInternal.getExecutionService().getConcurrentExecutor();
+        for (int i = 1; i < nSlices; i++) { executor.execute(scanner); }
+        scanner.run();
+
+        try { done.await(); }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted during vector search", e);
+        }
+
+        final RuntimeException err = failure.get();
+        if (err != null) { throw err; }
+
+        final TopK nearest = new TopK(Math.min(k, n));
+        for (TopK result: results) { nearest.addAll(result); }
+        return nearest;
+    }
+
+    //---------------------------------------------
+    // Private methods
+    //---------------------------------------------
+
+    @NonNull
+    private static TopK scanSlice(
+        @NonNull String[] docIds,
+        @NonNull float[][] vectors,
+        int from,
+        int to,
+        @NonNull float[] target,
+        int k,
+        @NonNull DistanceMetric metric) {
+        final TopK nearest = new TopK(Math.min(k, to - from));
+
+        // The target's norm need be computed only once.
+        if (metric == DistanceMetric.COSINE) {
+            final double targetNorm = VectorMath.norm(target);
+            for (int i = from; i < to; i++) {
+                final float[] v = vectors[i];
+                if (v == null) { continue; }
+                nearest.offer(docIds[i], VectorMath.cosine(target, targetNorm, v));
+            }
+            return nearest;
+        }
+
+        for (int i = from; i < to; i++) {
+            final float[] v = vectors[i];
+            if (v == null) { continue; }
+            nearest.offer(docIds[i], VectorMath.distance(metric, target, v));
+        }
+        return nearest;
+    }
+}
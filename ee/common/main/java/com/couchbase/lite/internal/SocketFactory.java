@@ -46,6 +46,7 @@ public class SocketFactory extends AbstractSocketFactory {
         return MessageSocket.create(
             coreDelegate,
             endpt.getDelegate().createConnection(endpt),
-            ProtocolType.getFramingForProtocol(endpt.getProtocolType()));
+            ProtocolType.getFramingForProtocol(endpt.getProtocolType()),
+            endpt.getMessagingOptions());
     }
 }
@@ -0,0 +1,142 @@
+//
+// Copyright (c) 2022 Couchbase, Inc.  All rights reserved.
+//
+// Licensed under the Couchbase License Agreement (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+// https://info.couchbase.com/rs/302-GJY-034/images/2017-10-30_License_Agreement.pdf
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package com.couchbase.lite.internal.replicator;
+
+import androidx.annotation.GuardedBy;
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import com.couchbase.lite.internal.CouchbaseLiteInternal;
+
+
+/**
+ * Merges consecutive writes to a byte stream into larger ones.
+ * <p>
+ * A batch of writes is passed to the sink when it reaches the size limit, or when the first write
+ * in it has waited for the linger time.  Batches are passed to the sink in order, one at a time,
+ * on a serial executor.  A single write larger than the size limit is a batch by itself.
+ */
+final class MessageCoalescer {
+    @FunctionalInterface
+    interface Sink {
+        /**
+         * Send a batch of writes.
+         *
+         * @param data   the concatenated writes
+         * @param writes the lengths of the individual writes, in order
+         */
+        void send(@NonNull byte[] data, @NonNull int[] writes);
+    }
+
+    @NonNull
+    private final Object lock = new Object();
+
+    private final int maxBytes;
+    private final long lingerMs;
+    @NonNull
+    private final Sink sink;
+    @NonNull
+    private final Executor sender = CouchbaseLiteInternal.getExecutionService().getSerialExecutor();
+
+    @GuardedBy("lock")
+    @NonNull
+    private List<byte[]> pending = new ArrayList<>();
+    @GuardedBy("lock")
+    private int pendingBytes;
+    // Incremented each time a batch is sent, so that a timer knows whether its batch has already gone.
+    @GuardedBy("lock")
+    private long batch;
+
+    MessageCoalescer(int maxBytes, long lingerMs, @NonNull Sink sink) {
+        this.maxBytes = maxBytes;
+        this.lingerMs = lingerMs;
+        this.sink = sink;
+    }
+
+    void write(@NonNull byte[] data) {
+        final long startedBatch;
+        synchronized (lock) {
+            // Don't let the batch grow past the limit: send what there is first.
+            if (pendingBytes + data.length > maxBytes) { flushLocked(); }
+
+            final boolean first = pending.isEmpty();
+            pending.add(data);
+            pendingBytes += data.length;
+            if (pendingBytes >= maxBytes) {
+                flushLocked();
+                return;
+            }
+            if (!first) { return; }
+            startedBatch = batch;
+        }
+
+        CouchbaseLiteInternal.getExecutionService().postDelayedOnExecutor(
+            lingerMs,
+            sender,
+            () -> {
+                synchronized (lock) {
+                    if (batch == startedBatch) { flushLocked(); }
+                }
+            });
+    }
+
+    // Send any pending writes, then run the passed task, on the sending thread.
+    void flush(@NonNull Runnable then) {
+        synchronized (lock) {
+            flushLocked();
+            sender.execute(then);
+        }
+    }
+
+    @GuardedBy("lock")
+    private void flushLocked() {
+        if (pending.isEmpty()) { return; }
+
+        final List<byte[]> writes = pending;
+        final int size = pendingBytes;
+        pending = new ArrayList<>();
+        pendingBytes = 0;
+        batch++;
+
+        // Queued while holding the lock: batches are queued in the order in which their writes arrived.
+        sender.execute(() -> send(writes, size));
+    }
+
+    private void send(@NonNull List<byte[]> writes, int size) {
+        final int n = writes.size();
+        final int[] lengths = new int[n];
+
+        // A batch of one needs no copy.
+        if (n == 1) {
+            final byte[] data = writes.get(0);
+            lengths[0] = data.length;
+            sink.send(data, lengths);
+            return;
+        }
+
+        final byte[] data = new byte[size];
+        int offset = 0;
+        for (int i = 0; i < n; i++) {
+            final byte[] write = writes.get(i);
+            System.arraycopy(write, 0, data, offset, write.length);
+            offset += write.length;
+            lengths[i] = write.length;
+        }
+        sink.send(data, lengths);
+    }
+}
@@ -14,15 +14,20 @@
 //
 package com.couchbase.lite.internal.replicator;
 
+import androidx.annotation.GuardedBy;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
+import java.util.concurrent.Executor;
+
 import com.couchbase.lite.CouchbaseLiteException;
+import com.couchbase.lite.FlowControlledReplicatorConnection;
 import com.couchbase.lite.LogDomain;
 import com.couchbase.lite.Message;
 import com.couchbase.lite.MessageEndpointConnection;
 import com.couchbase.lite.MessagingError;
-import com.couchbase.lite.ReplicatorConnection;
+import com.couchbase.lite.MessagingFlowListener;
+import com.couchbase.lite.MessagingOptions;
 import com.couchbase.lite.internal.CouchbaseLiteInternal;
 import com.couchbase.lite.internal.core.C4Constants;
 import com.couchbase.lite.internal.sockets.MessageFraming;
@@ -32,12 +37,15 @@ import com.couchbase.lite.internal.support.Log;
 import com.couchbase.lite.internal.utils.ClassUtils;
 
 
-public abstract class MessageSocket implements ReplicatorConnection, SocketFromCore, AutoCloseable {
+public abstract class MessageSocket implements FlowControlledReplicatorConnection, SocketFromCore, AutoCloseable {
     private static final LogDomain LOG_DOMAIN = LogDomain.NETWORK;
 
     private static final class FramedStreamSocket extends MessageSocket {
-        FramedStreamSocket(@NonNull SocketToCore toCore, @NonNull MessageEndpointConnection remote) {
-            super(toCore, remote);
+        FramedStreamSocket(
+            @NonNull SocketToCore toCore,
+            @NonNull MessageEndpointConnection remote,
+            @NonNull MessagingOptions options) {
+            super(toCore, remote, options, true);
         }
 
         @Override
@@ -47,8 +55,12 @@ public abstract class MessageSocket implements ReplicatorConnection, SocketFromC
     }
 
     private static final class UnframedStreamSocket extends MessageSocket {
-        UnframedStreamSocket(@NonNull SocketToCore toCore, @NonNull MessageEndpointConnection remote) {
-            super(toCore, remote);
+        // The boundaries between messages are significant: they cannot be coalesced.
+        UnframedStreamSocket(
+            @NonNull SocketToCore toCore,
+            @NonNull MessageEndpointConnection remote,
+            @NonNull MessagingOptions options) {
+            super(toCore, remote, options, false);
         }
 
         @Override
@@ -59,19 +71,20 @@ public abstract class MessageSocket implements ReplicatorConnection, SocketFromC
     public static MessageSocket create(
         @NonNull SocketToCore toCore,
         @NonNull MessageEndpointConnection remote,
-        @NonNull MessageFraming framing) {
+        @NonNull MessageFraming framing,
+        @NonNull MessagingOptions options) {
         final MessageSocket socket;
         switch (framing) {
             case NO_FRAMING:
-                socket = new UnframedStreamSocket(toCore, remote);
+                socket = new UnframedStreamSocket(toCore, remote, options);
                 break;
             case CLIENT_FRAMING:
-                socket = new FramedStreamSocket(toCore, remote);
+                socket = new FramedStreamSocket(toCore, remote, options);
                 break;
             default:
                 throw new IllegalStateException("unrecognised protocol: " + framing);
         }
-        Log.d(LOG_DOMAIN, "%s.created", socket);
+        Log.d(LOG_DOMAIN, "%s.created: %s", socket, options);
         return socket;
     }
 
@@ -85,13 +98,42 @@ public abstract class MessageSocket implements ReplicatorConnection, SocketFromC
     @NonNull
     protected final SocketToCore toCore;
 
+    // Null if writes are not coalesced.
+    @Nullable
+    private final MessageCoalescer coalescer;
+
+    // 0 if the remote is never told to stop reading.
+    private final long receiveWindow;
+
+    @NonNull
+    private final Object flowLock = new Object();
+    // Flow notifications are queued in order, while holding the flow lock.
+    @NonNull
+    private final Executor flowNotifier = CouchbaseLiteInternal.getExecutionService().getSerialExecutor();
+    // Bytes passed to core that core has not yet processed.
+    @GuardedBy("flowLock")
+    private long unackedBytes;
+    @GuardedBy("flowLock")
+    private boolean receivePaused;
+    @GuardedBy("flowLock")
+    @Nullable
+    private MessagingFlowListener flowListener;
+
     // ---------------------------------------------------------------------------------------------
     // Constructors
     // ---------------------------------------------------------------------------------------------
 
-    private MessageSocket(@NonNull SocketToCore toCore, @NonNull MessageEndpointConnection remote) {
+    private MessageSocket(
+        @NonNull SocketToCore toCore,
+        @NonNull MessageEndpointConnection remote,
+        @NonNull MessagingOptions options,
+        boolean canCoalesce) {
         this.toCore = toCore;
         this.remote = remote;
+        this.receiveWindow = options.getReceiveWindow();
+        this.coalescer = ((!canCoalesce) || (options.getMaxCoalescedBytes() <= 0))
+            ? null
+            : new MessageCoalescer(options.getMaxCoalescedBytes(), options.getCoalescingLinger(), this::sendBatch);
     }
 
     protected abstract void remoteRequestedClose(@Nullable MessagingError err);
@@ -128,6 +170,12 @@ public abstract class MessageSocket implements ReplicatorConnection, SocketFromC
     public void coreWrites(@NonNull byte[] data) {
         final int dLen = data.length;
         Log.d(LOG_DOMAIN, "%s.coreWrites: %d", this, dLen);
+
+        if (coalescer != null) {
+            coalescer.write(data);
+            return;
+        }
+
         remote.send(
             Message.fromData(data),
             (success, error) -> {
@@ -139,6 +187,7 @@ public abstract class MessageSocket implements ReplicatorConnection, SocketFromC
     @Override
     public void coreAckReceive(long n) {
         Log.d(LOG_DOMAIN, "%s.coreAckReceive: %d", this, n);
+        updateReceiveWindow(-n);
     }
 
     @Override
@@ -162,16 +211,31 @@ public abstract class MessageSocket implements ReplicatorConnection, SocketFromC
     }
 
     // ---------------------------------------------------------------------------------------------
-    // Implementation of ReplicatorConnection (Remote to Core)
+    // Implementation of FlowControlledReplicatorConnection (Remote to Core)
     // ---------------------------------------------------------------------------------------------
 
     @Override
     public void receive(@NonNull Message msg) {
         Log.d(LOG_DOMAIN, "%s.remoteRequestedSend: %s", this, msg);
         if (msg == null) { return; }
+
+        // Count the bytes before core gets them: core may ack them before sendToCore returns.
+        updateReceiveWindow(msg.getLength());
+
+        // Core takes an array: a message backed by an array is passed as is; only a direct message is copied.
         toCore.sendToCore(msg.toData());
     }
 
+    @Override
+    public boolean isReceivePaused() {
+        synchronized (flowLock) { return receivePaused; }
+    }
+
+    @Override
+    public void setFlowListener(@Nullable MessagingFlowListener listener) {
+        synchronized (flowLock) { flowListener = listener; }
+    }
+
     @Override
     public void close(@Nullable MessagingError err) {
         Log.d(LOG_DOMAIN, "%s.remoteRequestedClose: %s", (err == null) ? null : err.getError(), this, err);
@@ -189,6 +253,13 @@ public abstract class MessageSocket implements ReplicatorConnection, SocketFromC
 
     protected void closeRemote(@Nullable Exception error, @Nullable MessagingError err) {
         Log.d(LOG_DOMAIN, "%s.closeRemote (%s): %s", this, error, err);
+
+        // Send any coalesced writes before closing the connection.
+        if (coalescer != null) {
+            coalescer.flush(() -> remote.close(error, () -> closeCore(err)));
+            return;
+        }
+
         remote.close(error, () -> closeCore(err));
     }
 
@@ -202,6 +273,43 @@ public abstract class MessageSocket implements ReplicatorConnection, SocketFromC
         toCore.ackOpenToCore();
     }
 
+    // Send a batch of coalesced writes.  Core is acked for each of the writes, as though they had been sent singly.
+    private void sendBatch(@NonNull byte[] data, @NonNull int[] writes) {
+        Log.d(LOG_DOMAIN, "%s.sendBatch: %d (%d)", this, data.length, writes.length);
+        remote.send(
+            Message.fromData(data),
+            (success, error) -> {
+                if (!success) {
+                    close(error);
+                    return;
+                }
+                for (int write: writes) { ackMessageToCore(write); }
+            });
+    }
+
+    // Pause the remote when the window is full; resume it when it is half empty.
+    private void updateReceiveWindow(long delta) {
+        synchronized (flowLock) {
+            unackedBytes = Math.max(0, unackedBytes + delta);
+            if (receiveWindow <= 0) { return; }
+
+            if (receivePaused) {
+                if (unackedBytes > receiveWindow / 2) { return; }
+                receivePaused = false;
+            }
+            else {
+                if (unackedBytes < receiveWindow) { return; }
+                receivePaused = true;
+            }
+
+            final boolean paused = receivePaused;
+            Log.d(LOG_DOMAIN, "%s.receivePaused(%s): %d", this, paused, unackedBytes);
+
+            final MessagingFlowListener listener = flowListener;
+            if (listener != null) { flowNotifier.execute(() -> listener.receivePaused(paused)); }
+        }
+    }
+
     private void ackMessageToCore(int byteCount) {
         Log.d(LOG_DOMAIN, "%s.ackMessageToCore (%d)", this, byteCount);
         toCore.ackWriteToCore(byteCount);
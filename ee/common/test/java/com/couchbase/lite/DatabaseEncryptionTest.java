@@ -274,6 +274,30 @@ public class DatabaseEncryptionTest extends BaseTest {
     @Test
     public void testRemoveKey() throws CouchbaseLiteException, IOException { rekeyAndVerifyDb(TEST_PWD, null); }
 
+    // The prediction cache follows the database's key, and is deleted with it.
+    @Test
+    public void testReKeyPersistentPredictionCache() throws CouchbaseLiteException {
+        createEncryptedTestDbWithPassword(TEST_PWD);
+        PersistentPredictionCache cache = encryptionTestDb.openPersistentPredictionCache(10);
+        cache.put("model", "1", "input", null);
+        cache.compact();
+        assertEquals(1, cache.getCount());
+
+        encryptionTestDb.changeEncryptionKey(getEncryptionKey("foo"));
+
+        reopenTestDbWithPassword("foo");
+        cache = encryptionTestDb.openPersistentPredictionCache(10);
+        assertEquals(1, cache.getCount());
+
+        final String cacheName = encryptionTestDb.getName() + PersistentPredictionCache.DB_SUFFIX;
+        final File dir = new File(encryptionTestDb.getConfig().getDirectory());
+        assertTrue(Database.exists(cacheName, dir));
+
+        encryptionTestDb.delete();
+        encryptionTestDb = null;
+        assertFalse(Database.exists(cacheName, dir));
+    }
+
     // Verify that the 2.8.0 bug fix works on an encrypted DB
     // There are four more test for this in DatabaseTest
 
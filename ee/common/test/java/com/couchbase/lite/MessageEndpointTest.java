@@ -5,7 +5,9 @@ import androidx.annotation.NonNull;
 import java.net.SocketException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
@@ -428,6 +430,124 @@ public class MessageEndpointTest extends BaseReplicatorTest {
         assertEquals("Cat", baseTestDb.getDocument("doc2").getString("name"));
     }
 
+    @Test
+    public void testPushPullDocWithCoalescedStream() throws CouchbaseLiteException {
+        for (int i = 0; i < 50; i++) {
+            MutableDocument doc = new MutableDocument("doc-" + i);
+            doc.setValue("name", "Tiger");
+            saveDocInBaseTestDb(doc);
+        }
+
+        MutableDocument doc2 = new MutableDocument("doc2");
+        doc2.setValue("name", "Cat");
+        otherDB.save(doc2);
+
+        final MessagingOptions options = new MessagingOptions().setMaxCoalescedBytes(4096).setCoalescingLinger(2);
+
+        run(
+            makeConfig(
+                new MessageEndpoint(
+                    "UID:123",
+                    getServerConnection(
+                        "PushPullWithCoalescedStream",
+                        new MessageEndpointListener(
+                            new MessageEndpointListenerConfiguration(otherDB, ProtocolType.BYTE_STREAM)
+                                .setMessagingOptions(options))),
+                    ProtocolType.BYTE_STREAM,
+                    getConnectionFactory(),
+                    options),
+                ReplicatorType.PUSH_AND_PULL,
+                false),
+            0,
+            null);
+
+        assertEquals(51, otherDB.getCount());
+        assertEquals("Tiger", otherDB.getDocument("doc-49").getString("name"));
+
+        assertEquals(51, baseTestDb.getCount());
+        assertEquals("Cat", baseTestDb.getDocument("doc2").getString("name"));
+    }
+
+    @Test
+    public void testPullDocWithSmallReceiveWindow() throws CouchbaseLiteException {
+        // Flow control must be asked for.
+        assertEquals(0, new MessagingOptions().getReceiveWindow());
+
+        for (int i = 0; i < 50; i++) {
+            MutableDocument doc = new MutableDocument("doc-" + i);
+            doc.setValue("name", "Cat");
+            otherDB.save(doc);
+        }
+
+        // The window is always full: the transport is told to pause, but the data is delivered anyway.
+        run(
+            makeConfig(
+                new MessageEndpoint(
+                    "UID:123",
+                    getServerConnection("PullWithSmallWindow", ProtocolType.MESSAGE_STREAM),
+                    ProtocolType.MESSAGE_STREAM,
+                    getConnectionFactory(),
+                    new MessagingOptions().setReceiveWindow(16)),
+                ReplicatorType.PULL,
+                false),
+            0,
+            null);
+
+        assertEquals(50, baseTestDb.getCount());
+        assertEquals("Cat", baseTestDb.getDocument("doc-49").getString("name"));
+    }
+
+    @Test
+    public void testPushDocWithConcurrentAccepts() throws CouchbaseLiteException, InterruptedException {
+        final int peers = 4;
+
+        for (int i = 0; i < 20; i++) {
+            MutableDocument doc = new MutableDocument("doc-" + i);
+            doc.setValue("name", "Tiger");
+            saveDocInBaseTestDb(doc);
+        }
+
+        // More peers than accept threads: some of the accepts must wait their turn.
+        final MessageEndpointListener listener = new MessageEndpointListener(
+            new MessageEndpointListenerConfiguration(otherDB, ProtocolType.MESSAGE_STREAM)
+                .setMaxConcurrentAccepts(2));
+
+        final CountDownLatch stopLatch = new CountDownLatch(peers);
+        final Set<CouchbaseLiteException> errors = Collections.synchronizedSet(new HashSet<>());
+        final List<Replicator> replicators = new ArrayList<>();
+        final List<ListenerToken> tokens = new ArrayList<>();
+        for (int i = 0; i < peers; i++) {
+            final Replicator replicator = testReplicator(makeConfig(
+                baseTestDb,
+                new MessageEndpoint(
+                    "p2pAccept" + i,
+                    getServerConnection("PushWithConcurrentAccepts" + i, listener),
+                    ProtocolType.MESSAGE_STREAM,
+                    getConnectionFactory()),
+                ReplicatorType.PUSH,
+                false));
+            tokens.add(replicator.addChangeListener(change -> {
+                if (change.getStatus().getActivityLevel() != ReplicatorActivityLevel.STOPPED) { return; }
+                final CouchbaseLiteException err = change.getStatus().getError();
+                if (err != null) { errors.add(err); }
+                stopLatch.countDown();
+            }));
+            replicators.add(replicator);
+        }
+
+        try {
+            for (Replicator replicator: replicators) { replicator.start(false); }
+            assertTrue(stopLatch.await(LONG_TIMEOUT_SEC, TimeUnit.SECONDS));
+        }
+        finally {
+            for (int i = 0; i < peers; i++) { replicators.get(i).removeChangeListener(tokens.get(i)); }
+        }
+
+        assertTrue(errors.isEmpty());
+        assertEquals(20, otherDB.getCount());
+        assertEquals("Tiger", otherDB.getDocument("doc-19").getString("name"));
+    }
+
     @Test
     public void testPushPullDocContinuousWithMessage() throws CouchbaseLiteException {
         MutableDocument doc1 = new MutableDocument("doc1");
@@ -568,6 +688,23 @@ public class MessageEndpointTest extends BaseReplicatorTest {
         finally { replicator.removeChangeListener(token); }
     }
 
+    // A listener cannot accept connections for a closed database.
+    @Test
+    public void testAcceptWithClosedDb() throws CouchbaseLiteException {
+        final MessageEndpointListener listener = new MessageEndpointListener(
+            new MessageEndpointListenerConfiguration(otherDB, ProtocolType.MESSAGE_STREAM));
+
+        otherDB.close();
+
+        try {
+            listener.accept(new MockServerConnection("AcceptWithClosedDb", listener));
+            fail("accepted a connection for a closed database");
+        }
+        catch (IllegalStateException ignore) { }
+
+        assertTrue(listener.isStopped());
+    }
+
     @Test
     public void testCloseDbWithActiveMessageListener() throws InterruptedException, CouchbaseLiteException {
         final CountDownLatch startLatch = new CountDownLatch(2);
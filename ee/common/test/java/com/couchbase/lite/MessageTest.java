@@ -0,0 +1,72 @@
+//
+// Copyright (c) 2022 Couchbase, Inc.  All rights reserved.
+//
+// Licensed under the Couchbase License Agreement (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+// https://info.couchbase.com/rs/302-GJY-034/images/2017-10-30_License_Agreement.pdf
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package com.couchbase.lite;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+
+public class MessageTest extends BaseTest {
+    private static final byte[] DATA = new byte[] {1, 2, 3, 4, 5};
+
+    @Test
+    public void testMessageFromData() {
+        final Message msg = Message.fromData(DATA);
+        assertSame(DATA, msg.toData());
+        assertEquals(DATA.length, msg.getLength());
+        assertFalse(msg.isDirect());
+
+        final ByteBuffer buf = msg.toByteBuffer();
+        assertEquals(0, buf.position());
+        assertEquals(DATA.length, buf.remaining());
+        assertSame(DATA, buf.array());
+    }
+
+    @Test
+    public void testMessageFromWrappedArray() {
+        assertSame(DATA, Message.fromByteBuffer(ByteBuffer.wrap(DATA)).toData());
+
+        // Only the remaining bytes are in the message.
+        final ByteBuffer buf = ByteBuffer.wrap(DATA, 1, 3);
+        final Message msg = Message.fromByteBuffer(buf);
+        assertArrayEquals(new byte[] {2, 3, 4}, msg.toData());
+        assertEquals(1, buf.position());
+    }
+
+    @Test
+    public void testMessageFromDirectBuffer() {
+        final ByteBuffer buf = ByteBuffer.allocateDirect(DATA.length);
+        buf.put(DATA);
+        buf.flip();
+
+        final Message msg = Message.fromByteBuffer(buf);
+        assertTrue(msg.isDirect());
+        assertEquals(DATA.length, msg.getLength());
+        assertArrayEquals(DATA, msg.toData());
+
+        // Reading the message's buffer does not consume the message.
+        final ByteBuffer view = msg.toByteBuffer();
+        view.get(new byte[DATA.length]);
+        assertEquals(DATA.length, msg.toByteBuffer().remaining());
+        assertArrayEquals(DATA, msg.toData());
+    }
+}
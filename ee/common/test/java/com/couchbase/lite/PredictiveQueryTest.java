@@ -20,10 +20,16 @@ import androidx.annotation.NonNull;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -248,6 +254,196 @@ public class PredictiveQueryTest extends BaseQueryTest {
         Database.prediction.unregisterModel(model);
     }
 
+    @Test
+    public void testBatchModel() throws CouchbaseLiteException, InterruptedException {
+        for (int i = 0; i < 10; i++) { createDocument(new int[] {i, 1}); }
+
+        final AggregateModel aggregateModel = new AggregateModel();
+        final List<Integer> batchSizes = Collections.synchronizedList(new ArrayList<>());
+        Database.prediction.registerBatchModel(
+            AggregateModel.NAME,
+            inputs -> {
+                batchSizes.add(inputs.size());
+                final List<Dictionary> outputs = new ArrayList<>();
+                for (Dictionary input: inputs) { outputs.add(aggregateModel.predict(input)); }
+                return outputs;
+            },
+            4);
+
+        // Building the index passes the inputs to the model in batches.
+        Expression input = AggregateModel.createInput("numbers");
+        final PredictiveIndexBuild build = baseTestDb.createPredictiveIndex(
+            "AggIndex",
+            IndexBuilder.predictiveIndex(AggregateModel.NAME, input, null),
+            1,
+            null);
+        assertTrue(build.awaitCompletion(STD_TIMEOUT_SEC, TimeUnit.SECONDS));
+        assertNull(build.getError());
+        assertEquals(Arrays.asList(4, 4, 2), batchSizes);
+        assertEquals(10, aggregateModel.getNumberOfCalls());
+
+        PredictionFunction prediction = Function.prediction(AggregateModel.NAME, input);
+        final Query q = QueryBuilder
+            .select(SelectResult.expression(prediction.propertyPath("sum")))
+            .from(DataSource.database(baseTestDb));
+
+        final List<Integer> sums = new ArrayList<>();
+        int rows = verifyQuery(q, (n, result) -> sums.add(result.getInt(0)));
+        assertEquals(10, rows);
+        assertTrue(sums.contains(1));
+        assertTrue(sums.contains(10));
+
+        for (int size: batchSizes) { assertTrue((size > 0) && (size <= 4)); }
+
+        Database.prediction.unregisterModel(AggregateModel.NAME);
+    }
+
+    @Test
+    public void testPredictionCache() throws CouchbaseLiteException {
+        createDocument(new int[] {1, 2, 3, 4, 5});
+        createDocument(new int[] {6, 7, 8, 9, 10});
+
+        final AggregateModel aggregateModel = new AggregateModel();
+        Database.prediction.registerModel(
+            AggregateModel.NAME,
+            aggregateModel,
+            new PredictiveModelConfiguration().setCacheMaxEntries(10));
+
+        PredictionFunction prediction = Function.prediction(AggregateModel.NAME, AggregateModel.createInput("numbers"));
+        final Query q = QueryBuilder
+            .select(SelectResult.expression(prediction.propertyPath("sum")))
+            .from(DataSource.database(baseTestDb));
+
+        final List<Integer> sums = new ArrayList<>();
+        assertEquals(2, verifyQuery(q, (n, result) -> sums.add(result.getInt(0))));
+        assertEquals(2, aggregateModel.getNumberOfCalls());
+
+        // Same inputs: should be satisfied entirely from the cache.
+        aggregateModel.setAllowCalls(false);
+        assertEquals(2, verifyQuery(q, (n, result) -> assertTrue(sums.contains(result.getInt(0)))));
+
+        PredictionCacheStats stats = Database.prediction.getCacheStats(AggregateModel.NAME);
+        assertNotNull(stats);
+        assertEquals(2, stats.getEntryCount());
+        assertEquals(2, stats.getMissCount());
+        assertTrue(stats.getHitCount() >= 2);
+
+        // Re-registering the model discards the cache
+        aggregateModel.reset();
+        Database.prediction.registerModel(
+            AggregateModel.NAME,
+            aggregateModel,
+            new PredictiveModelConfiguration().setCacheMaxEntries(1));
+        assertEquals(2, verifyQuery(q, (n, result) -> assertTrue(sums.contains(result.getInt(0)))));
+        assertEquals(2, aggregateModel.getNumberOfCalls());
+
+        stats = Database.prediction.getCacheStats(AggregateModel.NAME);
+        assertNotNull(stats);
+        assertEquals(1, stats.getEntryCount());
+        assertEquals(1, stats.getEvictionCount());
+
+        aggregateModel.unregisterModel();
+        assertNull(Database.prediction.getCacheStats(AggregateModel.NAME));
+    }
+
+    @Test
+    public void testEncodingModel() throws CouchbaseLiteException {
+        createDocument(new int[] {1, 2, 3, 4, 5});
+
+        Database.prediction.registerEncodingModel(
+            AggregateModel.NAME,
+            (input, output) -> {
+                final Array numbers = input.getArray("numbers");
+                if (numbers == null) { return false; }
+                final float[] vector = new float[numbers.count()];
+                long sum = 0;
+                for (int i = 0; i < vector.length; i++) {
+                    vector[i] = numbers.getFloat(i);
+                    sum += numbers.getLong(i);
+                }
+                output.writeLong("sum", sum).writeFloats("vector", vector);
+                return true;
+            });
+
+        PredictionFunction prediction = Function.prediction(AggregateModel.NAME, AggregateModel.createInput("numbers"));
+        final Query q = QueryBuilder
+            .select(
+                SelectResult.expression(prediction.propertyPath("sum")),
+                SelectResult.expression(prediction.propertyPath("vector")))
+            .from(DataSource.database(baseTestDb));
+
+        int rows = verifyQuery(q, (n, result) -> {
+            assertEquals(15, result.getInt(0));
+            final Array vector = result.getArray(1);
+            assertNotNull(vector);
+            assertEquals(5, vector.count());
+            assertEquals(3.0f, vector.getFloat(2), 0.0f);
+        });
+        assertEquals(1, rows);
+
+        Database.prediction.unregisterModel(AggregateModel.NAME);
+    }
+
+    @Test
+    public void testPredictionStats() throws CouchbaseLiteException {
+        createDocument(new int[] {1, 2, 3, 4, 5});
+        createDocument(new int[] {});
+
+        final AggregateModel aggregateModel = new AggregateModel();
+        aggregateModel.registerModel();
+
+        PredictionFunction prediction = Function.prediction(AggregateModel.NAME, AggregateModel.createInput("numbers"));
+        final Query q = QueryBuilder
+            .select(SelectResult.expression(prediction.propertyPath("sum")))
+            .from(DataSource.database(baseTestDb));
+        assertEquals(2, verifyQuery(q, (n, result) -> { }));
+
+        final PredictionStats stats = Database.prediction.getStats(AggregateModel.NAME);
+        assertNotNull(stats);
+        assertEquals(aggregateModel.getNumberOfCalls(), stats.getCallCount());
+        assertEquals(stats.getCallCount(), stats.getRequestCount());
+        assertEquals(0, stats.getErrorCount());
+        assertTrue(stats.getTotalLatencyNanos() > 0);
+        assertTrue(stats.getLatencyPercentileNanos(50.0) <= stats.getLatencyPercentileNanos(99.0));
+        assertTrue(stats.getOutputBytes() > 0);
+        assertNull(stats.getCacheStats());
+
+        aggregateModel.unregisterModel();
+        assertNull(Database.prediction.getStats(AggregateModel.NAME));
+    }
+
+    @Test
+    public void testPredictionCircuitBreaker() throws CouchbaseLiteException {
+        for (int i = 0; i < 5; i++) { createDocument(new int[] {i, i + 1}); }
+
+        final AggregateModel aggregateModel = new AggregateModel();
+        aggregateModel.setAllowCalls(false);
+        Database.prediction.registerModel(
+            AggregateModel.NAME,
+            aggregateModel,
+            new PredictiveModelConfiguration()
+                .setCircuitBreakerThreshold(2)
+                .setCircuitBreakerCoolDown(60 * 60 * 1000L));
+
+        PredictionFunction prediction = Function.prediction(AggregateModel.NAME, AggregateModel.createInput("numbers"));
+        final Query q = QueryBuilder
+            .select(SelectResult.expression(prediction.propertyPath("sum")))
+            .from(DataSource.database(baseTestDb));
+
+        // Every prediction is MISSING: the first two because the model fails, the rest because the breaker is open.
+        assertEquals(5, verifyQuery(q, (n, result) -> assertNull(result.getValue(0))));
+
+        final PredictionStats stats = Database.prediction.getStats(AggregateModel.NAME);
+        assertNotNull(stats);
+        assertEquals(2, stats.getCallCount());
+        assertEquals(2, stats.getErrorCount());
+        assertEquals(0, stats.getTimeoutCount());
+        assertEquals(stats.getRequestCount() - 2, stats.getRejectedCount());
+        assertEquals(PredictionCircuitState.OPEN, stats.getCircuitState());
+
+        aggregateModel.unregisterModel();
+    }
+
     @Test
     public void testPredictionInputOutput() throws CouchbaseLiteException {
         // Register echo model:
@@ -888,6 +1084,565 @@ public class PredictiveQueryTest extends BaseQueryTest {
         aggregateModel.unregisterModel();
     }
 
+    @Test
+    public void testBuildPredictiveIndexInBackground() throws CouchbaseLiteException, InterruptedException {
+        createDocument(new int[] {1, 2, 3, 4, 5});
+        createDocument(new int[] {6, 7, 8, 9, 10});
+
+        final AggregateModel aggregateModel = new AggregateModel();
+        aggregateModel.registerModel();
+
+        String model = AggregateModel.NAME;
+        Expression input = AggregateModel.createInput("numbers");
+        PredictionFunction prediction = Function.prediction(model, input);
+
+        final List<Long> progress = new ArrayList<>();
+        final PredictiveIndexBuild build = baseTestDb.createPredictiveIndex(
+            "AggIndex",
+            IndexBuilder.predictiveIndex(model, input, null),
+            4,
+            b -> progress.add(b.getCompleted()));
+        assertTrue(build.awaitCompletion(STD_TIMEOUT_SEC, TimeUnit.SECONDS));
+
+        assertTrue(build.isDone());
+        assertFalse(build.isCancelled());
+        assertNull(build.getError());
+        assertEquals(2, build.getTotal());
+        assertEquals(2, build.getCompleted());
+        assertEquals(Long.valueOf(2), progress.get(progress.size() - 1));
+        assertTrue(baseTestDb.getIndexes().contains("AggIndex"));
+
+        // Each prediction was computed once, by the workers: the index used the precomputed results.
+        final PredictionStats stats = Database.prediction.getStats(AggregateModel.NAME);
+        assertNotNull(stats);
+        assertEquals(2, stats.getCallCount());
+
+        aggregateModel.setAllowCalls(false);
+
+        final Query q = QueryBuilder
+            .select(SelectResult.expression(prediction.propertyPath("sum")).as("sum"))
+            .from(DataSource.database(baseTestDb))
+            .where(prediction.propertyPath("sum").equalTo(Expression.value(15)));
+        assertEquals(1, verifyQuery(q, (n, result) -> assertEquals(15, result.getInt(0))));
+
+        aggregateModel.reset();
+        aggregateModel.unregisterModel();
+    }
+
+    // The build computes predictions no more than a window ahead of the query engine.
+    @Test
+    public void testBuildPredictiveIndexPastPrecomputeWindow() throws CouchbaseLiteException, InterruptedException {
+        final int nDocs = 3 * PredictiveIndexBuild.PRECOMPUTE_WINDOW;
+        baseTestDb.inBatch(() -> {
+            for (int i = 0; i < nDocs; i++) { createDocument(new int[] {i, 1}); }
+        });
+
+        final AggregateModel aggregateModel = new AggregateModel();
+        aggregateModel.registerModel();
+
+        String model = AggregateModel.NAME;
+        Expression input = AggregateModel.createInput("numbers");
+        PredictionFunction prediction = Function.prediction(model, input);
+
+        final PredictiveIndexBuild build = baseTestDb.createPredictiveIndex(
+            "AggIndex",
+            IndexBuilder.predictiveIndex(model, input, null),
+            4,
+            null);
+        assertTrue(build.awaitCompletion(STD_TIMEOUT_SEC, TimeUnit.SECONDS));
+
+        assertNull(build.getError());
+        assertEquals(nDocs, build.getTotal());
+        assertEquals(nDocs, build.getCompleted());
+        assertTrue(baseTestDb.getIndexes().contains("AggIndex"));
+
+        aggregateModel.setAllowCalls(false);
+
+        final Query q = QueryBuilder
+            .select(SelectResult.expression(prediction.propertyPath("sum")).as("sum"))
+            .from(DataSource.database(baseTestDb))
+            .where(prediction.propertyPath("sum").equalTo(Expression.value(nDocs)));
+        assertEquals(1, verifyQuery(q, (n, result) -> assertEquals(nDocs, result.getInt(0))));
+
+        aggregateModel.reset();
+        aggregateModel.unregisterModel();
+    }
+
+    @Test
+    public void testCancelPredictiveIndexBuild() throws CouchbaseLiteException, InterruptedException {
+        createDocument(new int[] {1, 2, 3, 4, 5});
+
+        final AggregateModel aggregateModel = new AggregateModel();
+        aggregateModel.registerModel();
+
+        final PredictiveIndexBuild build = baseTestDb.createPredictiveIndex(
+            "AggIndex",
+            IndexBuilder.predictiveIndex(AggregateModel.NAME, AggregateModel.createInput("numbers"), null),
+            b -> b.cancel());
+        assertTrue(build.awaitCompletion(STD_TIMEOUT_SEC, TimeUnit.SECONDS));
+
+        assertTrue(build.isCancelled());
+        assertNull(build.getError());
+        assertFalse(baseTestDb.getIndexes().contains("AggIndex"));
+
+        aggregateModel.unregisterModel();
+    }
+
+    @Test
+    public void testRebuildPredictiveIndexForNewModelVersion() throws CouchbaseLiteException, InterruptedException {
+        createDocument(new int[] {1, 2, 3, 4, 5});
+        createDocument(new int[] {6, 7, 8, 9, 10});
+
+        Database.prediction.registerModel(
+            AggregateModel.NAME,
+            new AggregateModel(),
+            new PredictiveModelConfiguration().setVersion("1"));
+
+        final PredictiveIndex index
+            = IndexBuilder.predictiveIndex(AggregateModel.NAME, AggregateModel.createInput("numbers"), null);
+        PredictiveIndexBuild build = baseTestDb.createPredictiveIndex("AggIndex", index, null);
+        assertTrue(build.awaitCompletion(STD_TIMEOUT_SEC, TimeUnit.SECONDS));
+        assertNull(build.getError());
+        assertEquals(2, Database.prediction.getStats(AggregateModel.NAME).getCallCount());
+
+        // The index was built from this version of the model: there is nothing to do.
+        build = baseTestDb.createPredictiveIndex("AggIndex", index, null);
+        assertTrue(build.awaitCompletion(STD_TIMEOUT_SEC, TimeUnit.SECONDS));
+        assertNull(build.getError());
+        assertEquals(0, build.getTotal());
+        assertEquals(2, Database.prediction.getStats(AggregateModel.NAME).getCallCount());
+
+        // Registering a new version of the model rebuilds the index in the background.
+        Database.prediction.registerModel(
+            AggregateModel.NAME,
+            new AggregateModel(),
+            new PredictiveModelConfiguration().setVersion("2"));
+        final PredictiveIndexBuild rebuild = baseTestDb.getPredictiveIndexBuild("AggIndex");
+        assertNotNull(rebuild);
+        assertTrue(rebuild != build);
+        assertTrue(rebuild.awaitCompletion(STD_TIMEOUT_SEC, TimeUnit.SECONDS));
+        assertNull(rebuild.getError());
+        assertEquals(2, rebuild.getCompleted());
+        assertEquals(2, Database.prediction.getStats(AggregateModel.NAME).getCallCount());
+        assertTrue(baseTestDb.getIndexes().contains("AggIndex"));
+
+        // Registering the same version again does not.
+        Database.prediction.registerModel(
+            AggregateModel.NAME,
+            new AggregateModel(),
+            new PredictiveModelConfiguration().setVersion("2"));
+        assertEquals(rebuild, baseTestDb.getPredictiveIndexBuild("AggIndex"));
+
+        Database.prediction.unregisterModel(AggregateModel.NAME);
+    }
+
+    // The record of a build is kept in the database: the next session need not build the index again.
+    @Test
+    public void testPredictiveIndexVersionSurvivesReopen() throws CouchbaseLiteException, InterruptedException {
+        createDocument(new int[] {1, 2, 3, 4, 5});
+        createDocument(new int[] {6, 7, 8, 9, 10});
+
+        Database.prediction.registerModel(
+            AggregateModel.NAME,
+            new AggregateModel(),
+            new PredictiveModelConfiguration().setVersion("1"));
+
+        final PredictiveIndex index
+            = IndexBuilder.predictiveIndex(AggregateModel.NAME, AggregateModel.createInput("numbers"), null);
+        PredictiveIndexBuild build = baseTestDb.createPredictiveIndex("AggIndex", index, null);
+        assertTrue(build.awaitCompletion(STD_TIMEOUT_SEC, TimeUnit.SECONDS));
+        assertNull(build.getError());
+        assertEquals(2, build.getTotal());
+
+        reopenBaseTestDb();
+
+        build = baseTestDb.createPredictiveIndex("AggIndex", index, null);
+        assertTrue(build.awaitCompletion(STD_TIMEOUT_SEC, TimeUnit.SECONDS));
+        assertNull(build.getError());
+        assertEquals(0, build.getTotal());
+        assertEquals(2, Database.prediction.getStats(AggregateModel.NAME).getCallCount());
+
+        Database.prediction.unregisterModel(AggregateModel.NAME);
+    }
+
+    @Test
+    public void testPersistentPredictionCache() throws CouchbaseLiteException {
+        createDocument(new int[] {1, 2, 3, 4, 5});
+        createDocument(new int[] {6, 7, 8, 9, 10});
+
+        final PersistentPredictionCache cache = baseTestDb.openPersistentPredictionCache(100);
+        assertEquals(100, cache.getMaxEntries());
+
+        final PredictionFunction prediction
+            = Function.prediction(AggregateModel.NAME, AggregateModel.createInput("numbers"));
+        final Query q = QueryBuilder
+            .select(SelectResult.expression(prediction.propertyPath("sum")))
+            .from(DataSource.database(baseTestDb))
+            .orderBy(Ordering.expression(prediction.propertyPath("sum")));
+
+        Database.prediction.registerModel(
+            AggregateModel.NAME,
+            new AggregateModel(),
+            new PredictiveModelConfiguration().setVersion("1").setPersistentCache(cache));
+        assertEquals(2, verifyQuery(q, (n, result) -> assertEquals((n == 1) ? 15 : 40, result.getInt(0))));
+        assertTrue(Database.prediction.getStats(AggregateModel.NAME).getCallCount() > 0);
+
+        // Writes are asynchronous: compact waits for them.
+        cache.compact();
+        assertEquals(2, cache.getCount());
+
+        // A new instance of the same version of the model, as after a restart, uses the cached results.
+        final AggregateModel aggregateModel = new AggregateModel();
+        aggregateModel.setAllowCalls(false);
+        Database.prediction.registerModel(
+            AggregateModel.NAME,
+            aggregateModel,
+            new PredictiveModelConfiguration().setVersion("1").setPersistentCache(cache));
+        assertEquals(2, verifyQuery(q, (n, result) -> assertEquals((n == 1) ? 15 : 40, result.getInt(0))));
+        assertEquals(0, Database.prediction.getStats(AggregateModel.NAME).getCallCount());
+
+        // A new version of the model does not.
+        Database.prediction.registerModel(
+            AggregateModel.NAME,
+            new AggregateModel(),
+            new PredictiveModelConfiguration().setVersion("2").setPersistentCache(cache));
+        assertEquals(2, verifyQuery(q, (n, result) -> assertEquals((n == 1) ? 15 : 40, result.getInt(0))));
+        assertTrue(Database.prediction.getStats(AggregateModel.NAME).getCallCount() > 0);
+
+        cache.clear();
+        assertEquals(0, cache.getCount());
+
+        Database.prediction.unregisterModel(AggregateModel.NAME);
+        cache.close();
+    }
+
+    @Test
+    public void testDeduplicatePredictions() throws CouchbaseLiteException, InterruptedException {
+        createDocument(new int[] {1, 2, 3, 4, 5});
+        createDocument(new int[] {6, 7, 8, 9, 10});
+
+        // Deduplication must be asked for.
+        assertFalse(new PredictiveModelConfiguration().isDeduplicationEnabled());
+
+        final AggregateModel aggregateModel = new AggregateModel();
+        Database.prediction.registerModel(
+            AggregateModel.NAME,
+            aggregateModel,
+            new PredictiveModelConfiguration().setDeduplicationEnabled(true));
+
+        final PredictionFunction prediction
+            = Function.prediction(AggregateModel.NAME, AggregateModel.createInput("numbers"));
+        final Query q = QueryBuilder
+            .select(
+                SelectResult.expression(prediction.propertyPath("min")),
+                SelectResult.expression(prediction.propertyPath("max")),
+                SelectResult.expression(prediction.propertyPath("sum")))
+            .from(DataSource.database(baseTestDb));
+
+        assertEquals(2, verifyQuery(q, (n, result) -> {
+            final int min = result.getInt(0);
+            assertEquals(min + 4, result.getInt(1));
+            assertEquals((5 * min) + 10, result.getInt(2));
+        }));
+
+        // The model was called once for each row, not once for each projection.
+        assertEquals(2, aggregateModel.getNumberOfCalls());
+
+        // A later query does not reuse the predictions made for the last row of this one.
+        Thread.sleep(TimeUnit.NANOSECONDS.toMillis(C4PredictiveModelImpl.DEDUP_WINDOW_NS) + 10);
+        assertEquals(2, verifyQuery(q, (n, result) -> assertNotNull(result.getValue(0))));
+        assertEquals(4, aggregateModel.getNumberOfCalls());
+
+        aggregateModel.unregisterModel();
+    }
+
+    @Test
+    public void testAsyncPredictiveModel() throws CouchbaseLiteException, InterruptedException {
+        for (int i = 0; i < 50; i++) { createDocument(new int[] {i, 1}); }
+
+        // A stand-in for an inference server, on which predictions take a few milliseconds.
+        final ExecutorService server = Executors.newFixedThreadPool(8);
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicInteger maxInFlight = new AtomicInteger();
+        final AtomicInteger calls = new AtomicInteger();
+        final AsyncPredictiveModel model = (input, completion) -> {
+            calls.incrementAndGet();
+            final int n = inFlight.incrementAndGet();
+            synchronized (maxInFlight) { maxInFlight.set(Math.max(maxInFlight.get(), n)); }
+            final Array numbers = input.getArray("numbers");
+            server.execute(() -> {
+                try { Thread.sleep(5); }
+                catch (InterruptedException ignore) { }
+                final MutableDictionary output = new MutableDictionary();
+                output.setInt("sum", numbers.getInt(0) + numbers.getInt(1));
+                inFlight.decrementAndGet();
+                completion.complete(output, null);
+            });
+        };
+
+        try {
+            Database.prediction.registerAsyncModel(
+                AggregateModel.NAME,
+                model,
+                new PredictiveModelConfiguration().setMaxInFlight(4));
+
+            final PredictiveIndexBuild build = baseTestDb.createPredictiveIndex(
+                "AggIndex",
+                IndexBuilder.predictiveIndex(AggregateModel.NAME, AggregateModel.createInput("numbers"), null),
+                null);
+            assertTrue(build.awaitCompletion(STD_TIMEOUT_SEC, TimeUnit.SECONDS));
+            assertNull(build.getError());
+            assertEquals(50, build.getCompleted());
+
+            // Predictions overlapped, but no more than the limit were ever in flight.
+            assertEquals(50, calls.get());
+            assertTrue(maxInFlight.get() > 1);
+            assertTrue(maxInFlight.get() <= 4);
+
+            // Queries wait for each prediction.
+            final PredictionFunction prediction
+                = Function.prediction(AggregateModel.NAME, AggregateModel.createInput("numbers"));
+            final Query q = QueryBuilder
+                .select(SelectResult.expression(prediction.propertyPath("sum")))
+                .from(DataSource.database(baseTestDb))
+                .where(prediction.propertyPath("sum").equalTo(Expression.value(11)));
+            assertEquals(1, verifyQuery(q, (n, result) -> assertEquals(11, result.getInt(0))));
+        }
+        finally {
+            Database.prediction.unregisterModel(AggregateModel.NAME);
+            server.shutdown();
+        }
+    }
+
+    // A model that never completes its predictions does not stall a query or an index build.
+    @Test
+    public void testAsyncModelTimeout() throws CouchbaseLiteException, InterruptedException {
+        createDocument(new int[] {1, 2, 3, 4, 5});
+        createDocument(new int[] {6, 7, 8, 9, 10});
+
+        final AtomicInteger calls = new AtomicInteger();
+        Database.prediction.registerAsyncModel(
+            AggregateModel.NAME,
+            (input, completion) -> calls.incrementAndGet(),
+            new PredictiveModelConfiguration().setMaxInFlight(1).setTimeout(100));
+
+        try {
+            final PredictiveIndexBuild build = baseTestDb.createPredictiveIndex(
+                "AggIndex",
+                IndexBuilder.predictiveIndex(AggregateModel.NAME, AggregateModel.createInput("numbers"), null),
+                null);
+            assertTrue(build.awaitCompletion(STD_TIMEOUT_SEC, TimeUnit.SECONDS));
+            assertEquals(2, build.getCompleted());
+
+            // The only permit is held by a prediction the model never completed.
+            final PredictionFunction prediction
+                = Function.prediction(AggregateModel.NAME, AggregateModel.createInput("numbers"));
+            final Query q = QueryBuilder
+                .select(SelectResult.expression(prediction.propertyPath("sum")))
+                .from(DataSource.database(baseTestDb));
+            assertEquals(2, verifyQuery(q, (n, result) -> assertNull(result.getValue(0))));
+            assertEquals(1, calls.get());
+        }
+        finally {
+            Database.prediction.unregisterModel(AggregateModel.NAME);
+        }
+    }
+
+    // A model that never returns does not hold up a build's workers: they wait no longer than its timeout.
+    @Test
+    public void testModelTimeoutDuringBuild() throws CouchbaseLiteException, InterruptedException {
+        createDocument(new int[] {1, 2, 3, 4, 5});
+        createDocument(new int[] {6, 7, 8, 9, 10});
+
+        final CountDownLatch release = new CountDownLatch(1);
+        Database.prediction.registerModel(
+            AggregateModel.NAME,
+            input -> {
+                try { release.await(); }
+                catch (InterruptedException ignore) { }
+                return null;
+            },
+            new PredictiveModelConfiguration().setTimeout(100));
+
+        try {
+            final PredictiveIndexBuild build = baseTestDb.createPredictiveIndex(
+                "AggIndex",
+                IndexBuilder.predictiveIndex(AggregateModel.NAME, AggregateModel.createInput("numbers"), null),
+                null);
+            assertTrue(build.awaitCompletion(STD_TIMEOUT_SEC, TimeUnit.SECONDS));
+            assertNull(build.getError());
+            assertTrue(baseTestDb.getIndexes().contains("AggIndex"));
+
+            final PredictionStats stats = Database.prediction.getStats(AggregateModel.NAME);
+            assertNotNull(stats);
+            assertTrue(stats.getTimeoutCount() >= 2);
+        }
+        finally {
+            release.countDown();
+            Database.prediction.unregisterModel(AggregateModel.NAME);
+        }
+    }
+
+    // Cancelling a build whose prediction holds the circuit breaker's probe does not leave the breaker stuck.
+    @Test
+    public void testCancelBuildWithHalfOpenBreaker() throws CouchbaseLiteException, InterruptedException {
+        createDocument(new int[] {1, 2, 3, 4, 5});
+
+        // The model never completes: its only permit is never released, and every call times out.
+        Database.prediction.registerAsyncModel(
+            AggregateModel.NAME,
+            (input, completion) -> { },
+            new PredictiveModelConfiguration()
+                .setMaxInFlight(1)
+                .setTimeout(2000)
+                .setCircuitBreakerThreshold(1)
+                .setCircuitBreakerCoolDown(100));
+
+        try {
+            final Expression input = AggregateModel.createInput("numbers");
+
+            // The first prediction times out and opens the breaker.
+            PredictiveIndexBuild build = baseTestDb.createPredictiveIndex(
+                "AggIndex1",
+                IndexBuilder.predictiveIndex(AggregateModel.NAME, input, null),
+                null);
+            assertTrue(build.awaitCompletion(STD_TIMEOUT_SEC, TimeUnit.SECONDS));
+            PredictionStats stats = Database.prediction.getStats(AggregateModel.NAME);
+            assertNotNull(stats);
+            assertEquals(PredictionCircuitState.OPEN, stats.getCircuitState());
+            Thread.sleep(200);
+
+            // After the cool-down, the next build's prediction is the probe: it waits for the permit.
+            build = baseTestDb.createPredictiveIndex(
+                "AggIndex2",
+                IndexBuilder.predictiveIndex(AggregateModel.NAME, input, null),
+                null);
+            final long deadline = System.currentTimeMillis() + 1000;
+            while (Database.prediction.getStats(AggregateModel.NAME).getCircuitState()
+                != PredictionCircuitState.HALF_OPEN) {
+                assertTrue(System.currentTimeMillis() < deadline);
+                Thread.sleep(10);
+            }
+            build.cancel();
+            assertTrue(build.awaitCompletion(STD_TIMEOUT_SEC, TimeUnit.SECONDS));
+
+            // The cancelled probe was released: the next prediction is allowed to probe, not rejected.
+            final long rejected = Database.prediction.getStats(AggregateModel.NAME).getRejectedCount();
+            final Query q = QueryBuilder
+                .select(SelectResult.expression(Function.prediction(AggregateModel.NAME, input).propertyPath("sum")))
+                .from(DataSource.database(baseTestDb));
+            assertEquals(1, verifyQuery(q, (n, result) -> assertNull(result.getValue(0))));
+            stats = Database.prediction.getStats(AggregateModel.NAME);
+            assertEquals(rejected, stats.getRejectedCount());
+            assertEquals(PredictionCircuitState.OPEN, stats.getCircuitState());
+        }
+        finally {
+            Database.prediction.unregisterModel(AggregateModel.NAME);
+        }
+    }
+
+    @Test
+    public void testModelLifecycle() throws InterruptedException {
+        final List<String> events = new ArrayList<>();
+        final CountDownLatch closed = new CountDownLatch(2);
+        final class LifecycleModel extends BaseTestModel implements PredictiveModelLifecycle {
+            @Override
+            public String getName() { return EchoModel.NAME; }
+
+            @Override
+            public Dictionary getPrediction(Dictionary input) { return input; }
+
+            @Override
+            public void warmUp() throws InterruptedException {
+                Thread.sleep(100);
+                synchronized (events) { events.add("warmUp"); }
+            }
+
+            @Override
+            public void close() {
+                synchronized (events) { events.add("close"); }
+                closed.countDown();
+            }
+        }
+
+        final LifecycleModel model = new LifecycleModel();
+        model.registerModel();
+        assertTrue(Database.prediction.awaitWarmUp(EchoModel.NAME, STD_TIMEOUT_SEC, TimeUnit.SECONDS));
+        synchronized (events) { assertEquals(Arrays.asList("warmUp"), events); }
+
+        // A model registered again is closed, then warmed up again.
+        model.registerModel();
+        assertTrue(Database.prediction.awaitWarmUp(EchoModel.NAME, STD_TIMEOUT_SEC, TimeUnit.SECONDS));
+        synchronized (events) { assertEquals(Arrays.asList("warmUp", "close", "warmUp"), events); }
+
+        model.unregisterModel();
+        assertTrue(closed.await(STD_TIMEOUT_SEC, TimeUnit.SECONDS));
+        synchronized (events) { assertEquals(Arrays.asList("warmUp", "close", "warmUp", "close"), events); }
+
+        // There is no such model.
+        assertFalse(Database.prediction.awaitWarmUp(EchoModel.NAME, 0, TimeUnit.SECONDS));
+
+        // A model without a lifecycle is always warm.
+        final EchoModel echoModel = new EchoModel();
+        echoModel.registerModel();
+        assertTrue(Database.prediction.awaitWarmUp(EchoModel.NAME, 0, TimeUnit.SECONDS));
+        echoModel.unregisterModel();
+    }
+
+    @Test
+    public void testLazyPredictiveModel() throws CouchbaseLiteException {
+        final MutableDocument doc = new MutableDocument();
+        doc.setInt("number", 7);
+        doc.setValue("vector", Arrays.asList(1.0, 2.5, 4.0));
+        doc.setDictionary("meta", new MutableDictionary().setDouble("score", 0.5).setString("tag", "x"));
+        baseTestDb.save(doc);
+
+        final List<PredictionInput> views = new ArrayList<>();
+        Database.prediction.registerLazyModel(
+            "LazyModel",
+            input -> {
+                views.add(input);
+                final float[] vector = input.getFloats("vector");
+                final float[] buf = new float[2];
+                final PredictionInput meta = input.getDictionary("meta");
+                return new MutableDictionary()
+                    .setLong("number", input.getLong("number"))
+                    .setFloat("last", (vector == null) ? -1.0F : vector[vector.length - 1])
+                    .setInt("copied", input.getFloats("vector", buf))
+                    .setFloat("first", buf[0])
+                    .setDouble("score", (meta == null) ? -1.0 : meta.getDouble("score"))
+                    .setBoolean("missing", input.contains("nothing") || (input.getFloats("number") != null));
+            },
+            new PredictiveModelConfiguration().setDeduplicationEnabled(false));
+
+        final Map<String, Object> input = new HashMap<>();
+        input.put("number", Expression.property("number"));
+        input.put("vector", Expression.property("vector"));
+        input.put("meta", Expression.property("meta"));
+        final PredictionFunction prediction = Function.prediction("LazyModel", Expression.map(input));
+
+        final Query q = QueryBuilder
+            .select(SelectResult.expression(prediction).as("prediction"))
+            .from(DataSource.database(baseTestDb));
+        int rows = verifyQuery(q, (n, result) -> {
+            final Dictionary pred = result.getDictionary(0);
+            assertNotNull(pred);
+            assertEquals(7L, pred.getLong("number"));
+            assertEquals(4.0F, pred.getFloat("last"), 0.0F);
+            assertEquals(3, pred.getInt("copied"));
+            assertEquals(1.0F, pred.getFloat("first"), 0.0F);
+            assertEquals(0.5, pred.getDouble("score"), 0.0);
+            assertFalse(pred.getBoolean("missing"));
+        });
+        assertEquals(1, rows);
+
+        // The view cannot be used after the prediction.
+        assertEquals(1, views.size());
+        TestUtils.assertThrows(IllegalStateException.class, () -> views.get(0).getLong("number"));
+
+        Database.prediction.unregisterModel("LazyModel");
+    }
+
     @Test
     public void testDeletePredictiveIndex() throws CouchbaseLiteException {
         createDocument(new int[] {1, 2, 3, 4, 5});
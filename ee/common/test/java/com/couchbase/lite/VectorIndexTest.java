@@ -0,0 +1,373 @@
+//
+// Copyright (c) 2022 Couchbase, Inc.  All rights reserved.
+//
+// Licensed under the Couchbase License Agreement (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+// https://info.couchbase.com/rs/302-GJY-034/images/2017-10-30_License_Agreement.pdf
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package com.couchbase.lite;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.couchbase.lite.internal.fleece.FLEncoder;
+import com.couchbase.lite.internal.fleece.FLSliceResult;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+
+public class VectorIndexTest extends BaseQueryTest {
+    private static final int DIMENSIONS = 8;
+
+    @Test
+    public void testVectorIndexSearch() throws CouchbaseLiteException {
+        final float[][] vectors = createVectors(200);
+
+        final VectorIndex index = baseTestDb.createVectorIndex(
+            "vecIndex",
+            IndexBuilder.vectorIndex(Expression.property("vector"), DIMENSIONS).setMetric(DistanceMetric.EUCLIDEAN));
+        assertEquals(200, index.size());
+        assertEquals(index, baseTestDb.getVectorIndex("vecIndex"));
+
+        // Each document's own vector is nearest to itself.
+        for (int i = 0; i < vectors.length; i += 17) {
+            final List<VectorMatch> matches = index.search(vectors[i], 5);
+            assertEquals(5, matches.size());
+            assertEquals("doc-" + i, matches.get(0).getDocumentId());
+            assertEquals(0.0f, matches.get(0).getDistance(), 1e-5f);
+            for (int j = 1; j < matches.size(); j++) {
+                assertTrue(matches.get(j - 1).getDistance() <= matches.get(j).getDistance());
+            }
+        }
+
+        baseTestDb.deleteVectorIndex("vecIndex");
+        assertNull(baseTestDb.getVectorIndex("vecIndex"));
+    }
+
+    @Test
+    public void testVectorIndexNearestExpression() throws CouchbaseLiteException {
+        final float[][] vectors = createVectors(100);
+
+        final VectorIndex index = baseTestDb.createVectorIndex(
+            "vecIndex",
+            IndexBuilder.vectorIndex(Expression.property("vector"), DIMENSIONS).setMetric(DistanceMetric.COSINE));
+
+        final Query q = QueryBuilder
+            .select(SelectResult.expression(Meta.id))
+            .from(DataSource.database(baseTestDb))
+            .where(index.nearest(vectors[42], 3))
+            .orderBy(Ordering.expression(
+                Function.cosineDistance(Expression.property("vector"), Expression.list(toList(vectors[42])))));
+
+        final List<String> ids = new ArrayList<>();
+        assertEquals(3, verifyQuery(q, (n, result) -> ids.add(result.getString(0))));
+        assertEquals("doc-42", ids.get(0));
+    }
+
+    @Test
+    public void testVectorIndexFollowsChanges() throws CouchbaseLiteException, InterruptedException {
+        final float[][] vectors = createVectors(50);
+
+        final VectorIndex index = baseTestDb.createVectorIndex(
+            "vecIndex",
+            IndexBuilder.vectorIndex(Expression.property("vector"), DIMENSIONS));
+        assertEquals(50, index.size());
+
+        baseTestDb.delete(baseTestDb.getDocument("doc-7"));
+
+        final float[] target = new float[DIMENSIONS];
+        Arrays.fill(target, 100.0f);
+        final MutableDocument doc = new MutableDocument("doc-new");
+        doc.setValue("vector", toList(target));
+        baseTestDb.save(doc);
+
+        final long deadline = System.currentTimeMillis() + (STD_TIMEOUT_SEC * 1000L);
+        while ((index.size() != 50) || !"doc-new".equals(index.search(target, 1).get(0).getDocumentId())) {
+            assertTrue(System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+
+        for (VectorMatch match: index.search(vectors[7], 50)) { assertTrue(!"doc-7".equals(match.getDocumentId())); }
+    }
+
+    // Deleted vectors do not take the place of live ones in the results, and are eventually removed from the graph.
+    @Test
+    public void testVectorIndexAfterManyDeletes() throws CouchbaseLiteException, InterruptedException {
+        final float[][] vectors = createVectors(200);
+
+        final VectorIndex index = baseTestDb.createVectorIndex(
+            "vecIndex",
+            IndexBuilder.vectorIndex(Expression.property("vector"), DIMENSIONS));
+        assertEquals(200, index.size());
+
+        baseTestDb.inBatch(() -> {
+            for (int i = 0; i < 150; i++) { baseTestDb.delete(baseTestDb.getDocument("doc-" + i)); }
+        });
+
+        final long deadline = System.currentTimeMillis() + (STD_TIMEOUT_SEC * 1000L);
+        while (index.size() != 50) {
+            assertTrue(System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+
+        for (int i = 150; i < 200; i += 7) {
+            final List<VectorMatch> matches = index.search(vectors[i], 10);
+            assertEquals(10, matches.size());
+            assertEquals("doc-" + i, matches.get(0).getDocumentId());
+            for (VectorMatch match: matches) {
+                assertTrue(Integer.parseInt(match.getDocumentId().substring(4)) >= 150);
+            }
+        }
+    }
+
+    // Vector indexes are held in memory: they are closed when their database is.
+    @Test
+    public void testVectorIndexClosedWithDatabase() throws CouchbaseLiteException {
+        createVectors(10);
+
+        final Database db = baseTestDb;
+        final VectorIndex index = db.createVectorIndex(
+            "vecIndex",
+            IndexBuilder.vectorIndex(Expression.property("vector"), DIMENSIONS));
+        assertFalse(index.isClosed());
+
+        reopenBaseTestDb();
+
+        assertTrue(index.isClosed());
+        assertNull(db.getVectorIndex("vecIndex"));
+    }
+
+    @Test
+    public void testExactNearest() throws CouchbaseLiteException {
+        final float[][] vectors = createVectors(300);
+
+        final List<VectorMatch> matches = VectorSearch.nearest(
+            baseTestDb,
+            Expression.property("vector"),
+            vectors[99],
+            10,
+            DistanceMetric.SQUARED_EUCLIDEAN);
+        assertEquals(10, matches.size());
+        assertEquals("doc-99", matches.get(0).getDocumentId());
+        for (int j = 1; j < matches.size(); j++) {
+            assertTrue(matches.get(j - 1).getDistance() <= matches.get(j).getDistance());
+        }
+
+        // The index's exact search agrees with the database scan.
+        final VectorIndex index = baseTestDb.createVectorIndex(
+            "vecIndex",
+            IndexBuilder.vectorIndex(Expression.property("vector"), DIMENSIONS)
+                .setMetric(DistanceMetric.SQUARED_EUCLIDEAN));
+        final List<VectorMatch> indexMatches = index.searchExact(vectors[99], 10);
+        assertEquals(matches.size(), indexMatches.size());
+        for (int i = 0; i < matches.size(); i++) {
+            assertEquals(matches.get(i).getDocumentId(), indexMatches.get(i).getDocumentId());
+        }
+
+        final Query q = QueryBuilder
+            .select(SelectResult.expression(Meta.id))
+            .from(DataSource.database(baseTestDb))
+            .where(VectorSearch.selecting(matches));
+        assertEquals(10, verifyQuery(q, (n, result) -> { }));
+    }
+
+    @Test
+    public void testSearchForMoreThanCount() throws CouchbaseLiteException {
+        final float[][] vectors = createVectors(40);
+
+        final List<VectorMatch> matches = VectorSearch.nearest(
+            baseTestDb,
+            Expression.property("vector"),
+            vectors[3],
+            Integer.MAX_VALUE,
+            DistanceMetric.EUCLIDEAN);
+        assertEquals(40, matches.size());
+        assertEquals("doc-3", matches.get(0).getDocumentId());
+
+        final VectorIndex index = baseTestDb.createVectorIndex(
+            "vecIndex",
+            IndexBuilder.vectorIndex(Expression.property("vector"), DIMENSIONS).setMetric(DistanceMetric.EUCLIDEAN));
+        assertEquals(40, index.searchExact(vectors[3], Integer.MAX_VALUE).size());
+
+        final List<VectorMatch> approximate = index.search(vectors[3], Integer.MAX_VALUE);
+        assertTrue(approximate.size() <= 40);
+        assertEquals("doc-3", approximate.get(0).getDocumentId());
+
+        baseTestDb.deleteVectorIndex("vecIndex");
+    }
+
+    @Test
+    public void testPackedVectors() throws CouchbaseLiteException {
+        final Random random = new Random(9);
+        final float[][] vectors = new float[50][DIMENSIONS];
+        for (int i = 0; i < vectors.length; i++) {
+            for (int j = 0; j < DIMENSIONS; j++) { vectors[i][j] = random.nextFloat(); }
+            final MutableDocument doc = new MutableDocument("doc-" + i);
+            doc.setString("vector", PackedVector.encode(vectors[i]));
+            doc.setString("vector16", PackedVector.encode(vectors[i], VectorFormat.FLOAT16));
+            baseTestDb.save(doc);
+        }
+
+        final Document doc = baseTestDb.getDocument("doc-3");
+        assertNotNull(doc);
+        // Packed vectors are stored in the document, not as blobs.
+        assertNull(doc.getBlob("vector"));
+        assertArrayEquals(vectors[3], PackedVector.decode(doc.getString("vector")), 0.0f);
+        assertNull(PackedVector.decode("not a vector"));
+        assertArrayEquals(vectors[3], PackedVector.getVector(doc, "vector"), 0.0f);
+        final float[] vector16 = PackedVector.getVector(doc, "vector16");
+        assertNotNull(vector16);
+        assertArrayEquals(vectors[3], vector16, 1e-3f);
+        assertNull(PackedVector.getVector(doc, "nonexistent"));
+
+        final List<VectorMatch> matches = VectorSearch.nearest(
+            baseTestDb,
+            Expression.property("vector"),
+            vectors[3],
+            1,
+            DistanceMetric.EUCLIDEAN);
+        assertEquals("doc-3", matches.get(0).getDocumentId());
+
+        final VectorIndex index = baseTestDb.createVectorIndex(
+            "vecIndex",
+            IndexBuilder.vectorIndex(Expression.property("vector16"), DIMENSIONS));
+        assertEquals(50, index.size());
+        assertEquals("doc-3", index.search(vectors[3], 1).get(0).getDocumentId());
+    }
+
+    // Base64 costs a third more than the raw bytes, but a packed vector is still much smaller than an array.
+    @Test
+    public void testPackedVectorSize() throws LiteCoreException {
+        final int dims = 384;
+        final Random random = new Random(11);
+        final float[] vector = new float[dims];
+        for (int i = 0; i < dims; i++) { vector[i] = random.nextFloat(); }
+
+        final String packed32 = PackedVector.encode(vector, VectorFormat.FLOAT32);
+        final String packed16 = PackedVector.encode(vector, VectorFormat.FLOAT16);
+        final int prefix32 = ("data:" + VectorFormat.FLOAT32.getContentType() + ";base64,").length();
+        final int prefix16 = ("data:" + VectorFormat.FLOAT16.getContentType() + ";base64,").length();
+        assertEquals(prefix32 + (4 * ((4 * dims + 2) / 3)), packed32.length());
+        assertEquals(prefix16 + (4 * ((2 * dims + 2) / 3)), packed16.length());
+
+        final long arraySize = encodedSize(new MutableDictionary().setValue("vector", toList(vector)));
+        final long packed16Size = encodedSize(new MutableDictionary().setString("vector", packed16));
+        assertTrue(packed16Size < packed16.length() + 32);
+        assertTrue(arraySize > 2 * packed16Size);
+    }
+
+    @Test
+    public void testDotProductAndManhattan() throws CouchbaseLiteException {
+        final float[][] vectors = createVectors(100);
+        final float[] target = vectors[10];
+
+        int bestDot = -1;
+        int bestL1 = -1;
+        float maxDot = Float.NEGATIVE_INFINITY;
+        float minL1 = Float.POSITIVE_INFINITY;
+        for (int i = 0; i < vectors.length; i++) {
+            float dot = 0.0f;
+            float l1 = 0.0f;
+            for (int j = 0; j < DIMENSIONS; j++) {
+                dot += target[j] * vectors[i][j];
+                l1 += Math.abs(target[j] - vectors[i][j]);
+            }
+            if (dot > maxDot) {
+                maxDot = dot;
+                bestDot = i;
+            }
+            if (l1 < minL1) {
+                minL1 = l1;
+                bestL1 = i;
+            }
+        }
+
+        final Expression vector = Expression.property("vector");
+
+        final VectorMatch dotMatch = VectorSearch.nearest(baseTestDb, vector, target, 1, DistanceMetric.DOT_PRODUCT).get(0);
+        assertEquals("doc-" + bestDot, dotMatch.getDocumentId());
+        assertEquals(-maxDot, dotMatch.getDistance(), 1e-4f);
+
+        final VectorMatch l1Match = VectorSearch.nearest(baseTestDb, vector, target, 1, DistanceMetric.MANHATTAN).get(0);
+        assertEquals("doc-" + bestL1, l1Match.getDocumentId());
+        assertEquals(0.0f, l1Match.getDistance(), 1e-6f);
+    }
+
+    @Test
+    public void testQuantizedVectorIndex() throws CouchbaseLiteException {
+        final float[][] vectors = createVectors(300);
+
+        for (VectorQuantization quantization: new VectorQuantization[] {
+            VectorQuantization.SCALAR, VectorQuantization.PRODUCT}) {
+            final VectorIndex index = baseTestDb.createVectorIndex(
+                "vecIndex",
+                IndexBuilder.vectorIndex(Expression.property("vector"), DIMENSIONS)
+                    .setQuantization(quantization)
+                    .setTrainingSampleSize(100)
+                    .setRerankFactor(20));
+            assertEquals(300, index.size());
+
+            // Re-ranking uses the exact vectors, so each document's own vector is nearest to itself.
+            for (int i = 0; i < vectors.length; i += 31) {
+                final List<VectorMatch> matches = index.search(vectors[i], 3);
+                assertEquals(3, matches.size());
+                assertEquals("doc-" + i, matches.get(0).getDocumentId());
+                assertEquals(0.0f, matches.get(0).getDistance(), 1e-5f);
+            }
+
+            final List<VectorMatch> exact = index.searchExact(vectors[99], 10);
+            final List<VectorMatch> scanned
+                = VectorSearch.nearest(baseTestDb, Expression.property("vector"), vectors[99], 10, DistanceMetric.EUCLIDEAN);
+            assertEquals(scanned.size(), exact.size());
+            for (int i = 0; i < exact.size(); i++) {
+                assertEquals(scanned.get(i).getDocumentId(), exact.get(i).getDocumentId());
+            }
+
+            baseTestDb.deleteVectorIndex("vecIndex");
+        }
+    }
+
+    private long encodedSize(MutableDictionary dict) throws LiteCoreException {
+        final FLEncoder encoder = FLEncoder.getManagedEncoder();
+        try {
+            dict.encodeTo(encoder);
+            try (FLSliceResult slice = encoder.finish2()) { return slice.getSize(); }
+        }
+        finally { encoder.close(); }
+    }
+
+    private float[][] createVectors(int n) throws CouchbaseLiteException {
+        final Random random = new Random(4);
+        final float[][] vectors = new float[n][DIMENSIONS];
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < DIMENSIONS; j++) { vectors[i][j] = random.nextFloat(); }
+            final MutableDocument doc = new MutableDocument("doc-" + i);
+            doc.setValue("vector", toList(vectors[i]));
+            baseTestDb.save(doc);
+        }
+        return vectors;
+    }
+
+    private List<Object> toList(float[] vector) {
+        final List<Object> list = new ArrayList<>(vector.length);
+        for (float f: vector) { list.add(f); }
+        return list;
+    }
+}
@@ -0,0 +1,111 @@
+//
+// Copyright (c) 2022 Couchbase, Inc.  All rights reserved.
+//
+// Licensed under the Couchbase License Agreement (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+// https://info.couchbase.com/rs/302-GJY-034/images/2017-10-30_License_Agreement.pdf
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package com.couchbase.lite;
+
+import androidx.annotation.NonNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.openjdk.jmh.infra.Blackhole;
+
+
+/**
+ * Helpers for the benchmarks: scratch databases and their contents.
+ */
+final class BenchmarkSupport {
+    private BenchmarkSupport() { } // Utility class
+
+    static {
+        CouchbaseLite.init();
+    }
+
+    // Create an empty database in a new scratch directory.
+    @NonNull
+    static Database openDatabase(@NonNull String name) throws CouchbaseLiteException, IOException {
+        final File dir = Files.createTempDirectory("cbl-jmh").toFile();
+        return new Database(name, new DatabaseConfiguration().setDirectory(dir.getAbsolutePath()));
+    }
+
+    // Delete a database created by openDatabase, and its scratch directory.
+    static void deleteDatabase(@NonNull Database db) throws CouchbaseLiteException {
+        final File dir = new File(db.getPath()).getParentFile();
+        db.delete();
+        if (dir != null) { deleteRecursive(dir); }
+    }
+
+    // Create the documents doc-0 .. doc-(n-1), each with the property "number": its index.
+    static void createNumberDocuments(@NonNull Database db, int n) throws CouchbaseLiteException {
+        db.inBatch(() -> {
+            for (int i = 0; i < n; i++) {
+                final MutableDocument doc = new MutableDocument("doc-" + i);
+                doc.setInt("number", i);
+                db.save(doc);
+            }
+        });
+    }
+
+    // Create the documents doc-0 .. doc-(n-1), each with a random vector in the property "vector".
+    @NonNull
+    static float[][] createVectorDocuments(@NonNull Database db, int n, int dimensions)
+        throws CouchbaseLiteException {
+        final float[][] vectors = createVectors(n, dimensions);
+        db.inBatch(() -> {
+            for (int i = 0; i < n; i++) {
+                final MutableDocument doc = new MutableDocument("doc-" + i);
+                doc.setValue("vector", toList(vectors[i]));
+                db.save(doc);
+            }
+        });
+        return vectors;
+    }
+
+    // Random vectors: always the same ones, so that runs are comparable.
+    @NonNull
+    static float[][] createVectors(int n, int dimensions) {
+        final Random random = new Random(4);
+        final float[][] vectors = new float[n][dimensions];
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < dimensions; j++) { vectors[i][j] = random.nextFloat(); }
+        }
+        return vectors;
+    }
+
+    // Run a query and consume the first column of each of its results.
+    static void consume(@NonNull Query query, @NonNull Blackhole bh) throws CouchbaseLiteException {
+        try (ResultSet results = query.execute()) {
+            for (Result result: results) { bh.consume(result.getValue(0)); }
+        }
+    }
+
+    @NonNull
+    static List<Object> toList(@NonNull float[] vector) {
+        final List<Object> list = new ArrayList<>(vector.length);
+        for (float f: vector) { list.add(f); }
+        return list;
+    }
+
+    private static void deleteRecursive(@NonNull File file) {
+        final File[] children = file.listFiles();
+        if (children != null) {
+            for (File child: children) { deleteRecursive(child); }
+        }
+        if (!file.delete()) { file.deleteOnExit(); }
+    }
+}
@@ -0,0 +1,124 @@
+//
+// Copyright (c) 2022 Couchbase, Inc.  All rights reserved.
+//
+// Licensed under the Couchbase License Agreement (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+// https://info.couchbase.com/rs/302-GJY-034/images/2017-10-30_License_Agreement.pdf
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package com.couchbase.lite;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+
+/**
+ * The throughput of a MessageEndpointListener when many peers connect at once: the score is the time per accept.
+ * An accept is complete when the listener reports the first change in the state of its connection.
+ * The peers accept everything that is sent to them and never send anything back.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class MessageEndpointAcceptBenchmark {
+    private static final int CONNECTIONS = 200;
+    private static final long TIMEOUT_SEC = 60;
+    private static final long STOP_POLL_MS = 10;
+
+    // A peer that is always open, and that drops everything sent to it.
+    private static final class SinkConnection implements MessageEndpointConnection {
+        @Override
+        public void open(@NonNull ReplicatorConnection connection, @NonNull MessagingCompletion completion) {
+            completion.complete(true, null);
+        }
+
+        @Override
+        public void send(@NonNull Message message, @NonNull MessagingCompletion completion) {
+            completion.complete(true, null);
+        }
+
+        @Override
+        public void close(@Nullable Exception error, @NonNull MessagingCloseCompletion completion) {
+            completion.complete();
+        }
+    }
+
+    @Param({"1", "4", "16"})
+    public int maxConcurrentAccepts;
+
+    private Database db;
+    private MessageEndpointListener listener;
+
+    @Setup
+    public void setUp() throws CouchbaseLiteException, IOException {
+        db = BenchmarkSupport.openDatabase("accept");
+        BenchmarkSupport.createNumberDocuments(db, 100);
+    }
+
+    @Setup(Level.Invocation)
+    public void createListener() {
+        listener = new MessageEndpointListener(
+            new MessageEndpointListenerConfiguration(db, ProtocolType.MESSAGE_STREAM)
+                .setMaxConcurrentAccepts(maxConcurrentAccepts));
+    }
+
+    @TearDown(Level.Invocation)
+    public void closeListener() throws InterruptedException {
+        listener.closeAll();
+        final long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(TIMEOUT_SEC);
+        while (!listener.isStopped()) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new IllegalStateException("Timed out closing connections: " + listener);
+            }
+            Thread.sleep(STOP_POLL_MS);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws CouchbaseLiteException { BenchmarkSupport.deleteDatabase(db); }
+
+    @Benchmark
+    @OperationsPerInvocation(CONNECTIONS)
+    public void acceptStorm() throws InterruptedException {
+        // A connection's first change means that it has been accepted.
+        final Set<MessageEndpointConnection> seen = ConcurrentHashMap.newKeySet();
+        final CountDownLatch accepted = new CountDownLatch(CONNECTIONS);
+        final ListenerToken token = listener.addChangeListener(change -> {
+            if (seen.add(change.getConnection())) { accepted.countDown(); }
+        });
+
+        try {
+            for (int i = 0; i < CONNECTIONS; i++) { listener.accept(new SinkConnection()); }
+            if (!accepted.await(TIMEOUT_SEC, TimeUnit.SECONDS)) {
+                throw new IllegalStateException("Timed out accepting connections: " + accepted.getCount() + " left");
+            }
+        }
+        finally {
+            listener.removeChangeListener(token);
+        }
+    }
+}
@@ -0,0 +1,99 @@
+//
+// Copyright (c) 2022 Couchbase, Inc.  All rights reserved.
+//
+// Licensed under the Couchbase License Agreement (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+// https://info.couchbase.com/rs/302-GJY-034/images/2017-10-30_License_Agreement.pdf
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package com.couchbase.lite;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+
+/**
+ * The cost of calling a predictive model from a query.
+ * <p>
+ * Both benchmarks run the same query over the same documents: one of them also calls a model that does nothing.
+ * The difference between their per-row times is the overhead of a prediction up-call: encoding its input,
+ * calling into Java, and decoding its result.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PredictionBenchmark {
+    static final int DOCUMENTS = 1000;
+
+    private static final String MODEL = "NoopModel";
+
+    // A model that does nothing at all: it returns the same result for every input.
+    static final class NoopModel implements PredictiveModel {
+        private final Dictionary result = new MutableDictionary().setInt("value", 1);
+
+        @Override
+        public Dictionary predict(@NonNull Dictionary input) { return result; }
+    }
+
+    private Database db;
+    private Query baseline;
+    private Query prediction;
+
+    @Setup
+    public void setUp() throws CouchbaseLiteException, IOException {
+        db = BenchmarkSupport.openDatabase("prediction");
+        BenchmarkSupport.createNumberDocuments(db, DOCUMENTS);
+
+        Database.prediction.registerModel(MODEL, new NoopModel());
+
+        final Map<String, Object> input = new HashMap<>();
+        input.put("number", Expression.property("number"));
+
+        baseline = QueryBuilder
+            .select(SelectResult.expression(Expression.map(input)))
+            .from(DataSource.database(db));
+
+        prediction = QueryBuilder
+            .select(SelectResult.expression(Function.prediction(MODEL, Expression.map(input))))
+            .from(DataSource.database(db));
+    }
+
+    @TearDown
+    public void tearDown() throws CouchbaseLiteException {
+        Database.prediction.unregisterModel(MODEL);
+        BenchmarkSupport.deleteDatabase(db);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(DOCUMENTS)
+    public void baseline(Blackhole bh) throws CouchbaseLiteException {
+        BenchmarkSupport.consume(baseline, bh);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(DOCUMENTS)
+    public void noopPrediction(Blackhole bh) throws CouchbaseLiteException {
+        BenchmarkSupport.consume(prediction, bh);
+    }
+}
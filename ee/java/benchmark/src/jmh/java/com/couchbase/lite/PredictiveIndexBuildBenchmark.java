@@ -0,0 +1,86 @@
+//
+// Copyright (c) 2022 Couchbase, Inc.  All rights reserved.
+//
+// Licensed under the Couchbase License Agreement (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+// https://info.couchbase.com/rs/302-GJY-034/images/2017-10-30_License_Agreement.pdf
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package com.couchbase.lite;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+
+/**
+ * The throughput of a background predictive index build: the score is the time per document.
+ * Each invocation builds the index from scratch; it is deleted after each invocation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PredictiveIndexBuildBenchmark {
+    private static final int DOCUMENTS = 10000;
+    private static final String INDEX = "SquareIndex";
+    private static final long TIMEOUT_MIN = 10;
+
+    @Param({"1", "4"})
+    public int parallelism;
+
+    private Database db;
+    private PredictiveIndex index;
+
+    @Setup
+    public void setUp() throws CouchbaseLiteException, IOException {
+        Database.prediction.registerModel(PredictiveQueryBenchmark.MODEL, new PredictiveQueryBenchmark.SquareModel());
+
+        db = BenchmarkSupport.openDatabase("indexBuild");
+        BenchmarkSupport.createNumberDocuments(db, DOCUMENTS);
+
+        index = IndexBuilder.predictiveIndex(
+            PredictiveQueryBenchmark.MODEL,
+            PredictiveQueryBenchmark.createInput(),
+            Collections.singletonList("square"));
+    }
+
+    @TearDown(Level.Invocation)
+    public void deleteIndex() throws CouchbaseLiteException { db.deleteIndex(INDEX); }
+
+    @TearDown
+    public void tearDown() throws CouchbaseLiteException {
+        Database.prediction.unregisterModel(PredictiveQueryBenchmark.MODEL);
+        BenchmarkSupport.deleteDatabase(db);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(DOCUMENTS)
+    public void build() throws CouchbaseLiteException, InterruptedException {
+        final PredictiveIndexBuild build = db.createPredictiveIndex(INDEX, index, parallelism, null);
+        if (!build.awaitCompletion(TIMEOUT_MIN, TimeUnit.MINUTES)) {
+            build.cancel();
+            throw new IllegalStateException("Timed out building index: " + build);
+        }
+
+        final CouchbaseLiteException err = build.getError();
+        if (err != null) { throw err; }
+    }
+}
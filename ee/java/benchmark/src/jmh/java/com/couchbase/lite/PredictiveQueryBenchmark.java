@@ -0,0 +1,117 @@
+//
+// Copyright (c) 2022 Couchbase, Inc.  All rights reserved.
+//
+// Licensed under the Couchbase License Agreement (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+// https://info.couchbase.com/rs/302-GJY-034/images/2017-10-30_License_Agreement.pdf
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package com.couchbase.lite;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+
+/**
+ * A query that filters on a prediction, with and without a predictive index.
+ * <p>
+ * Without the index, the model is called for every document on every execution of the query.
+ * With it, the query is a lookup in the index and the model is not called at all.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PredictiveQueryBenchmark {
+    static final String MODEL = "SquareModel";
+
+    // A model that does a trivial amount of work: it squares its input.
+    static final class SquareModel implements PredictiveModel {
+        @Override
+        public Dictionary predict(@NonNull Dictionary input) {
+            final long n = input.getLong("number");
+            return new MutableDictionary().setLong("square", n * n);
+        }
+    }
+
+    @NonNull
+    static Expression createInput() {
+        final Map<String, Object> input = new HashMap<>();
+        input.put("number", Expression.property("number"));
+        return Expression.map(input);
+    }
+
+    @Param({"1000", "10000"})
+    public int documents;
+
+    private Database unindexedDb;
+    private Database indexedDb;
+    private Query unindexed;
+    private Query indexed;
+
+    @Setup
+    public void setUp() throws CouchbaseLiteException, IOException {
+        Database.prediction.registerModel(MODEL, new SquareModel());
+
+        unindexedDb = BenchmarkSupport.openDatabase("unindexed");
+        BenchmarkSupport.createNumberDocuments(unindexedDb, documents);
+
+        indexedDb = BenchmarkSupport.openDatabase("indexed");
+        BenchmarkSupport.createNumberDocuments(indexedDb, documents);
+        indexedDb.createIndex(
+            "SquareIndex",
+            IndexBuilder.predictiveIndex(MODEL, createInput(), Collections.singletonList("square")));
+
+        unindexed = createQuery(unindexedDb);
+        indexed = createQuery(indexedDb);
+    }
+
+    @TearDown
+    public void tearDown() throws CouchbaseLiteException {
+        Database.prediction.unregisterModel(MODEL);
+        BenchmarkSupport.deleteDatabase(unindexedDb);
+        BenchmarkSupport.deleteDatabase(indexedDb);
+    }
+
+    @Benchmark
+    public void unindexedPrediction(Blackhole bh) throws CouchbaseLiteException {
+        BenchmarkSupport.consume(unindexed, bh);
+    }
+
+    @Benchmark
+    public void indexedPrediction(Blackhole bh) throws CouchbaseLiteException {
+        BenchmarkSupport.consume(indexed, bh);
+    }
+
+    // Find the document whose number is in the middle of the range.
+    @NonNull
+    private Query createQuery(@NonNull Database db) {
+        final PredictionFunction prediction = Function.prediction(MODEL, createInput());
+        final long target = documents / 2;
+        return QueryBuilder
+            .select(SelectResult.expression(Meta.id))
+            .from(DataSource.database(db))
+            .where(prediction.propertyPath("square").equalTo(Expression.longValue(target * target)));
+    }
+}
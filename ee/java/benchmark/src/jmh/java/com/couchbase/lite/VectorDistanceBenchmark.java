@@ -0,0 +1,61 @@
+//
+// Copyright (c) 2022 Couchbase, Inc.  All rights reserved.
+//
+// Licensed under the Couchbase License Agreement (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+// https://info.couchbase.com/rs/302-GJY-034/images/2017-10-30_License_Agreement.pdf
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package com.couchbase.lite;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+
+/**
+ * The distance kernels used by vector indexes and exact vector searches,
+ * for every metric: the score is the time per pair of vectors.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class VectorDistanceBenchmark {
+    private static final int VECTORS = 1024;
+
+    @Param({"32", "128", "384", "768", "1536"})
+    public int dimensions;
+
+    @Param({"EUCLIDEAN", "SQUARED_EUCLIDEAN", "COSINE", "DOT_PRODUCT", "MANHATTAN"})
+    public DistanceMetric metric;
+
+    private float[] target;
+    private float[][] vectors;
+
+    @Setup
+    public void setUp() {
+        vectors = BenchmarkSupport.createVectors(VECTORS + 1, dimensions);
+        target = vectors[VECTORS];
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(VECTORS)
+    public void distance(Blackhole bh) {
+        for (int i = 0; i < VECTORS; i++) { bh.consume(VectorMath.distance(metric, target, vectors[i])); }
+    }
+}
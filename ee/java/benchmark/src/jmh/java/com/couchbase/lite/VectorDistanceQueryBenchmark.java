@@ -0,0 +1,87 @@
+//
+// Copyright (c) 2022 Couchbase, Inc.  All rights reserved.
+//
+// Licensed under the Couchbase License Agreement (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+// https://info.couchbase.com/rs/302-GJY-034/images/2017-10-30_License_Agreement.pdf
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package com.couchbase.lite;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+
+/**
+ * The distance query functions, {@link Function#euclideanDistance(Expression, Expression)},
+ * {@link Function#squaredEuclideanDistance(Expression, Expression)} and
+ * {@link Function#cosineDistance(Expression, Expression)}, evaluated for every document in the database:
+ * the score is the time per document.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class VectorDistanceQueryBenchmark {
+    private static final int DOCUMENTS = 1000;
+
+    @Param({"32", "128", "384", "768", "1536"})
+    public int dimensions;
+
+    @Param({"EUCLIDEAN", "SQUARED_EUCLIDEAN", "COSINE"})
+    public DistanceMetric metric;
+
+    private Database db;
+    private Query query;
+
+    @Setup
+    public void setUp() throws CouchbaseLiteException, IOException {
+        db = BenchmarkSupport.openDatabase("distance");
+        final float[][] vectors = BenchmarkSupport.createVectorDocuments(db, DOCUMENTS, dimensions);
+
+        final Expression target = Expression.list(BenchmarkSupport.toList(vectors[0]));
+        query = QueryBuilder
+            .select(SelectResult.expression(createDistance(Expression.property("vector"), target)))
+            .from(DataSource.database(db));
+    }
+
+    @TearDown
+    public void tearDown() throws CouchbaseLiteException { BenchmarkSupport.deleteDatabase(db); }
+
+    @Benchmark
+    @OperationsPerInvocation(DOCUMENTS)
+    public void distance(Blackhole bh) throws CouchbaseLiteException { BenchmarkSupport.consume(query, bh); }
+
+    @NonNull
+    private Expression createDistance(@NonNull Expression vector, @NonNull Expression target) {
+        switch (metric) {
+            case EUCLIDEAN:
+                return Function.euclideanDistance(vector, target);
+            case SQUARED_EUCLIDEAN:
+                return Function.squaredEuclideanDistance(vector, target);
+            case COSINE:
+                return Function.cosineDistance(vector, target);
+            default:
+                throw new IllegalArgumentException("No query function for metric: " + metric);
+        }
+    }
+}
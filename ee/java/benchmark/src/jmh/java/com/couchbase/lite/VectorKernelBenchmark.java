@@ -0,0 +1,138 @@
+//
+// Copyright (c) 2022 Couchbase, Inc.  All rights reserved.
+//
+// Licensed under the Couchbase License Agreement (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+// https://info.couchbase.com/rs/302-GJY-034/images/2017-10-30_License_Agreement.pdf
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package com.couchbase.lite;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+
+/**
+ * The unrolled distance kernels in {@link VectorMath}, against the simple loops that they replaced:
+ * the score is the time per pair of vectors.  The unrolled COSINE kernel is measured as it is used in a scan,
+ * with the norm of the target computed once; the simple one computes both norms, as it did.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class VectorKernelBenchmark {
+    private static final int VECTORS = 1024;
+
+    @Param({"32", "128", "384", "768", "1536"})
+    public int dimensions;
+
+    @Param({"SQUARED_EUCLIDEAN", "COSINE", "DOT_PRODUCT", "MANHATTAN"})
+    public DistanceMetric metric;
+
+    private float[] target;
+    private double targetNorm;
+    private float[][] vectors;
+
+    @Setup
+    public void setUp() {
+        vectors = BenchmarkSupport.createVectors(VECTORS + 1, dimensions);
+        target = vectors[VECTORS];
+        targetNorm = VectorMath.norm(target);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(VECTORS)
+    public void simple(Blackhole bh) {
+        for (int i = 0; i < VECTORS; i++) { bh.consume(simpleDistance(target, vectors[i])); }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(VECTORS)
+    public void unrolled(Blackhole bh) {
+        for (int i = 0; i < VECTORS; i++) { bh.consume(unrolledDistance(target, vectors[i])); }
+    }
+
+    private float unrolledDistance(float[] a, float[] b) {
+        switch (metric) {
+            case SQUARED_EUCLIDEAN:
+                return VectorMath.squaredEuclidean(a, b);
+            case COSINE:
+                return VectorMath.cosine(a, targetNorm, b);
+            case DOT_PRODUCT:
+                return -VectorMath.dot(a, b);
+            case MANHATTAN:
+                return VectorMath.manhattan(a, b);
+            default:
+                throw new IllegalArgumentException("Unrecognized metric: " + metric);
+        }
+    }
+
+    //---------------------------------------------
+    // The kernels as they were before they were unrolled: a single accumulator for each sum.
+    //---------------------------------------------
+
+    private float simpleDistance(float[] a, float[] b) {
+        switch (metric) {
+            case SQUARED_EUCLIDEAN:
+                return simpleSquaredEuclidean(a, b);
+            case COSINE:
+                return simpleCosine(a, b);
+            case DOT_PRODUCT:
+                return -simpleDot(a, b);
+            case MANHATTAN:
+                return simpleManhattan(a, b);
+            default:
+                throw new IllegalArgumentException("Unrecognized metric: " + metric);
+        }
+    }
+
+    private static float simpleSquaredEuclidean(float[] a, float[] b) {
+        float sum = 0.0f;
+        for (int i = 0; i < a.length; i++) {
+            final float d = a[i] - b[i];
+            sum += d * d;
+        }
+        return sum;
+    }
+
+    private static float simpleDot(float[] a, float[] b) {
+        float sum = 0.0f;
+        for (int i = 0; i < a.length; i++) { sum += a[i] * b[i]; }
+        return sum;
+    }
+
+    private static float simpleManhattan(float[] a, float[] b) {
+        float sum = 0.0f;
+        for (int i = 0; i < a.length; i++) { sum += Math.abs(a[i] - b[i]); }
+        return sum;
+    }
+
+    private static float simpleCosine(float[] a, float[] b) {
+        float dot = 0.0f;
+        float normA = 0.0f;
+        float normB = 0.0f;
+        for (int i = 0; i < a.length; i++) {
+            dot += a[i] * b[i];
+            normA += a[i] * a[i];
+            normB += b[i] * b[i];
+        }
+        final double norms = Math.sqrt(normA) * Math.sqrt(normB);
+        return (norms <= 0.0) ? 1.0f : (float) (1.0 - (dot / norms));
+    }
+}